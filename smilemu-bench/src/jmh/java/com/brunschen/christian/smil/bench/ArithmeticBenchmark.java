@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.Processor;
+import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.TapeRunner;
+
+/**
+ * Measures the bit-serial multiply and divide loops on their own, starting from the same operands
+ * every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArithmeticBenchmark {
+  private static final long A = SMIL.word(0.0123456789);
+  private static final long B = SMIL.word(-0.5);
+
+  private Processor processor;
+
+  @Setup
+  public void setUp() {
+    processor = new TapeRunner().smil().processor();
+  }
+
+  @Benchmark
+  public long multiply() {
+    processor.ar.clear();
+    processor.mr.setValue(A);
+    processor.md.setValue(B);
+    processor.multiply();
+    return processor.ar.value();
+  }
+
+  @Benchmark
+  public long divide() {
+    processor.ar.setValue(A);
+    processor.mr.clear();
+    processor.md.setValue(B);
+    processor.divide();
+    return processor.mr.value();
+  }
+}
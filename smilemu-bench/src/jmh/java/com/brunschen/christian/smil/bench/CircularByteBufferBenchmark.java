@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.sound.CircularByteBuffer;
+
+/**
+ * Measures writing a chunk of sound data into a CircularByteBuffer and reading it back out, the
+ * way the sound generator and its output line use it. The buffer's start moves with every chunk,
+ * so the copies regularly wrap around its end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircularByteBufferBenchmark {
+
+  @Param({ "64", "1024" })
+  public int chunk;
+
+  private CircularByteBuffer buffer;
+  private byte[] in;
+  private byte[] out;
+
+  @Setup
+  public void setUp() {
+    buffer = CircularByteBuffer.throwingBuffer(8192 + 17);
+    in = new byte[chunk];
+    out = new byte[chunk];
+    for (int i = 0; i < chunk; i++) {
+      in[i] = (byte) i;
+    }
+  }
+
+  @Benchmark
+  public int writeThenRead() {
+    buffer.write(in);
+    return buffer.read(out);
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.Clock;
+import com.brunschen.christian.smil.DrumMemory;
+import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.SlaveClock;
+import com.brunschen.christian.smil.SystemClock;
+
+/**
+ * Measures DrumMemory.read and write, including waiting for the drum to rotate to the address,
+ * on an unpaced clock so that nothing actually sleeps. Addresses are stepped by a prime so the
+ * rotational waits vary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrumMemoryBenchmark {
+  private DrumMemory memory;
+  private int address = 0;
+  private long value = 0L;
+
+  @Setup
+  public void setUp() {
+    memory = new DrumMemory(SMIL.drumRows, SMIL.wordsPerDrumRow, SMIL.WORD_BITS);
+    SlaveClock<Clock.UnitTick> clock = new SlaveClock<Clock.UnitTick>(memory.makeTickClock(new SystemClock(),
+        SMIL.ticksPerSecond));
+    clock.setWillWait(false);
+    memory.setClock(clock);
+  }
+
+  @Benchmark
+  public long read() {
+    address = (address + 37) % memory.length();
+    return memory.read(address);
+  }
+
+  @Benchmark
+  public void write() {
+    address = (address + 37) % memory.length();
+    memory.write(address, ++value);
+  }
+}
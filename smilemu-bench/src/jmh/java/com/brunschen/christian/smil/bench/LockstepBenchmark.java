@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.Arithmetic;
+import com.brunschen.christian.smil.Lockstep;
+import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.TapeRunner;
+
+/**
+ * Compares running the memory dump routine from 64 different start addresses on one Lockstep with
+ * running it 64 times on a single scalar machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LockstepBenchmark {
+  private static final int START = 0x0e2;
+  private static final long TICK_LIMIT = 2000000L;
+
+  private TapeRunner runner;
+  private SMIL smil;
+  private long[] image = new long[Lockstep.MEMORY_WORDS];
+  private Arithmetic.Registers registers = new Arithmetic.Registers();
+  private long startTicks;
+  private Lockstep lockstep = new Lockstep(Lockstep.MAX_LANES);
+
+  @Setup
+  public void setUp() {
+    runner = new TapeRunner();
+    smil = runner.smil();
+    smil.tickClock().setWillWait(false);
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    runner.load(SMIL.tape("B2"));
+    for (int address = 0; address < image.length; address++) {
+      image[address] = smil.memory().get(address);
+    }
+    registers.load(smil.processor());
+    startTicks = smil.tickClock().now();
+    runner.setTickLimit(startTicks + TICK_LIMIT);
+  }
+
+  private static long ar(int lane) {
+    return 0x100L + lane * 0x40L;
+  }
+
+  @Benchmark
+  public long lockstep() {
+    for (int lane = 0; lane < lockstep.lanes(); lane++) {
+      lockstep.reset(lane);
+      System.arraycopy(image, 0, lockstep.memory(lane), 0, image.length);
+      lockstep.registers(lane).set(registers);
+      lockstep.registers(lane).ar = Arithmetic.arWithValue(ar(lane));
+      lockstep.setTicks(lane, startTicks);
+      lockstep.start(lane, START, false);
+    }
+    lockstep.run(startTicks + TICK_LIMIT, Long.MAX_VALUE);
+    return lockstep.halted();
+  }
+
+  @Benchmark
+  public long scalar() {
+    long halted = 0L;
+    for (int lane = 0; lane < Lockstep.MAX_LANES; lane++) {
+      smil.memory().set(0, image, 0, image.length);
+      registers.store(smil.processor());
+      smil.processor().ar.setValue(ar(lane));
+      smil.tickClock().reset();
+      smil.tickClock().sleep(startTicks);
+      smil.typewriter().clear();
+      if (runner.start(START, false)) {
+        halted |= 1L << lane;
+      }
+    }
+    return halted;
+  }
+}
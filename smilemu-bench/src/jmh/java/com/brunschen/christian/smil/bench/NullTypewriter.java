@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import com.brunschen.christian.smil.Typewriter;
+
+/**
+ * A typewriter that throws away everything typed on it, so that benchmarks that print do not
+ * accumulate text.
+ */
+public class NullTypewriter extends Typewriter.Default {
+  public int length() {
+    return 0;
+  }
+
+  public String text() {
+    return "";
+  }
+
+  public void append(String s) {
+  }
+
+  public void clear() {
+  }
+}
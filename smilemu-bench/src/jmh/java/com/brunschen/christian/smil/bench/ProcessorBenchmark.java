@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.Processor;
+import com.brunschen.christian.smil.ProgramCounter;
+import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.TapeRunner;
+
+/**
+ * Measures a single Processor.oneStep for one instruction from each opcode group, with the
+ * instruction already in IR. Reading from tape (group 0) is left out, since it needs a tape that
+ * never runs out; it is covered by the whole-tape runs in TapeRunBenchmark. Each is measured with
+ * both ways the processor can dispatch.
+ *
+ * Every invocation starts from the same state: KR, IR, AR, MR and the operand word are restored,
+ * and the clock is restarted so that the drum is at the same row, before the instruction is
+ * stepped. Otherwise AR and MR would drift (and overflow, or divide by something else) and the
+ * drum waits would depend on where the previous invocation left it. Restoring costs the same every
+ * time, so it is included in what is measured rather than moved into a per-invocation setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorBenchmark {
+  public static final int START = 0x010;
+  public static final int OPERAND = 0x100;
+
+  // one representative halfword per opcode group: address << 8 | group << 4 | extras
+  private static final int[] halfwords = new int[] {
+      0x00000, // tape word -> AR, [000]
+      0x10010, // logical product with [100]
+      0x00020, // MR -> AR
+      0x10130, // AR -> [101]
+      0x10040, // AR + [100] -> AR, MR
+      0x10050, // AR + [100] -> AR
+      0x10060, // [100] * MR + AR * 2^-39 -> AR, MR
+      0x10070, // [100] * MR + 2^-40 -> AR
+      0x10080, // AR / [100] -> MR
+      0x01090, // jump 010 left
+      0x010A0, // jump 010 left if AR >= 0
+      0x000B8, // no-op
+      0x000C0, // normalize
+      0x004D8, // AR >> 4 (arithmetic)
+      0x000E0, // invalid
+      0x000F8, // print space
+  };
+
+  @Param({ "1", "2", "3", "4", "5", "6", "7", "8", "9", "A", "B", "C", "D", "E", "F" })
+  public String group;
+
+  @Param({ "OPERATIONS", "SWITCH" })
+  public Processor.Dispatch dispatch;
+
+  private SMIL smil;
+  private Processor processor;
+  private long instruction;
+  private final long operand = SMIL.word(0.375);
+  private final long ar = SMIL.word(0.125);
+  private final long mr = SMIL.word(0.25);
+
+  @Setup
+  public void setUp() {
+    smil = new TapeRunner(dispatch).smil();
+    smil.setTypewriter(new NullTypewriter());
+    processor = smil.processor();
+    long halfword = halfwords[Integer.parseInt(group, 16)];
+    instruction = halfword << SMIL.HALFWORD_BITS | halfword;
+    smil.memory().set(START, instruction);
+  }
+
+  @Benchmark
+  public void oneStep() {
+    smil.tickClock().reset();
+    smil.memory().set(OPERAND, operand);
+    processor.ar.setValue(ar);
+    processor.mr.setValue(mr);
+    processor.kr.setValue(START);
+    processor.kr.setBit(ProgramCounter.RIGHT_BIT, false);
+    processor.ir.setValue(instruction);
+    processor.oneStep();
+  }
+}
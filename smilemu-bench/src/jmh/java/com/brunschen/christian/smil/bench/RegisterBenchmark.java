@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.Register;
+import com.brunschen.christian.smil.ValueChangeListener;
+
+/**
+ * Measures Register.setBits with no listeners, with a listener on the whole register, and with a
+ * listener on a single bit that changes every time, as the sound source bit does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterBenchmark {
+
+  @Param({ "none", "register", "bit" })
+  public String listeners;
+
+  private Register register;
+  private long bits;
+  private int changes;
+
+  @Setup
+  public void setUp() {
+    register = new Register("AR", Register.BitOrder.BIG_ENDIAN, 2, 40, 0);
+    if (listeners.equals("register")) {
+      register.addListener(new Register.Listener() {
+        public void registerChanged(Register register) {
+          changes++;
+        }
+      });
+    } else if (listeners.equals("bit")) {
+      register.addValueUpdatedListenerForBit(new ValueChangeListener<Integer>() {
+        public void valueChanged(Integer oldValue, Integer newValue) {
+          changes++;
+        }
+      }, register.startBit() + 38);
+    }
+  }
+
+  @Benchmark
+  public int setBits() {
+    bits = bits + 0x0000000002L & register.mask;
+    register.setBits(bits);
+    return changes;
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.SMILPool;
+import com.brunschen.christian.smil.TapeRunner;
+
+/**
+ * Compares getting a clean machine from an SMILPool, after a small job has written a few words of
+ * memory, with building a new one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SMILPoolBenchmark {
+  private SMILPool pool;
+  private int address = 0;
+
+  @Setup
+  public void setUp() {
+    pool = new SMILPool(1);
+  }
+
+  @Benchmark
+  public SMIL recycle() throws InterruptedException {
+    SMIL smil = pool.acquire();
+    for (int i = 0; i < 16; i++) {
+      address = (address + 37) % smil.memory().length();
+      smil.memory().write(address, i + 1);
+    }
+    pool.release(smil);
+    return smil;
+  }
+
+  @Benchmark
+  public SMIL construct() {
+    return TapeRunner.newMachine();
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.Tape;
+
+/**
+ * Measures parsing a bundled tape with Tape.load, and turning a loaded tape back into words with
+ * Tape.words().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TapeBenchmark {
+
+  @Param({ "A1", "Print Integer", "Sine Wave" })
+  public String tape;
+
+  private List<String> lines = new ArrayList<String>();
+  private Tape loaded;
+
+  @Setup
+  public void setUp() throws IOException {
+    BufferedReader r = new BufferedReader(new InputStreamReader(SMIL.class.getResourceAsStream("Tapes/"
+        + SMIL.stripSpaces(tape))));
+    try {
+      String line;
+      while ((line = r.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      r.close();
+    }
+    loaded = new Tape(lines);
+  }
+
+  @Benchmark
+  public Tape load() {
+    Tape t = new Tape();
+    t.load(lines);
+    return t;
+  }
+
+  @Benchmark
+  public List<Long> words() {
+    return loaded.words();
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brunschen.christian.smil.Fusion;
+import com.brunschen.christian.smil.TapeRunner;
+
+/**
+ * Measures loading and running each program made up of the bundled tapes, from the A1 loader
+ * onwards, in unpaced mode. This is the end-to-end number: it includes tape reading, drum waits
+ * and typewriter output as well as instruction execution. With 'fused', the processor fuses the
+ * idioms it finds, as Fusion describes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TapeRunBenchmark {
+
+  @Param({ "Primes", "Square Roots", "Sine Wave", "Memory Dump" })
+  public String program;
+
+  @Param({ "false", "true" })
+  public boolean fused;
+
+  private TapeRunner runner;
+  private TapeRunner.Program toRun;
+
+  @Setup
+  public void setUp() {
+    runner = new TapeRunner();
+    if (fused) {
+      runner.smil().processor().setFusion(new Fusion());
+    }
+    toRun = TapeRunner.program(program);
+  }
+
+  @Benchmark
+  public long run() {
+    return runner.run(toRun).ticks();
+  }
+}
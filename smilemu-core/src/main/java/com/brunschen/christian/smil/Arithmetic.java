@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * The processor's arithmetic, done on whole words held in plain longs rather than a bit at a time
+ * through Register objects. Every method gives exactly the same result as the Processor method of
+ * the same name, down to the bits outside the value (AR's extra and low bits, MR's high bit) and
+ * the final bit counter, and returns the number of clock pulses the Processor would spend on it.
+ *
+ * Registers are held as the bit patterns that Register.bits() returns:
+ *
+ * <pre>
+ *   AR  42 bits: extra bit (00) at bit 41, value at bits 40..1, low bit (40) at bit 0
+ *   MR  41 bits: value at bits 40..1, high bit (40) at bit 0
+ *   MD  40 bits, IR 40 bits
+ *   KR  13 bits: address at bits 12..1, right-hand halfword flag at bit 0
+ *   BR   6 bits
+ * </pre>
+ */
+public final class Arithmetic {
+  public static final long AR_LOW = 1L;
+  public static final long AR_LSB = 1L << 1;
+  public static final long AR_VALUE = SMIL.WORD_MASK << 1;
+  public static final long AR_SIGN = 1L << SMIL.WORD_BITS;
+  public static final long AR_EXTRA = 1L << SMIL.WORD_BITS + 1;
+  public static final long AR_MASK = AR_EXTRA | AR_VALUE | AR_LOW;
+
+  public static final long MR_HIGH = 1L;
+  public static final long MR_LSB = 1L << 1;
+  public static final long MR_VALUE = SMIL.WORD_MASK << 1;
+  public static final long MR_SIGN = 1L << SMIL.WORD_BITS;
+  public static final long MR_MASK = MR_VALUE | MR_HIGH;
+
+  public static final long WORD_SIGN = 1L << SMIL.WORD_BITS - 1;
+  public static final int KR_MASK = 0x1fff;
+  public static final int BR_MASK = 0x3f;
+
+  /**
+   * The registers of one machine, as bit patterns.
+   */
+  public static final class Registers {
+    public long ar;
+    public long mr;
+    public long md;
+    public long ir;
+    public int kr;
+    public int br;
+
+    public Registers() {
+    }
+
+    public Registers(Registers r) {
+      set(r);
+    }
+
+    public void set(Registers r) {
+      ar = r.ar;
+      mr = r.mr;
+      md = r.md;
+      ir = r.ir;
+      kr = r.kr;
+      br = r.br;
+    }
+
+    public void clear() {
+      ar = mr = md = ir = 0L;
+      kr = br = 0;
+    }
+
+    /**
+     * Copies the processor's registers in.
+     */
+    public void load(Processor processor) {
+      ar = processor.ar.bits();
+      mr = processor.mr.bits();
+      md = processor.md.bits();
+      ir = processor.ir.bits();
+      kr = (int) processor.kr.bits();
+      br = (int) processor.br.bits();
+    }
+
+    /**
+     * Copies these registers out to the processor's.
+     */
+    public void store(Processor processor) {
+      processor.ar.setBits(ar);
+      processor.mr.setBits(mr);
+      processor.md.setBits(md);
+      processor.ir.setBits(ir);
+      processor.kr.setBits(kr);
+      processor.br.setBits(br);
+    }
+
+    public int address() {
+      return kr >>> 1;
+    }
+
+    public boolean right() {
+      return (kr & 1) != 0;
+    }
+
+    /**
+     * Returns the halfword that the next step will execute.
+     */
+    public int halfword() {
+      return (int) (right() ? ir & SMIL.RIGHT_MASK : ir >>> SMIL.HALFWORD_BITS);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Registers)) {
+        return false;
+      }
+      Registers r = (Registers) o;
+      return ar == r.ar && mr == r.mr && md == r.md && ir == r.ir && kr == r.kr && br == r.br;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (ar ^ ar >>> 32 ^ mr * 31 ^ md * 17 ^ ir * 7) ^ kr << 6 ^ br;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("AR=%011X MR=%011X MD=%010X IR=%010X KR=%03X.%d BR=%02d", ar, mr, md, ir, kr >>> 1, kr & 1,
+          br);
+    }
+  }
+
+  private Arithmetic() {
+  }
+
+  /**
+   * Returns the 40-bit value held in AR's bits.
+   */
+  public static long arValue(long ar) {
+    return (ar & AR_VALUE) >>> 1;
+  }
+
+  /**
+   * Returns AR's bits after setting its value, as Accumulator.setValue does.
+   */
+  public static long arWithValue(long value) {
+    long bits = value << 1 & AR_VALUE;
+    return (bits & AR_SIGN) != 0L ? bits | AR_EXTRA : bits;
+  }
+
+  public static long mrValue(long mr) {
+    return (mr & MR_VALUE) >>> 1;
+  }
+
+  public static boolean overflow(long ar) {
+    return (ar >>> SMIL.WORD_BITS + 1 & 1L) != (ar >>> SMIL.WORD_BITS & 1L);
+  }
+
+  public static boolean isNegative(long ar) {
+    return (ar & AR_SIGN) != 0L;
+  }
+
+  /**
+   * Adds, or subtracts, a word to AR; the low bit is cleared, as with Accumulator.add.
+   */
+  public static long add(long ar, long word, boolean complement) {
+    long bits = (word & SMIL.WORD_MASK) << 1;
+    if ((bits & AR_SIGN) != 0L) {
+      bits |= AR_EXTRA;
+    }
+    if (complement) {
+      bits = ~bits + 1 & (AR_VALUE | AR_EXTRA);
+    }
+    return ar + bits & (AR_VALUE | AR_EXTRA);
+  }
+
+  /**
+   * Adds a word to AR as the arithmetic instructions do: negated if 'minus', and its absolute
+   * value if 'absolute'.
+   */
+  public static long add(long ar, long word, boolean minus, boolean absolute) {
+    return add(ar, word, ValueRegister.shouldComplement((word & WORD_SIGN) != 0L, minus, absolute));
+  }
+
+  public static long shiftLeft(long ar) {
+    return ar << 1 & AR_MASK;
+  }
+
+  public static long shiftRight(long ar, boolean arithmetic) {
+    long bits = ar & AR_EXTRA | (ar & AR_VALUE) >>> 1;
+    if (arithmetic && (ar & AR_SIGN) != 0L) {
+      bits |= AR_EXTRA | AR_SIGN | AR_SIGN >>> 1;
+    }
+    return bits;
+  }
+
+  public static long increment(long ar) {
+    return ar + AR_LSB & AR_MASK;
+  }
+
+  /**
+   * Returns MR's bits after copying AR into it, as Register.copy does.
+   */
+  public static long mrFromAr(long ar) {
+    return ar & AR_VALUE | ar & AR_LOW;
+  }
+
+  public static int and(Registers r) {
+    long a = arValue(r.ar);
+    long m = mrValue(r.mr);
+    r.ar = r.ar & AR_EXTRA | (a & m) << 1 | a >>> SMIL.WORD_BITS - 1;
+    r.mr = r.mr >>> SMIL.WORD_BITS;
+    r.br = SMIL.WORD_BITS;
+    return 2 + SMIL.WORD_BITS + 2;
+  }
+
+  public static int copyMrToAr(Registers r) {
+    long a = arValue(r.ar);
+    r.ar = r.ar & AR_EXTRA | r.mr & MR_VALUE | a >>> SMIL.WORD_BITS - 1;
+    r.mr = r.mr >>> SMIL.WORD_BITS;
+    r.br = SMIL.WORD_BITS;
+    return 2 + SMIL.WORD_BITS + 2;
+  }
+
+  public static int reverseMrIntoAr(Registers r) {
+    long ar = r.ar;
+    long mr = r.mr;
+    for (int i = 0; i < SMIL.WORD_BITS; i++) {
+      boolean leastBitSet = (mr & MR_LSB) != 0L;
+      mr >>>= 1;
+      ar = shiftLeft(ar);
+      if (leastBitSet) {
+        ar = increment(ar);
+      }
+    }
+    r.ar = ar;
+    r.mr = mr;
+    r.br = SMIL.WORD_BITS;
+    return 2 + SMIL.WORD_BITS + 2;
+  }
+
+  public static int multiply(Registers r) {
+    long ar = r.ar;
+    long mr = r.mr;
+    long md = r.md;
+    boolean mrWasNegative = (mr & MR_SIGN) != 0L;
+    for (int i = 1; i < SMIL.WORD_BITS; i++) {
+      if ((mr & MR_LSB) != 0L) {
+        ar = add(ar, md, false);
+      }
+      ar = shiftRight(ar, true);
+      mr >>>= 1;
+      if ((ar & AR_LOW) != 0L) {
+        mr |= MR_SIGN;
+      }
+    }
+    mr >>>= 1;
+    if (mrWasNegative) {
+      ar = add(ar, md, true);
+    }
+    r.ar = ar;
+    r.mr = mr;
+    r.br = SMIL.WORD_BITS;
+    return 2 + SMIL.WORD_BITS - 1 + 2;
+  }
+
+  public static int divide(Registers r) {
+    long ar = r.ar;
+    long mr = r.mr;
+    long md = r.md;
+    boolean mdNegative = (md & WORD_SIGN) != 0L;
+    for (int i = 1; i < SMIL.WORD_BITS; i++) {
+      boolean sameSign = isNegative(ar) == mdNegative;
+      ar = shiftLeft(ar);
+      mr >>>= 1;
+      if (sameSign) {
+        ar = add(ar, md, true);
+        mr |= MR_SIGN;
+      } else {
+        ar = add(ar, md, false);
+        mr &= ~MR_SIGN;
+      }
+    }
+    mr >>>= 1;
+    mr |= MR_SIGN;
+    mr ^= MR_LSB;
+    r.ar = ar;
+    r.mr = mr;
+    r.br = SMIL.WORD_BITS;
+    return 2 + SMIL.WORD_BITS - 1 + 2;
+  }
+
+  /**
+   * Normalizes AR and puts the shift count in MR, which the instruction has already cleared; MR's
+   * high bit is left alone, as in Register.setValue.
+   */
+  public static int normalize(Registers r) {
+    long ar = r.ar;
+    int n = 0;
+    while (((ar >>> SMIL.WORD_BITS ^ ar >>> SMIL.WORD_BITS - 1) & 1L) == 0L && n < BR_MASK) {
+      ar = shiftLeft(ar);
+      n++;
+    }
+    r.ar = ar;
+    r.mr = r.mr & ~MR_VALUE | (long) n << 8 + 1 & MR_VALUE;
+    r.br = n;
+    return 2 + n + 2;
+  }
+
+  /**
+   * Shifts AR left by n places. The bit counter only counts to 63 before wrapping to 0, so the
+   * processor never finishes a shift by 64 or more; that throws an IllegalArgumentException here.
+   */
+  public static int shiftLeft(Registers r, int n) {
+    checkShift(n);
+    r.ar = r.ar << n & AR_MASK;
+    r.br = n;
+    return 2 + n + 2;
+  }
+
+  public static int shiftRight(Registers r, int n, boolean arithmetic) {
+    checkShift(n);
+    long ar = r.ar;
+    for (int i = 0; i < n; i++) {
+      ar = shiftRight(ar, arithmetic);
+    }
+    r.ar = ar;
+    r.br = n;
+    return 2 + n + 2;
+  }
+
+  private static void checkShift(int n) {
+    if (n < 0 || n > BR_MASK) {
+      throw new IllegalArgumentException("Shift by " + n + " never finishes");
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A debug destination that hands messages to a bounded queue and returns at once; a writer thread
+ * takes them off the queue in batches and passes each batch on to the real destination as a single
+ * string. Any number of threads may send messages. When the queue is full, the back-pressure policy
+ * decides whether the sender waits, or which message is dropped; dropped messages are counted.
+ *
+ * Senders hold a read lock while they check for, and add to, the queue, and close() takes the
+ * write lock to put the end marker in; so no message can be queued behind the marker, and, since
+ * the marker is always the last thing queued, dropping the oldest message can never drop it.
+ */
+public class AsyncDebugDestination implements SMIL.DebugDestination {
+
+  public static final int DEFAULT_CAPACITY = 8192;
+  public static final int MAX_BATCH = 1024;
+
+  public static enum Policy {
+    /** Wait for room in the queue, so nothing is lost but the sender may be slowed down. */
+    BLOCK,
+    /** Drop the oldest queued message to make room for the new one. */
+    DROP_OLDEST,
+    /** Drop the new message. */
+    DROP_NEWEST
+  }
+
+  // marks the end of the queue when closing; compared by identity
+  private static final String END = new String("");
+
+  private SMIL.DebugDestination destination;
+  private Writer writer = null;
+  private Policy policy;
+  private BlockingQueue<String> queue;
+  private Thread thread;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // only changed with the write lock held
+  private volatile boolean closed = false;
+
+  private AtomicLong accepted = new AtomicLong();
+  private AtomicLong delivered = new AtomicLong();
+  private AtomicLong evicted = new AtomicLong();
+  private AtomicLong rejected = new AtomicLong();
+
+  public AsyncDebugDestination(SMIL.DebugDestination destination, int capacity, Policy policy) {
+    this.destination = destination;
+    this.policy = policy;
+    this.queue = new ArrayBlockingQueue<String>(capacity);
+    thread = new Thread("Debug Output") {
+      @Override
+      public void run() {
+        deliver();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public AsyncDebugDestination(SMIL.DebugDestination destination) {
+    this(destination, DEFAULT_CAPACITY, Policy.BLOCK);
+  }
+
+  /**
+   * Creates a destination that writes to a writer, through a buffer that is flushed after each
+   * batch.
+   */
+  public static AsyncDebugDestination toWriter(Writer w, int capacity, Policy policy) {
+    final BufferedWriter bw = new BufferedWriter(w);
+    AsyncDebugDestination destination = new AsyncDebugDestination(new SMIL.DebugDestination() {
+      public void debug(String s) {
+        try {
+          bw.write(s);
+          bw.flush();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }, capacity, policy);
+    destination.writer = bw;
+    return destination;
+  }
+
+  public static AsyncDebugDestination toChannel(WritableByteChannel channel, int capacity, Policy policy) {
+    return toWriter(Channels.newWriter(channel, "UTF-8"), capacity, policy);
+  }
+
+  public void debug(String s) {
+    lock.readLock().lock();
+    try {
+      enqueue(s);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void enqueue(String s) {
+    if (closed) {
+      rejected.incrementAndGet();
+      return;
+    }
+    switch (policy) {
+      case BLOCK:
+        try {
+          queue.put(s);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          rejected.incrementAndGet();
+          return;
+        }
+        break;
+      case DROP_OLDEST:
+        while (!queue.offer(s)) {
+          if (queue.poll() != null) {
+            evicted.incrementAndGet();
+          }
+        }
+        break;
+      case DROP_NEWEST:
+        if (!queue.offer(s)) {
+          rejected.incrementAndGet();
+          return;
+        }
+        break;
+    }
+    accepted.incrementAndGet();
+  }
+
+  private void deliver() {
+    List<String> batch = new ArrayList<String>(MAX_BATCH);
+    StringBuilder sb = new StringBuilder();
+    boolean end = false;
+    while (!end) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      queue.drainTo(batch, MAX_BATCH - batch.size());
+      for (String s : batch) {
+        if (s == END) {
+          end = true;
+          break;
+        }
+        sb.append(s);
+      }
+      if (sb.length() > 0) {
+        try {
+          destination.debug(sb.toString());
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+      delivered.addAndGet(end ? batch.size() - 1 : batch.size());
+      batch.clear();
+      sb.setLength(0);
+    }
+  }
+
+  /**
+   * Waits until every message accepted so far has been passed on to the destination.
+   */
+  public void flush() throws InterruptedException {
+    long target = accepted.get();
+    while (delivered.get() + evicted.get() < target && thread.isAlive()) {
+      Thread.sleep(1L);
+    }
+  }
+
+  /**
+   * Passes on all queued messages, stops the writer thread, and closes the writer if there is one.
+   */
+  public void close() throws InterruptedException {
+    // waits for senders that are still blocked on a full queue, which the writer thread empties
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      queue.put(END);
+      closed = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    thread.join();
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  public Policy policy() {
+    return policy;
+  }
+
+  public int queued() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the number of messages that were queued, each of which is eventually either delivered or
+   * dropped to make room for a newer one.
+   */
+  public long accepted() {
+    return accepted.get();
+  }
+
+  public long delivered() {
+    return delivered.get();
+  }
+
+  /**
+   * Returns the number of messages that were dropped, either because the queue was full or because
+   * this destination had been closed.
+   */
+  public long dropped() {
+    return evicted.get() + rejected.get();
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A typewriter that collects what is printed on the processor's side and passes it on in batches:
+ * printed text moves into a {@link TextStore} at the end of each line, or at least every frame, and
+ * listeners (such as a text component showing the output) are told about new text once per frame,
+ * on a timer thread, rather than once per character on the processor thread.
+ */
+public class BatchingTypewriter extends Typewriter.Default {
+  public static final int FRAMES_PER_SECOND = 60;
+
+  public interface Listener {
+    /**
+     * Called with the text printed since the last call, on the typewriter's timer thread.
+     */
+    void textAppended(String text);
+
+    /**
+     * Called when the typewriter has been cleared, on the thread that cleared it.
+     */
+    void textCleared();
+  }
+
+  private TextStore store;
+  private StringBuilder pending = new StringBuilder();
+  private StringBuilder unannounced = new StringBuilder();
+  private List<Listener> listeners = new ArrayList<Listener>();
+  private Timer timer = null;
+
+  public BatchingTypewriter(TextStore store) {
+    this.store = store;
+  }
+
+  public BatchingTypewriter() {
+    this(new TextStore());
+  }
+
+  public TextStore store() {
+    return store;
+  }
+
+  public synchronized void addListener(Listener listener) {
+    listeners.add(listener);
+    if (timer == null) {
+      timer = new Timer("Typewriter", true);
+      long period = 1000L / FRAMES_PER_SECOND;
+      timer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, period, period);
+    }
+  }
+
+  public synchronized void removeListener(Listener listener) {
+    listeners.remove(listener);
+    if (listeners.isEmpty() && timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+  }
+
+  public synchronized void append(String s) {
+    pending.append(s);
+    if (s.indexOf('\n') >= 0) {
+      commit();
+    }
+  }
+
+  private void commit() {
+    if (pending.length() > 0) {
+      store.append(pending);
+      unannounced.append(pending);
+      pending.setLength(0);
+    }
+  }
+
+  /**
+   * Moves everything printed so far into the store, and passes any new text on to the listeners.
+   */
+  public void flush() {
+    String text;
+    Listener[] l;
+    synchronized (this) {
+      commit();
+      if (unannounced.length() == 0 || listeners.isEmpty()) {
+        unannounced.setLength(0);
+        return;
+      }
+      text = unannounced.toString();
+      unannounced.setLength(0);
+      l = listeners.toArray(new Listener[listeners.size()]);
+    }
+    for (Listener listener : l) {
+      listener.textAppended(text);
+    }
+  }
+
+  public synchronized int length() {
+    return store.length() + pending.length();
+  }
+
+  public synchronized String text() {
+    return store.text() + pending;
+  }
+
+  public void clear() {
+    Listener[] l;
+    synchronized (this) {
+      pending.setLength(0);
+      unannounced.setLength(0);
+      store.clear();
+      l = listeners.toArray(new Listener[listeners.size()]);
+    }
+    for (Listener listener : l) {
+      listener.textCleared();
+    }
+  }
+}
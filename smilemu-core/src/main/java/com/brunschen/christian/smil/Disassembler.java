@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * Describes instruction halfwords, caching the descriptions. The cache is direct-mapped and keyed
+ * by the 20-bit halfword, so it never holds more than a fixed number of entries; since programs
+ * only use a limited number of distinct halfwords, repeated lookups return the same string
+ * instances rather than formatting them again.
+ *
+ * Entries are immutable, so lookups need no locking; two threads describing the same halfword at
+ * the same time may both format it, and one of the results is kept.
+ */
+public class Disassembler {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static class Entry {
+    final int halfword;
+    final String operation; // just the operation, as Operation.describe() returns it
+    final String halfwordDescription; // including the clear-AR and conditional-halt prefixes
+
+    Entry(int halfword, String operation, String halfwordDescription) {
+      this.halfword = halfword;
+      this.operation = operation;
+      this.halfwordDescription = halfwordDescription;
+    }
+  }
+
+  private Processor processor;
+  private Entry[] entries;
+  private int mask;
+
+  /**
+   * @param capacity the number of entries in the cache, which is rounded up to a power of two
+   */
+  public Disassembler(Processor processor, int capacity) {
+    this.processor = processor;
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.entries = new Entry[size];
+    this.mask = size - 1;
+  }
+
+  public Disassembler(Processor processor) {
+    this(processor, DEFAULT_CAPACITY);
+  }
+
+  private Entry entry(int halfword) {
+    halfword &= 0xfffff;
+    // mix the address bits in with the operation bits, so the operations used with one address
+    // do not all compete for the same slot
+    int index = (halfword ^ (halfword >>> 8) ^ (halfword >>> 16)) & mask;
+    Entry entry = entries[index];
+    if (entry == null || entry.halfword != halfword) {
+      entry = describe(halfword);
+      entries[index] = entry;
+    }
+    return entry;
+  }
+
+  private Entry describe(int halfword) {
+    int address = (halfword & 0xfff00) >>> 8;
+    int instructionGroup = (halfword & 0xf0) >>> 4;
+    int extras = halfword & 0xf;
+    Operation op = processor.operation(instructionGroup);
+    String operation = op == null ? "<nothing>" : op.describe(address, extras);
+    String halfwordDescription = (Processor.shouldClearAr(extras) ? "0 -> AR, " : "         ")
+        + (Processor.shouldStopConditionally(extras) ? "halt?, " : "       ") + operation;
+    return new Entry(halfword, operation, halfwordDescription);
+  }
+
+  /**
+   * Returns the description of the operation in a halfword, as {@link Operation#describe(int, int)}
+   * would return it, or "&lt;nothing&gt;" if there is no such operation.
+   */
+  public String describeOperation(int halfword) {
+    return entry(halfword).operation;
+  }
+
+  /**
+   * Returns the description of a whole halfword, as
+   * {@link SMIL#printHalfword(java.io.PrintWriter, Operation[], long, boolean)} would print it.
+   */
+  public String describeHalfword(int halfword) {
+    return entry(halfword).halfwordDescription;
+  }
+
+  /**
+   * Returns the description of either the left or the right halfword of a word.
+   */
+  public String describeHalfword(long word, boolean right) {
+    return describeHalfword((int) (right ? word : word >>> 20) & 0xfffff);
+  }
+
+  /**
+   * Forgets all cached descriptions; this must be called when the operations change.
+   */
+  public void clear() {
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = null;
+    }
+  }
+
+  public int capacity() {
+    return entries.length;
+  }
+}
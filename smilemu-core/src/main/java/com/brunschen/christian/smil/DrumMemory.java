@@ -3,6 +3,10 @@
  */
 package com.brunschen.christian.smil;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brunschen.christian.smil.jfr.DrumWaitEvent;
+
 /**
  * @author Christian Brunschen
  *
@@ -12,6 +16,10 @@ public class DrumMemory extends Memory {
   int rows;
   int currentRow;
   Clock<Clock.UnitTick> clock;
+  // only ever written by the thread running the processor, so lazySet is enough; resetCounters()
+  // leaves it alone and moves the baseline instead
+  private AtomicLong waitTicks = new AtomicLong();
+  private AtomicLong waitTicksBaseline = new AtomicLong();
 
   /**
    * @param rows
@@ -29,9 +37,39 @@ public class DrumMemory extends Memory {
   
   private void waitForAddress(int address) {
     if (clock != null) {
-      clock.sleep((address + rows - currentRow) % rows);
+      int wait = (address + rows - currentRow) % rows;
+      waitTicks.lazySet(waitTicks.get() + wait);
+      DrumWaitEvent event = new DrumWaitEvent();
+      event.begin();
+      clock.sleep(wait);
+      event.end();
+      if (event.shouldCommit()) {
+        event.address = address;
+        event.waitTicks = wait;
+        event.commit();
+      }
     }
   }
+
+  /**
+   * Returns the number of ticks spent waiting for the drum to rotate to an address since the counter
+   * was last reset.
+   */
+  public long waitTicks() {
+    long baseline = waitTicksBaseline.get();
+    return waitTicks.get() - baseline;
+  }
+
+  /**
+   * Returns the number of ticks spent waiting for the drum since it was created.
+   */
+  public long totalWaitTicks() {
+    return waitTicks.get();
+  }
+
+  public void resetCounters() {
+    waitTicksBaseline.set(waitTicks.get());
+  }
   
   @Override
   public long read(int address) {
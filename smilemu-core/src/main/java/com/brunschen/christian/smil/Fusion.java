@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the idioms that a program repeats, so that the processor can execute both halfwords of a
+ * word at once. While fusion is on, Processor.oneStep() reports every halfword it executes here;
+ * that builds a profile of which opcode groups follow each other, in pairs and triples, and counts
+ * how often each word is entered at its left-hand halfword. Once a word has been entered
+ * 'threshold' times, its two halfwords are matched against the idioms, and if one fits, the word is
+ * remembered as fused, together with its contents. From then on Processor.fusedStep() runs that word
+ * with the idiom's handler for as long as IR still holds the same word, so code that modifies
+ * itself is simply profiled again.
+ *
+ * Only the two halfwords of one word are ever fused: between words, the processor waits for the
+ * drum to bring the next word round, so there is nothing left to save by fusing across them.
+ */
+public class Fusion {
+  public static final int DEFAULT_THRESHOLD = 16;
+  private static final int WORDS = 0x1000;
+
+  /**
+   * The pairs of halfwords that have a fused handler in Processor.
+   */
+  public enum Idiom {
+    /** Add to AR or MR, then store. */
+    ADD_STORE {
+      boolean matches(int left, int right) {
+        return isAdd(left) && group(right) == 0x3;
+      }
+    },
+    /** Add to AR or MR twice, as in loading a value and adding to it. */
+    ADD_ADD {
+      boolean matches(int left, int right) {
+        return isAdd(left) && isAdd(right);
+      }
+    },
+    /** Add to AR or MR, then jump, usually on the sign of the result. */
+    ADD_JUMP {
+      boolean matches(int left, int right) {
+        return isAdd(left) && (group(right) == 0x9 || group(right) == 0xA);
+      }
+    },
+    /** Store, then add to AR or MR. */
+    STORE_ADD {
+      boolean matches(int left, int right) {
+        return group(left) == 0x3 && isAdd(right);
+      }
+    },
+    /** Shift AR, then print from it, as decimal output does. */
+    SHIFT_PRINT {
+      boolean matches(int left, int right) {
+        // shifts by more than 63 never finish, so they stay with the interpreter
+        return group(left) == 0xD && ((left & 0xf) >>> 2 == 1 || address(left) <= Arithmetic.BR_MASK)
+            && group(right) == 0xF;
+      }
+    },
+    /** A conditional jump, then another jump. */
+    JUMP_PAIR {
+      boolean matches(int left, int right) {
+        boolean conditional = group(left) == 0xA || group(left) == 0x9 && SMIL.bitIsSet(left & 0xf, 3);
+        return conditional && (group(right) == 0x9 || group(right) == 0xA);
+      }
+    };
+
+    abstract boolean matches(int left, int right);
+
+    /**
+     * Returns the idiom that a word's halfwords make up, or null if there is none.
+     */
+    public static Idiom of(long word) {
+      int left = (int) (word >>> SMIL.HALFWORD_BITS & SMIL.RIGHT_MASK);
+      int right = (int) (word & SMIL.RIGHT_MASK);
+      for (Idiom idiom : values()) {
+        if (idiom.matches(left, right)) {
+          return idiom;
+        }
+      }
+      return null;
+    }
+  }
+
+  static int group(int halfword) {
+    return halfword >>> 4 & 0xf;
+  }
+
+  static boolean isAdd(int halfword) {
+    return group(halfword) == 0x4 || group(halfword) == 0x5;
+  }
+
+  static int address(int halfword) {
+    return halfword >>> 8 & 0xfff;
+  }
+
+  private final int threshold;
+  // only ever used by the thread running the processor
+  private final int[] entries = new int[WORDS];
+  private final long[] words = new long[WORDS];
+  private final Idiom[] idioms = new Idiom[WORDS];
+  private int previous = -1;
+  private int beforePrevious = -1;
+  // only ever written by the thread running the processor, so lazySet is enough; resetCounters()
+  // copies them into the baselines, which the getters subtract
+  private final AtomicLongArray pairs = new AtomicLongArray(0x100);
+  private final AtomicLongArray triples = new AtomicLongArray(0x1000);
+  private final AtomicLongArray fired = new AtomicLongArray(Idiom.values().length);
+  private final AtomicLongArray pairsBaseline = new AtomicLongArray(0x100);
+  private final AtomicLongArray triplesBaseline = new AtomicLongArray(0x1000);
+  private final AtomicLongArray firedBaseline = new AtomicLongArray(Idiom.values().length);
+
+  /**
+   * Creates a fusion that fuses a word once it has been entered 'threshold' times.
+   */
+  public Fusion(int threshold) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold must be at least 1: " + threshold);
+    }
+    this.threshold = threshold;
+  }
+
+  public Fusion() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  public int threshold() {
+    return threshold;
+  }
+
+  /**
+   * Returns the idiom to run a word at an address with, if it has been fused and IR still holds
+   * the same word.
+   */
+  public Idiom idiom(int address, long word) {
+    int a = address & WORDS - 1;
+    Idiom idiom = idioms[a];
+    return idiom != null && words[a] == word ? idiom : null;
+  }
+
+  /**
+   * Profiles one interpreted halfword, which is the left-hand one of 'word' unless 'right'.
+   */
+  public void executed(int address, boolean right, long word, int group) {
+    record(group);
+    if (right) {
+      return;
+    }
+    int a = address & WORDS - 1;
+    if (words[a] != word) {
+      words[a] = word;
+      entries[a] = 0;
+      idioms[a] = null;
+    }
+    if (entries[a] < threshold && ++entries[a] == threshold) {
+      idioms[a] = Idiom.of(word);
+    }
+  }
+
+  /**
+   * Profiles the halfwords run by a fused handler: 'steps' is 2 if it ran both, or 1 if it stopped
+   * after the left-hand one.
+   */
+  public void fused(Idiom idiom, long word, int steps) {
+    record(group((int) (word >>> SMIL.HALFWORD_BITS & SMIL.RIGHT_MASK)));
+    if (steps == 2) {
+      record(group((int) (word & SMIL.RIGHT_MASK)));
+      fired.lazySet(idiom.ordinal(), fired.get(idiom.ordinal()) + 1);
+    }
+  }
+
+  private void record(int group) {
+    if (previous >= 0) {
+      int pair = previous << 4 | group;
+      pairs.lazySet(pair, pairs.get(pair) + 1);
+      if (beforePrevious >= 0) {
+        int triple = beforePrevious << 8 | pair;
+        triples.lazySet(triple, triples.get(triple) + 1);
+      }
+    }
+    beforePrevious = previous;
+    previous = group;
+  }
+
+  /**
+   * Returns the number of times an idiom's handler has run both of its halfwords.
+   */
+  public long fired(Idiom idiom) {
+    return count(fired, firedBaseline, idiom.ordinal());
+  }
+
+  /**
+   * Returns the number of halfwords run by fused handlers, in pairs that ran to the end.
+   */
+  public long fusedSteps() {
+    long total = 0L;
+    for (int i = 0; i < fired.length(); i++) {
+      total += 2L * count(fired, firedBaseline, i);
+    }
+    return total;
+  }
+
+  /**
+   * Returns how often a halfword from one opcode group was followed by one from another.
+   */
+  public long pairCount(int first, int second) {
+    return count(pairs, pairsBaseline, first << 4 | second);
+  }
+
+  public long tripleCount(int first, int second, int third) {
+    return count(triples, triplesBaseline, first << 8 | second << 4 | third);
+  }
+
+  private static long count(AtomicLongArray counts, AtomicLongArray baselines, int i) {
+    long baseline = baselines.get(i);
+    return counts.get(i) - baseline;
+  }
+
+  /**
+   * Returns the number of words currently fused.
+   */
+  public int fusedWords() {
+    int n = 0;
+    for (Idiom idiom : idioms) {
+      if (idiom != null) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Resets the counts, from any thread.
+   */
+  public void resetCounters() {
+    for (int i = 0; i < pairs.length(); i++) {
+      pairsBaseline.set(i, pairs.get(i));
+    }
+    for (int i = 0; i < triples.length(); i++) {
+      triplesBaseline.set(i, triples.get(i));
+    }
+    for (int i = 0; i < fired.length(); i++) {
+      firedBaseline.set(i, fired.get(i));
+    }
+  }
+
+  /**
+   * Describes which idioms fired, and the 'top' most frequent pairs and triples of opcode groups.
+   */
+  public String report(int top) {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    pw.println("fused:");
+    for (Idiom idiom : Idiom.values()) {
+      pw.printf("  %-12s %12d%n", idiom, fired(idiom));
+    }
+    pw.println("pairs:");
+    for (long[] entry : top(pairs, pairsBaseline, top)) {
+      pw.printf("  %X %X        %12d%n", entry[0] >>> 4, entry[0] & 0xf, entry[1]);
+    }
+    pw.println("triples:");
+    for (long[] entry : top(triples, triplesBaseline, top)) {
+      pw.printf("  %X %X %X      %12d%n", entry[0] >>> 8, entry[0] >>> 4 & 0xf, entry[0] & 0xf, entry[1]);
+    }
+    pw.flush();
+    return sw.toString();
+  }
+
+  private static List<long[]> top(AtomicLongArray counts, AtomicLongArray baselines, int n) {
+    List<long[]> entries = new ArrayList<long[]>();
+    for (int i = 0; i < counts.length(); i++) {
+      long count = count(counts, baselines, i);
+      if (count > 0L) {
+        entries.add(new long[] { i, count });
+      }
+    }
+    Collections.sort(entries, new Comparator<long[]>() {
+      public int compare(long[] a, long[] b) {
+        return a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(a[0], b[0]);
+      }
+    });
+    return entries.size() > n ? entries.subList(0, n) : entries;
+  }
+
+  @Override
+  public String toString() {
+    return report(8);
+  }
+}
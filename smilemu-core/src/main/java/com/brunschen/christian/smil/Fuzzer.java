@@ -0,0 +1,896 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Differential fuzzing between execution engines. Each case is a short random program with random
+ * data and registers; every engine runs it from the same state, one instruction at a time, and
+ * after every instruction the registers, tick count, halt state and typewriter output of each
+ * engine are compared with those of the first (the reference, normally the bit-serial Processor).
+ * Memory is compared after every instruction that can write it (tape reads and stores) and at the
+ * end of the case.
+ *
+ * A divergence is minimized by cutting the case down to the steps up to the first difference, and
+ * then zeroing memory words and registers and replacing instructions with no-ops for as long as the
+ * engines still disagree. What is left is written out as a tape in the text format, which loads
+ * with the A1 loader and carries the starting registers in its comments, and which
+ * Case.fromTape() reads back in to replay.
+ *
+ * Programs live above the loader, at CODE_START, with their data right after; jumps stay within
+ * the code, and memory operands mostly in the data. There is no tape in the reader, so tape reads
+ * stop the machine, and a shift of 64 places or more, which never finishes, ends the case before
+ * it is executed. An engine that runs more than one instruction at a time is compared at the
+ * points where it has caught up with the others.
+ */
+public class Fuzzer {
+  public static final int CODE_START = 0x020;
+  public static final int CODE_WORDS = 16;
+  public static final int DATA_START = CODE_START + CODE_WORDS;
+  public static final int DATA_WORDS = 16;
+  public static final int MAX_STEPS = 64;
+  public static final int MAX_DIVERGENCES = 16;
+  public static final int NOOP = 0x000e0;
+
+  // tape reads and halts stop the machine, so they are rarer than the rest
+  private static final int[] GROUPS = new int[] { 0x0, 0x1, 0x1, 0x2, 0x3, 0x3, 0x4, 0x5, 0x5, 0x6, 0x7, 0x8,
+      0x9, 0x9, 0xA, 0xA, 0xB, 0xC, 0xD, 0xD, 0xE, 0xF, };
+
+  /**
+   * One way of executing instructions.
+   */
+  public interface Engine {
+    String name();
+
+    /**
+     * Sets up the engine in a case's starting state, with an empty typewriter and no tape.
+     */
+    void load(Case c);
+
+    void step();
+
+    /**
+     * Returns false while the engine has run ahead of the steps asked of it, as the fused engine
+     * does between the halfwords of a fused word; the engines are only compared when none has.
+     */
+    boolean settled();
+
+    boolean halted();
+
+    long ticks();
+
+    void registers(Arithmetic.Registers into);
+
+    long word(int address);
+
+    String output();
+  }
+
+  /**
+   * The engines that can take part in fuzzing, the first of them the reference.
+   */
+  public static enum EngineType {
+    PROCESSOR {
+      public Engine newEngine() {
+        return new ProcessorEngine();
+      }
+    },
+    LOCKSTEP {
+      public Engine newEngine() {
+        return new LockstepEngine();
+      }
+    },
+    SWITCH {
+      public Engine newEngine() {
+        return new ProcessorEngine(Processor.Dispatch.SWITCH);
+      }
+    },
+    FUSED {
+      public Engine newEngine() {
+        return new FusedEngine();
+      }
+    };
+
+    public abstract Engine newEngine();
+  }
+
+  /**
+   * The bit-serial Processor, on a headless unpaced machine, dispatching either way.
+   */
+  public static class ProcessorEngine implements Engine {
+    private SMIL smil;
+    private TapeRunner.Transcript transcript;
+
+    public ProcessorEngine(Processor.Dispatch dispatch) {
+      smil = TapeRunner.newMachine(dispatch);
+      transcript = (TapeRunner.Transcript) smil.typewriter();
+      smil.tickClock().setWillWait(false);
+    }
+
+    public ProcessorEngine() {
+      this(Processor.Dispatch.OPERATIONS);
+    }
+
+    public String name() {
+      return smil.processor().dispatch() == Processor.Dispatch.SWITCH ? "Switch" : "Processor";
+    }
+
+    public SMIL smil() {
+      return smil;
+    }
+
+    public void load(Case c) {
+      smil.memory().set(0, c.memory, 0, c.memory.length);
+      c.registers.store(smil.processor());
+      smil.tickClock().reset();
+      smil.tickClock().sleep(c.ticks);
+      smil.tapeReader().setTape(null);
+      transcript.clear();
+      smil.dontStop();
+    }
+
+    public void step() {
+      smil.processor().oneStep();
+    }
+
+    public boolean settled() {
+      return true;
+    }
+
+    public boolean halted() {
+      return smil.shouldStop();
+    }
+
+    public long ticks() {
+      return smil.tickClock().now();
+    }
+
+    public void registers(Arithmetic.Registers into) {
+      into.load(smil.processor());
+    }
+
+    public long word(int address) {
+      return smil.memory().get(address);
+    }
+
+    public String output() {
+      return transcript.text();
+    }
+  }
+
+  /**
+   * The Processor running a translation of each case's memory, one instruction at a time. Every case
+   * is translated and compiled, so this is for checking a few hundred cases rather than millions,
+   * and is not one of the EngineTypes.
+   */
+  public static class TranslatedEngine extends ProcessorEngine {
+    private Translator translator;
+    private Translation translation;
+
+    public TranslatedEngine(Translator translator) {
+      this.translator = translator;
+    }
+
+    @Override
+    public String name() {
+      return "Translated";
+    }
+
+    @Override
+    public void load(Case c) {
+      super.load(c);
+      try {
+        translation = translator.translate(c.memory);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot translate case " + c.id, e);
+      }
+    }
+
+    @Override
+    public void step() {
+      SMIL smil = smil();
+      int result = translation.run(smil, Long.MAX_VALUE, 1L);
+      if (result == Translation.HALTED) {
+        smil.stop();
+      } else if (result == Translation.FALLBACK) {
+        smil.processor().oneStep();
+      }
+    }
+  }
+
+  /**
+   * The Processor stepping through fusedStep(), with a fusion that fuses every word the first time
+   * it is entered. A fused word runs both its halfwords on the first of the two steps, so the
+   * engine is only settled, and compared, at the word boundary after the second. Each case starts
+   * with a new fusion, so that a case runs the same however many have run before it.
+   */
+  public static class FusedEngine extends ProcessorEngine {
+    private Fusion fusion;
+    private long fusedSteps = 0L;
+    private int stepsLeft;
+    private int ahead;
+
+    @Override
+    public String name() {
+      return "Fused";
+    }
+
+    /**
+     * Returns the number of halfwords run by fused handlers, over all cases so far.
+     */
+    public long fusedSteps() {
+      return fusedSteps + (fusion == null ? 0L : fusion.fusedSteps());
+    }
+
+    @Override
+    public void load(Case c) {
+      super.load(c);
+      fusedSteps = fusedSteps();
+      fusion = new Fusion(1);
+      smil().processor().setFusion(fusion);
+      stepsLeft = c.steps;
+      ahead = 0;
+    }
+
+    @Override
+    public void step() {
+      if (ahead > 0) {
+        ahead--;
+      } else {
+        ahead = smil().processor().fusedStep(Long.MAX_VALUE, stepsLeft) - 1;
+      }
+      stepsLeft--;
+    }
+
+    @Override
+    public boolean settled() {
+      return ahead == 0;
+    }
+  }
+
+  /**
+   * A single lane of a Lockstep, and so the word-level Arithmetic.
+   */
+  public static class LockstepEngine implements Engine {
+    private Lockstep lockstep = new Lockstep(1);
+
+    public String name() {
+      return "Lockstep";
+    }
+
+    public void load(Case c) {
+      lockstep.reset(0);
+      System.arraycopy(c.memory, 0, lockstep.memory(0), 0, c.memory.length);
+      lockstep.registers(0).set(c.registers);
+      lockstep.setTicks(0, c.ticks);
+    }
+
+    public void step() {
+      lockstep.step(1L);
+    }
+
+    public boolean settled() {
+      return true;
+    }
+
+    public boolean halted() {
+      return lockstep.isHalted(0);
+    }
+
+    public long ticks() {
+      return lockstep.ticks(0);
+    }
+
+    public void registers(Arithmetic.Registers into) {
+      into.set(lockstep.registers(0));
+    }
+
+    public long word(int address) {
+      return lockstep.memory(0)[address];
+    }
+
+    public String output() {
+      return lockstep.output(0);
+    }
+  }
+
+  /**
+   * A starting state: memory, registers and clock, and the most instructions to run.
+   */
+  public static class Case {
+    public long id;
+    public long[] memory = new long[Lockstep.MEMORY_WORDS];
+    public Arithmetic.Registers registers = new Arithmetic.Registers();
+    public long ticks;
+    public int steps = MAX_STEPS;
+
+    public Case() {
+    }
+
+    public Case(Case c) {
+      id = c.id;
+      System.arraycopy(c.memory, 0, memory, 0, memory.length);
+      registers.set(c.registers);
+      ticks = c.ticks;
+      steps = c.steps;
+    }
+
+    private static final Pattern STATE = Pattern.compile(
+        "case (\\d+) AR=(\\p{XDigit}+) MR=(\\p{XDigit}+) MD=(\\p{XDigit}+) IR=(\\p{XDigit}+) KR=(\\p{XDigit}+) "
+            + "BR=(\\p{XDigit}+) ticks=(\\d+) steps=(\\d+)");
+
+    private String state() {
+      Arithmetic.Registers r = registers;
+      return String.format("case %d AR=%011X MR=%011X MD=%010X IR=%010X KR=%04X BR=%02X ticks=%d steps=%d", id, r.ar,
+          r.mr, r.md, r.ir, r.kr, r.br, ticks, steps);
+    }
+
+    /**
+     * Punches the case as a tape for the A1 loader: any comments, a comment with the starting
+     * registers, the loader's header word with the first and last address, and the words between.
+     */
+    public void punch(TapePunch punch, String... comments) throws IOException {
+      int first = registers.address() % memory.length;
+      int last = first;
+      for (int address = 0; address < memory.length; address++) {
+        if (memory[address] != 0L) {
+          first = Math.min(first, address);
+          last = Math.max(last, address);
+        }
+      }
+      for (String comment : comments) {
+        punch.punchComment(comment);
+      }
+      punch.punchComment(state());
+      punch.punchWords(new long[] { (long) first << SMIL.HALFWORD_BITS + 8 | (long) last << 8 }, 0, 1);
+      punch.punchWords(memory, first, last - first + 1);
+      punch.punchComment(String.format("-> %03X%s", registers.address(), registers.right() ? "R" : "L"));
+    }
+
+    public Tape toTape(String... comments) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      TapePunch punch = new TapePunch();
+      punch.open(Channels.newChannel(bytes), TapePunch.Format.TEXT);
+      punch(punch, comments);
+      punch.close();
+      return new Tape(new StringReader(bytes.toString("UTF-8")));
+    }
+
+    /**
+     * Reads back a case punched by punch().
+     */
+    public static Case fromTape(Tape tape) {
+      Case c = new Case();
+      Matcher m = null;
+      for (int i = 0; i < tape.length() && m == null; i++) {
+        Tape.Entry entry = tape.get(i);
+        if (entry != null && entry.hasText()) {
+          for (String line : entry.text()) {
+            Matcher candidate = STATE.matcher(line);
+            if (candidate.matches()) {
+              m = candidate;
+              break;
+            }
+          }
+        }
+      }
+      if (m == null) {
+        throw new IllegalArgumentException("Not a fuzzer case");
+      }
+      c.id = Long.parseLong(m.group(1));
+      c.registers.ar = Long.parseLong(m.group(2), 16);
+      c.registers.mr = Long.parseLong(m.group(3), 16);
+      c.registers.md = Long.parseLong(m.group(4), 16);
+      c.registers.ir = Long.parseLong(m.group(5), 16);
+      c.registers.kr = Integer.parseInt(m.group(6), 16);
+      c.registers.br = Integer.parseInt(m.group(7), 16);
+      c.ticks = Long.parseLong(m.group(8));
+      c.steps = Integer.parseInt(m.group(9));
+
+      List<Long> words = tape.words();
+      long header = words.get(0);
+      int first = (int) (header >>> SMIL.HALFWORD_BITS + 8 & 0xfff);
+      int last = (int) (header >>> 8 & 0xfff);
+      for (int address = first; address <= last; address++) {
+        c.memory[address] = words.get(1 + address - first);
+      }
+      return c;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Case)) {
+        return false;
+      }
+      Case c = (Case) o;
+      return registers.equals(c.registers) && ticks == c.ticks && steps == c.steps && Arrays.equals(memory, c.memory);
+    }
+
+    @Override
+    public int hashCode() {
+      return registers.hashCode() ^ Arrays.hashCode(memory) ^ (int) ticks ^ steps;
+    }
+
+    @Override
+    public String toString() {
+      return state();
+    }
+  }
+
+  /**
+   * Where two engines first disagreed on a case.
+   */
+  public static class Divergence {
+    private Case testCase;
+    private int step;
+    private String reference;
+    private String engine;
+    private String expected;
+    private String actual;
+
+    public Divergence(Case testCase, int step, String reference, String engine, String expected, String actual) {
+      this.testCase = testCase;
+      this.step = step;
+      this.reference = reference;
+      this.engine = engine;
+      this.expected = expected;
+      this.actual = actual;
+    }
+
+    public Case testCase() {
+      return testCase;
+    }
+
+    /**
+     * Returns the number of steps run when the difference showed, or 0 if it was in the starting
+     * state.
+     */
+    public int step() {
+      return step;
+    }
+
+    public String engine() {
+      return engine;
+    }
+
+    public String expected() {
+      return expected;
+    }
+
+    public String actual() {
+      return actual;
+    }
+
+    private String[] comments() {
+      return new String[] { String.format("%s differs from %s after %d steps", engine, reference, step),
+          reference + ": " + expected, engine + ": " + actual, };
+    }
+
+    public Tape tape() throws IOException {
+      return testCase.toTape(comments());
+    }
+
+    public void writeTape(File f) throws IOException {
+      TapePunch punch = new TapePunch();
+      punch.open(f, TapePunch.Format.TEXT);
+      try {
+        testCase.punch(punch, comments());
+      } finally {
+        punch.close();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return comments()[0] + " in " + testCase;
+    }
+  }
+
+  /**
+   * What a fuzzing run did.
+   */
+  public static class Report {
+    private long cases;
+    private long steps;
+    private long nanos;
+    private List<Divergence> divergences;
+
+    public Report(long cases, long steps, long nanos, List<Divergence> divergences) {
+      this.cases = cases;
+      this.steps = steps;
+      this.nanos = nanos;
+      this.divergences = divergences;
+    }
+
+    public long cases() {
+      return cases;
+    }
+
+    public long steps() {
+      return steps;
+    }
+
+    public long nanos() {
+      return nanos;
+    }
+
+    public List<Divergence> divergences() {
+      return divergences;
+    }
+
+    public double casesPerMinute() {
+      return nanos == 0L ? 0.0 : cases * 60e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d cases, %d steps in %.1f s (%.0f cases/minute), %d divergences", cases, steps,
+          nanos / 1e9, casesPerMinute(), divergences.size());
+    }
+  }
+
+  private Engine[] engines;
+  private long seed;
+  private long steps = 0L;
+  private Arithmetic.Registers expectedRegisters = new Arithmetic.Registers();
+  private Arithmetic.Registers actualRegisters = new Arithmetic.Registers();
+
+  /**
+   * @param seed cases are generated from this and their id, so the same seed gives the same cases
+   * @param engines the engines to compare, the first of them the reference
+   */
+  public Fuzzer(long seed, Engine... engines) {
+    if (engines.length < 2) {
+      throw new IllegalArgumentException("Need at least two engines to compare");
+    }
+    this.seed = seed;
+    this.engines = engines;
+  }
+
+  public Fuzzer(long seed, EngineType... types) {
+    this(seed, newEngines(types));
+  }
+
+  private static Engine[] newEngines(EngineType... types) {
+    Engine[] engines = new Engine[types.length];
+    for (int i = 0; i < types.length; i++) {
+      engines[i] = types[i].newEngine();
+    }
+    return engines;
+  }
+
+  /**
+   * Returns the number of instructions run by the reference engine so far.
+   */
+  public long steps() {
+    return steps;
+  }
+
+  private static long word(Random random) {
+    // favour the edges, where the carries and signs are
+    switch (random.nextInt(6)) {
+      case 0:
+        return 0L;
+      case 1:
+        return SMIL.WORD_MASK;
+      case 2:
+        return Arithmetic.WORD_SIGN;
+      case 3:
+        return Arithmetic.WORD_SIGN - 1;
+      default:
+        return random.nextLong() & SMIL.WORD_MASK;
+    }
+  }
+
+  private static int halfword(Random random) {
+    int group = GROUPS[random.nextInt(GROUPS.length)];
+    int extras = random.nextInt(16);
+    int address;
+    switch (group) {
+      case 0x9:
+      case 0xA:
+        address = CODE_START + random.nextInt(CODE_WORDS);
+        break;
+      case 0xD:
+        address = random.nextInt(Arithmetic.BR_MASK + 1);
+        break;
+      case 0xF:
+        address = random.nextInt(16);
+        break;
+      default:
+        address = random.nextInt(4) == 0 ? CODE_START + random.nextInt(CODE_WORDS) : DATA_START
+            + random.nextInt(DATA_WORDS);
+        break;
+    }
+    return address << 8 | group << 4 | extras;
+  }
+
+  /**
+   * Returns case number 'id' of this fuzzer's seed.
+   */
+  public Case generate(long id) {
+    Random random = new Random(seed ^ id * 0x9e3779b97f4a7c15L);
+    Case c = new Case();
+    c.id = id;
+    for (int address = CODE_START; address < DATA_START; address++) {
+      c.memory[address] = (long) halfword(random) << SMIL.HALFWORD_BITS | halfword(random);
+    }
+    for (int address = DATA_START; address < DATA_START + DATA_WORDS; address++) {
+      c.memory[address] = word(random);
+    }
+    Arithmetic.Registers r = c.registers;
+    r.ar = word(random) << 1 | random.nextLong() & (Arithmetic.AR_EXTRA | Arithmetic.AR_LOW);
+    r.mr = word(random) << 1 | random.nextLong() & Arithmetic.MR_HIGH;
+    r.md = word(random);
+    r.br = random.nextInt(Arithmetic.BR_MASK + 1);
+    int start = CODE_START + random.nextInt(CODE_WORDS);
+    r.kr = start << 1 | random.nextInt(2);
+    r.ir = c.memory[start];
+    c.ticks = random.nextInt(4 * SMIL.drumRows);
+    return c;
+  }
+
+  private static boolean neverFinishes(int halfword) {
+    return (halfword >>> 4 & 0xf) == 0xD && (halfword >>> 2 & 3) != 1 && (halfword >>> 8) > Arithmetic.BR_MASK;
+  }
+
+  private boolean settled() {
+    for (Engine engine : engines) {
+      if (!engine.settled()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String describe(Engine engine, Arithmetic.Registers r) {
+    return String.format("%s ticks=%d%s", r, engine.ticks(), engine.halted() ? " halted" : "");
+  }
+
+  private Divergence compare(Case c, int step, boolean memory, boolean output) {
+    Engine reference = engines[0];
+    reference.registers(expectedRegisters);
+    for (int i = 1; i < engines.length; i++) {
+      Engine engine = engines[i];
+      engine.registers(actualRegisters);
+      if (!actualRegisters.equals(expectedRegisters) || engine.ticks() != reference.ticks()
+          || engine.halted() != reference.halted()) {
+        return new Divergence(c, step, reference.name(), engine.name(), describe(reference, expectedRegisters),
+            describe(engine, actualRegisters));
+      }
+      if (output && !engine.output().equals(reference.output())) {
+        return new Divergence(c, step, reference.name(), engine.name(), "output '" + reference.output() + "'",
+            "output '" + engine.output() + "'");
+      }
+      if (memory) {
+        for (int address = 0; address < c.memory.length; address++) {
+          if (engine.word(address) != reference.word(address)) {
+            return new Divergence(c, step, reference.name(), engine.name(),
+                String.format("[%03X]=%010X", address, reference.word(address)),
+                String.format("[%03X]=%010X", address, engine.word(address)));
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Runs a case on every engine, returning where they first disagree, or null if they never do.
+   */
+  public Divergence check(Case c) {
+    for (Engine engine : engines) {
+      engine.load(c);
+    }
+    Divergence divergence = compare(c, 0, true, true);
+    int step = 0;
+    boolean memory = false;
+    boolean output = false;
+    while (divergence == null && step < c.steps && !engines[0].halted()) {
+      engines[0].registers(expectedRegisters);
+      int halfword = expectedRegisters.halfword();
+      if (neverFinishes(halfword)) {
+        break;
+      }
+      for (Engine engine : engines) {
+        engine.step();
+      }
+      step++;
+      steps++;
+      int group = halfword >>> 4 & 0xf;
+      memory |= group == 0x0 || group == 0x3;
+      output |= group == 0xF;
+      if (settled()) {
+        divergence = compare(c, step, memory, output);
+        memory = false;
+        output = false;
+      }
+    }
+    if (divergence == null) {
+      divergence = compare(c, step, true, true);
+    }
+    return divergence;
+  }
+
+  /**
+   * Cuts a divergent case down to as little as still makes the engines disagree.
+   */
+  public Divergence minimize(Divergence divergence) {
+    Case c = new Case(divergence.testCase());
+    c.steps = divergence.step();
+    Divergence best = check(c);
+    if (best == null) {
+      // the difference is in state that is only compared at the end
+      return divergence;
+    }
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (int address = 0; address < c.memory.length; address++) {
+        long word = c.memory[address];
+        if (word == 0L) {
+          continue;
+        }
+        long[] simpler = new long[] { 0L, (long) NOOP << SMIL.HALFWORD_BITS | word & SMIL.RIGHT_MASK,
+            word & SMIL.LEFT_MASK | NOOP, };
+        for (long candidate : simpler) {
+          if (candidate == word) {
+            continue;
+          }
+          c.memory[address] = candidate;
+          Divergence d = check(c);
+          if (d != null) {
+            best = d;
+            progress = true;
+            break;
+          }
+          c.memory[address] = word;
+        }
+      }
+      for (int i = 0; i < 5; i++) {
+        Case simpler = new Case(c);
+        switch (i) {
+          case 0:
+            simpler.registers.ar = 0L;
+            break;
+          case 1:
+            simpler.registers.mr = 0L;
+            break;
+          case 2:
+            simpler.registers.md = 0L;
+            break;
+          case 3:
+            simpler.registers.br = 0;
+            break;
+          default:
+            simpler.ticks = 0L;
+            break;
+        }
+        if (!simpler.equals(c)) {
+          Divergence d = check(simpler);
+          if (d != null) {
+            c = simpler;
+            best = d;
+            progress = true;
+          }
+        }
+      }
+      // skip the first instruction, starting at the next one with one step fewer
+      if (c.steps > 1) {
+        Case simpler = new Case(c);
+        simpler.registers.kr = c.registers.kr + 1 & Arithmetic.KR_MASK;
+        if (!simpler.registers.right()) {
+          simpler.registers.ir = c.memory[simpler.registers.address() % c.memory.length];
+        }
+        simpler.steps--;
+        Divergence d = check(simpler);
+        if (d != null) {
+          c = simpler;
+          best = d;
+          progress = true;
+        }
+      }
+      // the instruction register follows memory where it can
+      if (c.registers.ir != c.memory[c.registers.address() % c.memory.length]) {
+        Case simpler = new Case(c);
+        simpler.registers.ir = c.memory[c.registers.address() % c.memory.length];
+        Divergence d = check(simpler);
+        if (d != null) {
+          c = simpler;
+          best = d;
+          progress = true;
+        }
+      }
+      if (best.step() < c.steps) {
+        c.steps = best.step();
+        progress = true;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Runs cases from 'from' up to, but not including, 'to', and adds any divergences found, minimized,
+   * to 'divergences'. Returns the number of cases run.
+   */
+  public long fuzz(long from, long to, List<Divergence> divergences) {
+    for (long id = from; id < to; id++) {
+      Divergence divergence = check(generate(id));
+      if (divergence != null) {
+        divergences.add(minimize(divergence));
+      }
+    }
+    return to - from;
+  }
+
+  /**
+   * Fuzzes on several threads, each with its own engines, until 'cases' cases have been run, the
+   * time is up, or MAX_DIVERGENCES divergences have been found.
+   */
+  public static Report fuzz(final long cases, long millis, int threads, final long seed, final EngineType... types)
+      throws InterruptedException {
+    final long batch = 256L;
+    final long deadline = System.nanoTime() + millis * 1000000L;
+    final AtomicLong next = new AtomicLong();
+    final AtomicLong done = new AtomicLong();
+    final AtomicLong steps = new AtomicLong();
+    final List<Divergence> divergences = Collections.synchronizedList(new ArrayList<Divergence>());
+    long startNanos = System.nanoTime();
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread("Fuzzer " + i) {
+        @Override
+        public void run() {
+          Fuzzer fuzzer = new Fuzzer(seed, types);
+          while (System.nanoTime() < deadline && divergences.size() < MAX_DIVERGENCES) {
+            long from = next.getAndAdd(batch);
+            if (from >= cases) {
+              break;
+            }
+            done.addAndGet(fuzzer.fuzz(from, Math.min(from + batch, cases), divergences));
+          }
+          steps.addAndGet(fuzzer.steps());
+        }
+      };
+      workers[i].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return new Report(done.get(), steps.get(), System.nanoTime() - startNanos, new ArrayList<Divergence>(
+        divergences));
+  }
+
+  /**
+   * Usage: Fuzzer [seconds [threads [seed [directory]]]]. Compares every engine with the Processor
+   * for the given time, on all cores by default, and writes a reproducer tape for each divergence.
+   */
+  public static void main(String[] args) throws Exception {
+    long seconds = args.length > 0 ? Long.parseLong(args[0]) : 60L;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+    File directory = new File(args.length > 3 ? args[3] : ".");
+    System.out.format("Fuzzing with seed %d on %d threads for %d s\n", seed, threads, seconds);
+    Report report = fuzz(Long.MAX_VALUE, seconds * 1000L, threads, seed, EngineType.values());
+    System.out.println(report);
+    for (Divergence divergence : report.divergences()) {
+      File f = new File(directory, String.format("divergence-%d-%d.txt", seed, divergence.testCase().id));
+      divergence.writeTape(f);
+      System.out.format("%s\n  %s\n  %s\n  -> %s\n", divergence, divergence.expected(), divergence.actual(), f);
+    }
+  }
+}
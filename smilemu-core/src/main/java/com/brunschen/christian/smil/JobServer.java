@@ -0,0 +1,571 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs jobs on a fixed pool of headless machines, taking them over HTTP. A job is one or more
+ * tapes, how to load and start them, and budgets for how long they may run. The machines come
+ * from an SMILPool, which resets them between jobs rather than building new ones.
+ *
+ * A job is submitted as a POST to /jobs. The query gives the bundled tapes to use and the options,
+ * and a non-empty request body is an uploaded tape, read after the bundled ones:
+ *
+ * <pre>
+ *   tapes        bundled tape names, separated by commas
+ *   mode         load (the default): read A1 with tape start, then each tape using A1
+ *                tapestart: read each tape in turn with tape start
+ *   start        hex address to start at after reading the tapes, with an optional L or R
+ *   ar, mr       hex values to put in AR and MR before starting
+ *   ticks        emulated ticks the whole job may take
+ *   instructions instructions the whole job may execute
+ *   timeout      host milliseconds the whole job may take
+ *   timestamps   true to prefix each line of output with the tick it was started at
+ * </pre>
+ *
+ * The typewriter output is streamed back as it is printed, one line at a time. It is followed by a
+ * line starting with '#', which the typewriter can never print, giving the job's status.
+ */
+public class JobServer {
+  public static final String PATH = "/jobs";
+  public static final long DEFAULT_TICK_LIMIT = 1000000000L;
+  public static final long DEFAULT_TIMEOUT_MILLIS = 60000L;
+  public static final int TAIL_CAPACITY = 256;
+
+  public static enum Mode {
+    LOAD, TAPE_START
+  }
+
+  public static enum Status {
+    HALTED, TICK_LIMIT, INSTRUCTION_LIMIT, TIMEOUT, FAILED
+  }
+
+  /**
+   * What to run, and for how long.
+   */
+  public static class Job {
+    private List<String> names = new ArrayList<String>();
+    private List<Tape> tapes = new ArrayList<Tape>();
+    private Mode mode = Mode.LOAD;
+    private int start = -1;
+    private boolean startRight = false;
+    private long ar = 0L;
+    private long mr = 0L;
+    private long tickLimit = DEFAULT_TICK_LIMIT;
+    private long instructionLimit = Long.MAX_VALUE;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private boolean timestamps = false;
+
+    public void addTape(String name) {
+      if (!SMIL.hasTape(name)) {
+        throw new IllegalArgumentException("No such tape: " + name);
+      }
+      names.add(name);
+      tapes.add(SMIL.tape(name));
+    }
+
+    public void addTape(String name, Tape tape) {
+      names.add(name);
+      tapes.add(tape);
+    }
+
+    public List<String> names() {
+      return Collections.unmodifiableList(names);
+    }
+
+    public List<Tape> tapes() {
+      return Collections.unmodifiableList(tapes);
+    }
+
+    public Mode mode() {
+      return mode;
+    }
+
+    public void setMode(Mode mode) {
+      this.mode = mode;
+    }
+
+    /**
+     * Returns the address to start at once the tapes are read, or -1 not to start anywhere.
+     */
+    public int start() {
+      return start;
+    }
+
+    public boolean startRight() {
+      return startRight;
+    }
+
+    public void setStart(int start, boolean right) {
+      this.start = start;
+      this.startRight = right;
+    }
+
+    public long ar() {
+      return ar;
+    }
+
+    public void setAr(long ar) {
+      this.ar = ar;
+    }
+
+    public long mr() {
+      return mr;
+    }
+
+    public void setMr(long mr) {
+      this.mr = mr;
+    }
+
+    public long tickLimit() {
+      return tickLimit;
+    }
+
+    public void setTickLimit(long tickLimit) {
+      this.tickLimit = tickLimit;
+    }
+
+    public long instructionLimit() {
+      return instructionLimit;
+    }
+
+    public void setInstructionLimit(long instructionLimit) {
+      this.instructionLimit = instructionLimit;
+    }
+
+    public long timeoutMillis() {
+      return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    public boolean timestamps() {
+      return timestamps;
+    }
+
+    public void setTimestamps(boolean timestamps) {
+      this.timestamps = timestamps;
+    }
+  }
+
+  /**
+   * How a job ended.
+   */
+  public static class Outcome {
+    private Status status;
+    private long ticks;
+    private long instructions;
+    private long characters;
+    private long nanos;
+    private String error;
+
+    public Outcome(Status status, long ticks, long instructions, long characters, long nanos, String error) {
+      this.status = status;
+      this.ticks = ticks;
+      this.instructions = instructions;
+      this.characters = characters;
+      this.nanos = nanos;
+      this.error = error;
+    }
+
+    public Status status() {
+      return status;
+    }
+
+    public long ticks() {
+      return ticks;
+    }
+
+    public long instructions() {
+      return instructions;
+    }
+
+    public long characters() {
+      return characters;
+    }
+
+    public long nanos() {
+      return nanos;
+    }
+
+    public String error() {
+      return error;
+    }
+
+    /**
+     * Returns the status line that ends a job's output.
+     */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("# status=%s ticks=%d instructions=%d characters=%d millis=%d", status.name()
+          .toLowerCase(), ticks, instructions, characters, nanos / 1000000L));
+      if (error != null) {
+        sb.append(" error=").append(error.replace('\n', ' '));
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Flushes after every write, so that each line the typewriter drains goes out as its own chunk.
+   */
+  private static class FlushingOutputStream extends FilterOutputStream {
+    public FlushingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      out.flush();
+    }
+  }
+
+  private SMILPool pool;
+  private MetricsExporter metrics;
+  private HttpServer server = null;
+  private ExecutorService executor = null;
+  private volatile Translator translator = null;
+
+  /**
+   * @param poolSize the number of machines, and so the number of jobs that can run at once
+   * @param metrics an exporter to add the machines to and count jobs in, or null
+   */
+  public JobServer(int poolSize, MetricsExporter metrics) {
+    this.pool = new SMILPool(poolSize, metrics);
+    this.metrics = metrics;
+  }
+
+  public JobServer(int poolSize) {
+    this(poolSize, null);
+  }
+
+  /**
+   * Runs a job on the next free machine, waiting for one if they are all busy, and writes its
+   * typewriter output to 'out' as it is printed. The status line is not written.
+   */
+  public Outcome run(Job job, OutputStream out) throws InterruptedException {
+    SMIL smil = pool.acquire();
+    try {
+      return run(new TapeRunner(smil), job, out);
+    } finally {
+      pool.release(smil);
+    }
+  }
+
+  public SMILPool pool() {
+    return pool;
+  }
+
+  /**
+   * Sets a translator to run the programs of jobs that load their tapes with the loader as
+   * translated code, or null to only interpret them. Only translations already in the translator's
+   * cache are used, so that a job never waits for the compiler, and jobs cannot fill the cache;
+   * programs are put there in advance with Translator.main. Any other job runs interpreted.
+   */
+  public void setTranslator(Translator translator) {
+    this.translator = translator;
+  }
+
+  public Translator translator() {
+    return translator;
+  }
+
+  private Outcome run(TapeRunner runner, Job job, OutputStream out) {
+    final SMIL smil = runner.smil();
+    StreamTypewriter typewriter = new StreamTypewriter(out, TAIL_CAPACITY) {
+      @Override
+      public synchronized void append(String s) {
+        super.append(s);
+        // the client has gone away, so there is no one left to run the job for
+        if (failure() != null) {
+          smil.stop();
+        }
+      }
+    };
+    typewriter.setAutoFlush(true);
+    if (job.timestamps()) {
+      typewriter.setTimestampClock(smil.tickClock());
+    }
+    smil.setTypewriter(typewriter);
+
+    long startNanos = System.nanoTime();
+    runner.setTickLimit(job.tickLimit());
+    runner.setStepLimit(job.instructionLimit());
+    runner.setDeadline(startNanos + TimeUnit.MILLISECONDS.toNanos(job.timeoutMillis()));
+
+    Status status = Status.HALTED;
+    String error = null;
+    try {
+      boolean finished = true;
+      if (job.mode() == Mode.LOAD) {
+        finished = runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+      }
+      for (int i = 0; finished && typewriter.failure() == null && i < job.tapes().size(); i++) {
+        Tape tape = job.tapes().get(i);
+        finished = job.mode() == Mode.LOAD ? runner.load(tape) : runner.bootstrap(tape);
+      }
+      Translator translator = this.translator;
+      if (finished && job.start() >= 0 && job.mode() == Mode.LOAD && translator != null) {
+        try {
+          Translation translation = translator.lookup(job.tapes());
+          if (translation != null && translation.matches(smil.memory())) {
+            runner.setTranslation(translation);
+          }
+        } catch (IOException e) {
+          // run it interpreted
+        }
+      }
+      if (finished && typewriter.failure() == null && job.start() >= 0) {
+        smil.processor().ar.setValue(job.ar());
+        smil.processor().mr.setValue(job.mr());
+        finished = runner.start(job.start(), job.startRight());
+      }
+      if (!finished) {
+        if (smil.tickClock().now() >= runner.tickLimit()) {
+          status = Status.TICK_LIMIT;
+        } else if (runner.steps() >= runner.stepLimit()) {
+          status = Status.INSTRUCTION_LIMIT;
+        } else {
+          status = Status.TIMEOUT;
+        }
+      }
+      typewriter.flush();
+    } catch (Exception e) {
+      status = Status.FAILED;
+      error = e.toString();
+    }
+
+    if (metrics != null) {
+      if (status == Status.FAILED) {
+        metrics.jobFailed();
+      } else {
+        metrics.jobCompleted();
+      }
+    }
+    return new Outcome(status, smil.tickClock().now(), runner.steps(), typewriter.totalLength(),
+        System.nanoTime() - startNanos, error);
+  }
+
+  private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+    Map<String, String> parameters = new HashMap<String, String>();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        int equals = pair.indexOf('=');
+        if (equals < 0) {
+          parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+        } else {
+          parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+              URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+      }
+    }
+    return parameters;
+  }
+
+  /**
+   * Makes a job from the parameters and body of a request, as described above.
+   */
+  public static Job parseJob(Map<String, String> parameters, byte[] body) {
+    Job job = new Job();
+    String tapes = parameters.get("tapes");
+    if (tapes != null && tapes.length() > 0) {
+      for (String name : tapes.split(",")) {
+        job.addTape(name.trim());
+      }
+    }
+    if (body != null && body.length > 0) {
+      job.addTape("upload", new Tape(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)));
+    }
+    if (job.tapes().isEmpty()) {
+      throw new IllegalArgumentException("No tapes");
+    }
+
+    String mode = parameters.get("mode");
+    if (mode == null || mode.equalsIgnoreCase("load")) {
+      job.setMode(Mode.LOAD);
+    } else if (mode.equalsIgnoreCase("tapestart")) {
+      job.setMode(Mode.TAPE_START);
+    } else {
+      throw new IllegalArgumentException("Unknown mode: " + mode);
+    }
+
+    String start = parameters.get("start");
+    if (start != null) {
+      boolean right = false;
+      String address = start.toUpperCase();
+      if (address.endsWith("L") || address.endsWith("R")) {
+        right = address.endsWith("R");
+        address = address.substring(0, address.length() - 1);
+      }
+      int a = Integer.parseInt(address, 16);
+      if (a < 0 || a >= SMIL.drumRows * SMIL.wordsPerDrumRow) {
+        throw new IllegalArgumentException("Bad start address: " + start);
+      }
+      job.setStart(a, right);
+    }
+    if (parameters.containsKey("ar")) {
+      job.setAr(Long.parseLong(parameters.get("ar"), 16));
+    }
+    if (parameters.containsKey("mr")) {
+      job.setMr(Long.parseLong(parameters.get("mr"), 16));
+    }
+    if (parameters.containsKey("ticks")) {
+      job.setTickLimit(budget(parameters, "ticks"));
+    }
+    if (parameters.containsKey("instructions")) {
+      job.setInstructionLimit(budget(parameters, "instructions"));
+    }
+    if (parameters.containsKey("timeout")) {
+      job.setTimeoutMillis(budget(parameters, "timeout"));
+    }
+    job.setTimestamps(Boolean.parseBoolean(parameters.get("timestamps")));
+    return job;
+  }
+
+  private static long budget(Map<String, String> parameters, String name) {
+    long budget = Long.parseLong(parameters.get(name));
+    if (budget < 0L) {
+      throw new IllegalArgumentException("Bad " + name + ": " + budget);
+    }
+    return budget;
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = is.read(buf)) > 0) {
+      bytes.write(buf, 0, n);
+    }
+    is.close();
+    return bytes.toByteArray();
+  }
+
+  private static void respond(HttpExchange exchange, int code, String text) throws IOException {
+    byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(code, body.length);
+    OutputStream os = exchange.getResponseBody();
+    os.write(body);
+    os.close();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        respond(exchange, 405, "Jobs must be POSTed");
+        return;
+      }
+      Job job;
+      try {
+        job = parseJob(parseQuery(exchange.getRequestURI().getRawQuery()), readAll(exchange.getRequestBody()));
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, e.getMessage());
+        return;
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(200, 0);
+      OutputStream os = exchange.getResponseBody();
+      try {
+        Outcome outcome = run(job, new FlushingOutputStream(os));
+        os.write(('\n' + outcome.toString() + '\n').getBytes(StandardCharsets.UTF_8));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        os.close();
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Starts taking jobs on the loopback interface. A port of 0 picks any free port; port() returns
+   * the one actually used.
+   */
+  public void start(int port) throws IOException {
+    start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  public synchronized void start(InetSocketAddress address) throws IOException {
+    if (server != null) {
+      return;
+    }
+    server = HttpServer.create(address, 0);
+    server.createContext(PATH, new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        JobServer.this.handle(exchange);
+      }
+    });
+    // one thread per machine; further requests wait for a thread rather than a machine
+    executor = Executors.newFixedThreadPool(pool.size());
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public synchronized int port() {
+    return server != null ? server.getAddress().getPort() : -1;
+  }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Usage: JobServer [port [pool size [metrics port [translation cache directory]]]]. Every machine
+   * in the pool is also registered as an MBean, for JMX clients such as jconsole.
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    MetricsExporter metrics = new MetricsExporter();
+    JobServer server = new JobServer(poolSize, metrics);
+    server.pool().setRegisterMetrics(true);
+    if (args.length > 3) {
+      server.setTranslator(new Translator(new File(args[3])));
+    }
+    server.start(port);
+    if (args.length > 2) {
+      metrics.start(Integer.parseInt(args[2]));
+    }
+    System.err.printf("Taking jobs at http://%s:%d%s\n", InetAddress.getLoopbackAddress().getHostAddress(), server
+        .port(), PATH);
+  }
+}
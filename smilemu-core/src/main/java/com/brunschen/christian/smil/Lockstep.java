@@ -0,0 +1,515 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.Arrays;
+
+/**
+ * Runs up to 64 headless machines in lockstep, all following the same program but each with its
+ * own registers, memory, clock, tape and typewriter output. Each step decodes one instruction and
+ * then carries it out for every machine ('lane') that is about to execute it, in a tight loop over
+ * per-lane state, using the same word-level arithmetic as Arithmetic, so every lane ends up
+ * exactly where a Processor would have: registers, memory and tick count alike.
+ *
+ * Which lanes execute a step is kept as a bit mask. When lanes take different branches at a jump
+ * (0x9 or 0xA), or a lane's memory holds a different instruction, they split into groups at
+ * different instructions. Each step runs the group at the lowest instruction address, so lanes
+ * that have gone ahead wait for the rest to catch up, and join them again once they are all back
+ * at the same instruction - for loops and conditional skips, usually within a few steps.
+ *
+ * Lanes have no console: the stop conditionally switch is off, and tape punching is not
+ * modelled. Typewriter output is collected per lane.
+ */
+public class Lockstep {
+  public static final int MAX_LANES = Long.SIZE;
+  public static final int MEMORY_WORDS = SMIL.drumRows * SMIL.wordsPerDrumRow;
+  public static final long TICKS_PER_ROW = SMIL.ticksPerSecond / TapeReader.ROWS_PER_SECOND;
+
+  private static final int DECODE_TICKS = 6;
+  private static final int SHORT_TICKS = 9;
+  private static final int STORE_TICKS = 30;
+
+  private int lanes;
+  private long all;
+  private Arithmetic.Registers[] registers;
+  private long[][] memory;
+  private long[] ticks;
+  private Tape[] tapes;
+  private int[] tapeLocations;
+  private StringBuilder[] output;
+  private long halted = 0L;
+
+  private long steps = 0L;
+  private long laneSteps = 0L;
+  private long divergentSteps = 0L;
+
+  public Lockstep(int lanes) {
+    if (lanes < 1 || lanes > MAX_LANES) {
+      throw new IllegalArgumentException("Cannot run " + lanes + " lanes");
+    }
+    this.lanes = lanes;
+    all = lanes == MAX_LANES ? ~0L : (1L << lanes) - 1L;
+    registers = new Arithmetic.Registers[lanes];
+    memory = new long[lanes][MEMORY_WORDS];
+    ticks = new long[lanes];
+    tapes = new Tape[lanes];
+    tapeLocations = new int[lanes];
+    output = new StringBuilder[lanes];
+    for (int lane = 0; lane < lanes; lane++) {
+      registers[lane] = new Arithmetic.Registers();
+      output[lane] = new StringBuilder();
+    }
+  }
+
+  public int lanes() {
+    return lanes;
+  }
+
+  /**
+   * Clears a lane's registers, memory, clock, tape and output.
+   */
+  public void reset(int lane) {
+    registers[lane].clear();
+    Arrays.fill(memory[lane], 0L);
+    ticks[lane] = 0L;
+    setTape(lane, null);
+    output[lane].setLength(0);
+    halted &= ~(1L << lane);
+  }
+
+  /**
+   * Copies a machine's registers, memory, clock and tape into a lane, and clears its output.
+   */
+  public void load(int lane, SMIL smil) {
+    registers[lane].load(smil.processor());
+    for (int address = 0; address < MEMORY_WORDS; address++) {
+      memory[lane][address] = smil.memory().get(address);
+    }
+    ticks[lane] = smil.tickClock().now();
+    tapes[lane] = smil.tapeReader().tape();
+    tapeLocations[lane] = smil.tapeReader().location();
+    output[lane].setLength(0);
+    halted &= ~(1L << lane);
+  }
+
+  public Arithmetic.Registers registers(int lane) {
+    return registers[lane];
+  }
+
+  /**
+   * Returns a lane's memory itself, not a copy.
+   */
+  public long[] memory(int lane) {
+    return memory[lane];
+  }
+
+  public long ticks(int lane) {
+    return ticks[lane];
+  }
+
+  public void setTicks(int lane, long ticks) {
+    this.ticks[lane] = ticks;
+  }
+
+  public String output(int lane) {
+    return output[lane].toString();
+  }
+
+  public void setTape(int lane, Tape tape) {
+    tapes[lane] = tape;
+    tapeLocations[lane] = 0;
+  }
+
+  public int tapeLocation(int lane) {
+    return tapeLocations[lane];
+  }
+
+  /**
+   * Returns the mask of lanes that have halted, or stopped when reading a tape failed.
+   */
+  public long halted() {
+    return halted;
+  }
+
+  public boolean isHalted(int lane) {
+    return (halted & 1L << lane) != 0L;
+  }
+
+  /**
+   * Sets up a lane to read its tape from tape start, as SMIL.tapeStart() does.
+   */
+  public void tapeStart(int lane) {
+    registers[lane].ir = 0L;
+    registers[lane].kr = Arithmetic.KR_MASK;
+    halted &= ~(1L << lane);
+  }
+
+  /**
+   * Sets up a lane to start at an address, as Processor.jump() followed by loading IR does.
+   */
+  public void start(int lane, int address, boolean right) {
+    Arithmetic.Registers r = registers[lane];
+    r.kr = (address & 0xfff) << 1 | (right ? 1 : 0);
+    r.ir = read(lane, r.address());
+    halted &= ~(1L << lane);
+  }
+
+  public long steps() {
+    return steps;
+  }
+
+  /**
+   * Returns the sum over all steps of the number of lanes that took part in each.
+   */
+  public long laneSteps() {
+    return laneSteps;
+  }
+
+  /**
+   * Returns the number of steps in which some of the running lanes did not take part, because
+   * they were at a different instruction.
+   */
+  public long divergentSteps() {
+    return divergentSteps;
+  }
+
+  public void resetCounters() {
+    steps = laneSteps = divergentSteps = 0L;
+  }
+
+  /**
+   * Runs until every lane has halted or reached the tick limit, returning true if they all halted,
+   * or until the step limit is reached, returning false. The step limit counts lockstep steps, each
+   * one instruction on one or more lanes.
+   */
+  public boolean run(long tickLimit, long stepLimit) {
+    while (steps < stepLimit) {
+      long running = 0L;
+      for (long m = all & ~halted; m != 0L; m &= m - 1L) {
+        int lane = Long.numberOfTrailingZeros(m);
+        if (ticks[lane] < tickLimit) {
+          running |= 1L << lane;
+        }
+      }
+      if (running == 0L) {
+        return halted == all;
+      }
+      step(running);
+    }
+    return halted == all;
+  }
+
+  public boolean run() {
+    return run(Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Executes one instruction on the lanes, out of 'running', that are at the lowest address.
+   */
+  public void step(long running) {
+    int kr = Integer.MAX_VALUE;
+    int leader = -1;
+    for (long m = running; m != 0L; m &= m - 1L) {
+      int lane = Long.numberOfTrailingZeros(m);
+      if (registers[lane].kr < kr) {
+        kr = registers[lane].kr;
+        leader = lane;
+      }
+    }
+    int halfword = registers[leader].halfword();
+    long group = 0L;
+    for (long m = running; m != 0L; m &= m - 1L) {
+      int lane = Long.numberOfTrailingZeros(m);
+      if (registers[lane].kr == kr && registers[lane].halfword() == halfword) {
+        group |= 1L << lane;
+      }
+    }
+    if (group != running) {
+      divergentSteps++;
+    }
+    execute(group, halfword);
+    steps++;
+    laneSteps += Long.bitCount(group);
+  }
+
+  private void execute(long group, int halfword) {
+    int address = halfword >>> 8 & 0xfff;
+    int instructionGroup = halfword >>> 4 & 0xf;
+    int extras = halfword & 0xf;
+    boolean bit2 = SMIL.bitIsSet(extras, 2);
+    boolean bit3 = SMIL.bitIsSet(extras, 3);
+    boolean clearAr = SMIL.bitIsSet(extras, 1);
+
+    for (long m = group; m != 0L; m &= m - 1L) {
+      int lane = Long.numberOfTrailingZeros(m);
+      if (clearAr) {
+        registers[lane].ar = 0L;
+      }
+      ticks[lane] += DECODE_TICKS;
+    }
+
+    long jumped = 0L;
+    long stopped = 0L;
+    switch (instructionGroup) {
+      case 0x0:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          if (bit3) {
+            int row = readRow(lane);
+            if (row >= 0) {
+              r.ar = Arithmetic.arWithValue(Arithmetic.arValue(r.ar) & 0xfffffffff0L | row & 0xf);
+            } else {
+              stopped |= 1L << lane;
+            }
+          } else {
+            long word = readWord(lane);
+            if (word >= 0L) {
+              r.ar = Arithmetic.arWithValue(word);
+              if (!bit2) {
+                write(lane, address, word, SMIL.WORD_MASK);
+              }
+            } else {
+              stopped |= 1L << lane;
+            }
+          }
+          ticks[lane] += SHORT_TICKS;
+        }
+        break;
+      case 0x1:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.md = read(lane, address);
+          r.ar = Arithmetic.add(r.ar, r.md, bit3, bit2);
+          ticks[lane] += SHORT_TICKS + Arithmetic.and(r);
+        }
+        break;
+      case 0x2:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          ticks[lane] += bit3 ? Arithmetic.reverseMrIntoAr(r) : Arithmetic.copyMrToAr(r);
+        }
+        break;
+      case 0x3: {
+        long mask;
+        switch (extras >>> 2) {
+          case 1:
+            mask = 0xfff0000000L;
+            break;
+          case 2:
+            mask = 0x00000fff00L;
+            break;
+          case 3:
+            mask = 0xfff00fff00L;
+            break;
+          default:
+            mask = SMIL.WORD_MASK;
+            break;
+        }
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          write(lane, address, Arithmetic.arValue(registers[lane].ar), mask);
+          ticks[lane] += STORE_TICKS;
+        }
+        break;
+      }
+      case 0x4:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.md = read(lane, address);
+          r.ar = Arithmetic.add(r.ar, r.md, bit3, bit2);
+          r.mr = Arithmetic.mrFromAr(r.ar);
+          ticks[lane] += SHORT_TICKS;
+        }
+        break;
+      case 0x5:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.md = read(lane, address);
+          r.ar = Arithmetic.add(r.ar, r.md, bit3, bit2);
+          ticks[lane] += SHORT_TICKS;
+        }
+        break;
+      case 0x6:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.md = read(lane, address);
+          ticks[lane] += Arithmetic.multiply(r);
+        }
+        break;
+      case 0x7:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.md = read(lane, address);
+          ticks[lane] += Arithmetic.multiply(r);
+          // round: add in the most significant bit of the discarded low half
+          if ((r.mr & Arithmetic.MR_SIGN >>> 1) != 0L) {
+            r.ar = Arithmetic.increment(r.ar);
+          }
+          r.mr = 0L;
+        }
+        break;
+      case 0x8:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.md = read(lane, address);
+          ticks[lane] += Arithmetic.divide(r);
+        }
+        break;
+      case 0x9:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          if (!bit3 || Arithmetic.overflow(registers[lane].ar)) {
+            jumped |= 1L << lane;
+          }
+          ticks[lane] += SHORT_TICKS;
+        }
+        break;
+      case 0xA:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          if (bit3 == Arithmetic.isNegative(registers[lane].ar)) {
+            jumped |= 1L << lane;
+          }
+          ticks[lane] += SHORT_TICKS;
+        }
+        break;
+      case 0xB:
+        if (!bit3) {
+          stopped = group;
+        } else {
+          for (long m = group; m != 0L; m &= m - 1L) {
+            ticks[Long.numberOfTrailingZeros(m)] += SHORT_TICKS;
+          }
+        }
+        break;
+      case 0xC:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          r.mr = 0L;
+          ticks[lane] += SHORT_TICKS + Arithmetic.normalize(r);
+        }
+        break;
+      case 0xD:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          Arithmetic.Registers r = registers[lane];
+          ticks[lane] += SHORT_TICKS;
+          switch (extras >>> 2) {
+            case 0:
+              ticks[lane] += Arithmetic.shiftLeft(r, address);
+              break;
+            case 2:
+              ticks[lane] += Arithmetic.shiftRight(r, address, true);
+              break;
+            case 3:
+              ticks[lane] += Arithmetic.shiftRight(r, address, false);
+              break;
+            default:
+              break;
+          }
+        }
+        break;
+      case 0xE:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          ticks[Long.numberOfTrailingZeros(m)] += SHORT_TICKS;
+        }
+        break;
+      case 0xF:
+        for (long m = group; m != 0L; m &= m - 1L) {
+          int lane = Long.numberOfTrailingZeros(m);
+          ticks[lane] += SMIL.ticksPerTypewriterCharacter;
+          if (bit3) {
+            output[lane].append(Typewriter.specialChars[(address & 0xf) % Typewriter.specialChars.length]);
+          } else {
+            output[lane].append(Typewriter.hexChars[(int) (Arithmetic.arValue(registers[lane].ar) & 0xf)]);
+          }
+          ticks[lane] += SHORT_TICKS;
+        }
+        break;
+      default:
+        break;
+    }
+
+    // a jump sets KR and reloads IR; otherwise KR advances, and IR is reloaded after the right-hand
+    // halfword. Lanes that stopped still finish the step, as the Processor does.
+    int targetKr = address << 1 | (bit2 ? 1 : 0);
+    for (long m = group; m != 0L; m &= m - 1L) {
+      int lane = Long.numberOfTrailingZeros(m);
+      Arithmetic.Registers r = registers[lane];
+      boolean reload = r.right();
+      if ((jumped & 1L << lane) != 0L) {
+        r.kr = targetKr;
+        reload = true;
+      } else {
+        r.kr = r.kr + 1 & Arithmetic.KR_MASK;
+      }
+      if (reload) {
+        r.ir = read(lane, r.address());
+      }
+    }
+    halted |= stopped;
+  }
+
+  /**
+   * Waits for the drum to bring an address under the heads, as DrumMemory does.
+   */
+  private void waitForAddress(int lane, int address) {
+    long now = ticks[lane];
+    int row = (int) (now % SMIL.drumRows);
+    ticks[lane] = now + (address + SMIL.drumRows - row) % SMIL.drumRows;
+  }
+
+  private long read(int lane, int address) {
+    waitForAddress(lane, address);
+    return memory[lane][address % MEMORY_WORDS];
+  }
+
+  private void write(int lane, int address, long word, long mask) {
+    waitForAddress(lane, address);
+    long[] words = memory[lane];
+    address %= MEMORY_WORDS;
+    words[address] = (words[address] & ~mask | word & mask) & SMIL.WORD_MASK;
+  }
+
+  /**
+   * Reads the next row with a value from a lane's tape, as TapeReader.read() does, or returns -1
+   * if there is no tape or it runs out; the rows already passed still take their time.
+   */
+  private int readRow(int lane) {
+    Tape tape = tapes[lane];
+    if (tape == null) {
+      return -1;
+    }
+    Tape.Entry entry;
+    do {
+      if (tapeLocations[lane] >= tape.length()) {
+        return -1;
+      }
+      entry = tape.get(tapeLocations[lane]++);
+      ticks[lane] += TICKS_PER_ROW * (entry == null ? 1 : entry.width());
+    } while (entry == null || !entry.hasValue());
+    return entry.value();
+  }
+
+  private long readWord(int lane) {
+    long word = 0L;
+    for (int i = 0; i < 10; i++) {
+      int row = readRow(lane);
+      if (row < 0) {
+        return -1L;
+      }
+      word = word << 4 | row & 0xf;
+    }
+    return word;
+  }
+}
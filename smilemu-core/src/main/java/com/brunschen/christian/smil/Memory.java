@@ -0,0 +1,342 @@
+/**
+ * 
+ */
+package com.brunschen.christian.smil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Changes to memory are not reported to listeners as they happen. Instead, every write sets a bit
+ * in a bitmap of dirty words for each party tracking changes; observers drain their bitmap at
+ * their own pace, and get the changes as ranges of consecutive addresses. Change listeners are
+ * served this way by a timer thread, so they never run on the thread writing to memory.
+ *
+ * @author Christian Brunschen
+ *
+ */
+public class Memory {
+  public static final long DISPATCH_INTERVAL_MILLIS = 20L;
+  public static final int PAGE_WORDS = 64;
+
+  private long[] contents;
+  private long wordMask;
+  private Set<MemoryChangeListener> changeListeners = new HashSet<MemoryChangeListener>();
+  private volatile DirtyWords[] trackers = new DirtyWords[0];
+  private DirtyWords dispatchTracker = null;
+  private Timer dispatchTimer = null;
+
+  /**
+   * A bitmap of the words written since it was last drained.
+   */
+  public class DirtyWords {
+    private final AtomicLongArray bits = new AtomicLongArray((contents.length + 63) >>> 6);
+
+    private DirtyWords() {
+    }
+
+    private void mark(int address) {
+      int i = address >>> 6;
+      long bit = 1L << (address & 63);
+      long old = bits.get(i);
+      // in tight loops the word is usually already marked, so this is just a read
+      while ((old & bit) == 0L && !bits.compareAndSet(i, old, old | bit)) {
+        old = bits.get(i);
+      }
+    }
+
+    private void mark(int address, int length) {
+      int end = address + length;
+      while (address < end) {
+        int i = address >>> 6;
+        int n = Math.min(64 - (address & 63), end - address);
+        long m = (n == 64 ? ~0L : (1L << n) - 1) << (address & 63);
+        long old = bits.get(i);
+        while ((old & m) != m && !bits.compareAndSet(i, old, old | m)) {
+          old = bits.get(i);
+        }
+        address += n;
+      }
+    }
+
+    public Memory memory() {
+      return Memory.this;
+    }
+
+    public boolean isDirty(int address) {
+      return (bits.get(address >>> 6) & 1L << (address & 63)) != 0L;
+    }
+
+    public boolean isEmpty() {
+      for (int i = 0; i < bits.length(); i++) {
+        if (bits.get(i) != 0L) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Clears the bitmap, reporting each range of consecutive dirty words to the listener. Words
+     * written while this is going on are either reported now or left marked for the next drain.
+     *
+     * @return the number of dirty words
+     */
+    public int drain(MemoryChangeListener listener) {
+      int count = 0;
+      int start = -1;
+      for (int i = 0; i < bits.length(); i++) {
+        long w = bits.get(i);
+        if (w != 0L) {
+          w = bits.getAndSet(i, 0L);
+        }
+        if (w == 0L || w == ~0L) {
+          // the whole word is clean or dirty: either end or extend the current range
+          if (w == 0L && start >= 0) {
+            report(listener, start, (i << 6) - start);
+            start = -1;
+          } else if (w == ~0L && start < 0) {
+            start = i << 6;
+          }
+          count += w == 0L ? 0 : 64;
+          continue;
+        }
+        for (int b = 0; b < 64; b++) {
+          int address = (i << 6) + b;
+          if ((w & 1L << b) != 0L) {
+            count++;
+            if (start < 0) {
+              start = address;
+            }
+          } else if (start >= 0) {
+            report(listener, start, address - start);
+            start = -1;
+          }
+        }
+      }
+      if (start >= 0) {
+        report(listener, start, contents.length - start);
+      }
+      return count;
+    }
+
+    private void report(MemoryChangeListener listener, int address, int length) {
+      if (length == 1) {
+        listener.memoryChanged(Memory.this, address);
+      } else {
+        listener.memoryChanged(Memory.this, address, length);
+      }
+    }
+  }
+  
+  public Memory(int length, int significantBits) {
+    contents = new long[length];
+    wordMask = ~0L >>> (Long.SIZE - significantBits);
+  }
+
+  public int length() {
+    return contents.length;
+  }
+  
+  public long get(int address) {
+    return contents[address % contents.length];
+  }
+  
+  public long read(int address) {
+    return get(address);
+  }
+  
+  private void notifyChange(int address) {
+    DirtyWords[] t = trackers;
+    for (int i = 0; i < t.length; i++) {
+      t[i].mark(address);
+    }
+  }
+  
+  private void notifyChange(int address, int length) {
+    if (length <= 0) {
+      return;
+    }
+    DirtyWords[] t = trackers;
+    for (int i = 0; i < t.length; i++) {
+      t[i].mark(address, length);
+    }
+  }
+
+  /**
+   * Starts tracking writes to memory in a new bitmap, which the caller drains whenever it likes.
+   */
+  public synchronized DirtyWords trackChanges() {
+    DirtyWords tracker = new DirtyWords();
+    DirtyWords[] t = new DirtyWords[trackers.length + 1];
+    System.arraycopy(trackers, 0, t, 0, trackers.length);
+    t[trackers.length] = tracker;
+    trackers = t;
+    return tracker;
+  }
+
+  public synchronized void stopTrackingChanges(DirtyWords tracker) {
+    List<DirtyWords> t = new ArrayList<DirtyWords>(trackers.length);
+    for (DirtyWords dirtyWords : trackers) {
+      if (dirtyWords != tracker) {
+        t.add(dirtyWords);
+      }
+    }
+    trackers = t.toArray(new DirtyWords[t.size()]);
+  }
+  
+  public void set(int address, long[] values, int offset, int length) {
+    if (length > contents.length) {
+      /*
+       * If we try to write more than there is space for in total, some of the initial data will be
+       * overwritten by later data, so doesn't need to be written in the first place.
+       * Calculate the amount of this initial redundant data, and adjust the address, offset
+       * and length accordingly.
+       */
+      int overwritten = length - contents.length;
+      offset += overwritten;
+      length -= overwritten;
+      address = (address + overwritten) % contents.length;
+    }
+    
+    if (address + length <= contents.length) {
+      // everything fits between here and the end of memory, no problem.
+      System.arraycopy(values, offset, contents, address, length);
+      notifyChange(address, length);
+    } else {
+      // break the data into two blocks, at the end and the beginning of memory. Write each
+      // block and notify separately.
+      int n = contents.length - address;
+      System.arraycopy(values, offset, contents, address, n);
+      System.arraycopy(values, offset + n, contents, 0, length - n);
+      notifyChange(address, n);
+      notifyChange(0, length - n);
+    }
+  }
+  
+  public void set(int address, long value) {
+    address %= contents.length;
+    contents[address] = value & wordMask;
+    notifyChange(address);
+  }
+  
+  public void set(int address, long value, long mask) {
+    set(address, get(address) & ~mask | value & mask);
+  }
+  
+  public void write(int address, long value) {
+    set(address, value);
+  }
+  
+  public void write(int address, long value, long mask) {
+    set(address, value, mask);
+  }
+  
+  public void write(int address, long[] values, int offset, int len) {
+    set(address, values, offset, len);
+  }
+  
+  public void clear() {
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = 0L;
+    }
+    notifyChange(0, contents.length);
+  }
+
+  /**
+   * Zeroes each page of PAGE_WORDS words in which the tracker has seen a write, and clears the
+   * tracker. When little has been written since the tracker was last drained or cleared, this is
+   * much quicker than clear(). Nothing may write to memory while this is going on.
+   *
+   * @return the number of pages zeroed
+   */
+  public int clearDirtyPages(DirtyWords tracker) {
+    int pages = 0;
+    for (int i = 0; i < tracker.bits.length(); i++) {
+      if (tracker.bits.get(i) != 0L) {
+        int from = i * PAGE_WORDS;
+        int to = Math.min(from + PAGE_WORDS, contents.length);
+        Arrays.fill(contents, from, to, 0L);
+        notifyChange(from, to - from);
+        // the tracker saw that too, but there is nothing left to clear
+        tracker.bits.set(i, 0L);
+        pages++;
+      }
+    }
+    return pages;
+  }
+
+  /**
+   * Returns whether every word in memory is zero.
+   */
+  public boolean isClear() {
+    for (int i = 0; i < contents.length; i++) {
+      if (contents[i] != 0L) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Adds a listener to be told about changes to memory. Changes are delivered on a timer thread,
+   * every DISPATCH_INTERVAL_MILLIS, as ranges of consecutive changed words.
+   */
+  public synchronized void addChangeListener(MemoryChangeListener changeListener) {
+    changeListeners.add(changeListener);
+    if (dispatchTimer == null) {
+      dispatchTracker = trackChanges();
+      dispatchTimer = new Timer("Memory Changes", true);
+      dispatchTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          dispatchChanges();
+        }
+      }, DISPATCH_INTERVAL_MILLIS, DISPATCH_INTERVAL_MILLIS);
+    }
+  }
+  
+  public synchronized void removeChangeListener(MemoryChangeListener changeListener) {
+    changeListeners.remove(changeListener);
+    if (changeListeners.isEmpty() && dispatchTimer != null) {
+      dispatchTimer.cancel();
+      dispatchTimer = null;
+      stopTrackingChanges(dispatchTracker);
+      dispatchTracker = null;
+    }
+  }
+
+  /**
+   * Delivers all changes made since the last delivery to the change listeners.
+   */
+  public void dispatchChanges() {
+    final MemoryChangeListener[] listeners;
+    DirtyWords tracker;
+    synchronized (this) {
+      listeners = changeListeners.toArray(new MemoryChangeListener[changeListeners.size()]);
+      tracker = dispatchTracker;
+    }
+    if (tracker == null) {
+      return;
+    }
+    tracker.drain(new MemoryChangeListener() {
+      public void memoryChanged(Memory memory, int address, int length) {
+        for (MemoryChangeListener listener : listeners) {
+          listener.memoryChanged(memory, address, length);
+        }
+      }
+
+      public void memoryChanged(Memory memory, int address) {
+        for (MemoryChangeListener listener : listeners) {
+          listener.memoryChanged(memory, address);
+        }
+      }
+    });
+  }
+}
@@ -7,7 +7,7 @@ package com.brunschen.christian.smil;
  * @author Christian Brunschen
  *
  */
-interface MemoryChangeListener {
+public interface MemoryChangeListener {
   void memoryChanged(Memory memory, int address, int length);
   void memoryChanged(Memory memory, int address);
 }
@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Writes a dump of memory, or of the words on a tape, in the same format as
+ * {@link SMIL#printWord(java.io.PrintWriter, int, int, long)}, streaming it to a {@link Writer} or
+ * a {@link WritableByteChannel} through a fixed-size buffer. Runs of identical words are written
+ * once, with the range of addresses they occupy. Hex and fraction values are formatted directly
+ * into the buffer, rather than going through {@link String#format(String, Object...)}.
+ */
+public class MemoryDumper {
+
+  public static final int BUFFER_SIZE = 8192;
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private static final int FRACTION_BITS = SMIL.WORD_BITS - 1;
+  private static final long FRACTION_MASK = SMIL.mask(FRACTION_BITS, 0);
+  private static final long HALF = 1L << FRACTION_BITS - 1;
+  // residues this close to one half may be rounded differently by Formatter, which rounds the
+  // shortest decimal representation of the double rather than its exact value
+  private static final long NEAR_HALF = (1L << FRACTION_BITS) / 512;
+  private static final int FRACTION_DIGITS = 13;
+
+  private Disassembler disassembler;
+  private Writer writer;
+  private WritableByteChannel channel;
+  private ByteBuffer bytes;
+  private char[] buffer = new char[BUFFER_SIZE];
+  private int n = 0;
+  private int[] digits = new int[FRACTION_DIGITS];
+
+  private MemoryDumper(Processor processor) {
+    this.disassembler = processor.disassembler();
+  }
+
+  public MemoryDumper(Processor processor, Writer writer) {
+    this(processor);
+    this.writer = writer;
+  }
+
+  public MemoryDumper(Processor processor, WritableByteChannel channel) {
+    this(processor);
+    this.channel = channel;
+    this.bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  /**
+   * Dumps memory from address 'from' to address 'to', both inclusive. Words are read directly,
+   * without waiting for the drum.
+   */
+  public void dump(Memory memory, int from, int to) throws IOException {
+    if (to < from) {
+      return;
+    }
+    int start = from;
+    long previous = memory.get(from);
+    for (int i = from + 1; i <= to; i++) {
+      long m = memory.get(i);
+      if (m != previous) {
+        dumpWord(start, i - 1, previous);
+        write('\n');
+        start = i;
+        previous = m;
+      }
+    }
+    dumpWord(start, to, previous);
+    write('\n');
+  }
+
+  public void dump(Memory memory) throws IOException {
+    dump(memory, 0, memory.length() - 1);
+  }
+
+  /**
+   * Dumps the words with indexes 'from' to 'to', both inclusive.
+   */
+  public void dump(List<Long> words, int from, int to) throws IOException {
+    if (to < from) {
+      return;
+    }
+    int start = from;
+    long previous = words.get(from);
+    for (int i = from + 1; i <= to; i++) {
+      long m = words.get(i);
+      if (m != previous) {
+        dumpWord(start, i - 1, previous);
+        write('\n');
+        start = i;
+        previous = m;
+      }
+    }
+    dumpWord(start, to, previous);
+    write('\n');
+  }
+
+  public void dump(List<Long> words) throws IOException {
+    dump(words, 0, words.size() - 1);
+  }
+
+  /**
+   * Writes one word, which occupies the addresses from 'start' to 'end'.
+   */
+  public void dumpWord(int start, int end, long word) throws IOException {
+    writeHex(start, 3);
+    if (end != start) {
+      write('-');
+      writeHex(end, 3);
+    } else {
+      write("    ");
+    }
+    write(":  ");
+    writeHex((word & 0xfffff00000L) >>> 20, 5);
+    write(' ');
+    writeHex(word & 0xfffffL, 5);
+    write("       ");
+    writeHalfword(word, false);
+    write("\n         ");
+    writeFraction(word);
+    write("   ");
+    writeHalfword(word, true);
+    write('\n');
+  }
+
+  private void writeHalfword(long word, boolean right) throws IOException {
+    write(disassembler.describeHalfword(word, right));
+  }
+
+  /**
+   * Writes the word's value as a fraction, as "% 16.13f" would.
+   */
+  private void writeFraction(long word) throws IOException {
+    boolean negative = (word & SMIL.SIGN_BIT_MASK) != 0;
+    long magnitude = negative ? ~word + 1 & SMIL.WORD_MASK : word;
+    int integer = (int) (magnitude >>> FRACTION_BITS);
+    long residue = magnitude & FRACTION_MASK;
+    for (int i = 0; i < FRACTION_DIGITS; i++) {
+      residue *= 10;
+      digits[i] = (int) (residue >>> FRACTION_BITS);
+      residue &= FRACTION_MASK;
+    }
+    if (Math.abs(residue - HALF) < NEAR_HALF) {
+      write(String.format("% 16.13f", SMIL.doubleValue(word)));
+      return;
+    }
+    if (residue >= HALF) {
+      int i = FRACTION_DIGITS - 1;
+      while (i >= 0 && ++digits[i] == 10) {
+        digits[i--] = 0;
+      }
+      if (i < 0) {
+        integer++;
+      }
+    }
+    write(negative ? '-' : ' ');
+    write((char) ('0' + integer));
+    write('.');
+    for (int i = 0; i < FRACTION_DIGITS; i++) {
+      write((char) ('0' + digits[i]));
+    }
+  }
+
+  private void writeHex(long value, int minDigits) throws IOException {
+    int nDigits = minDigits;
+    while (nDigits < 16 && value >>> 4 * nDigits != 0) {
+      nDigits++;
+    }
+    for (int shift = 4 * (nDigits - 1); shift >= 0; shift -= 4) {
+      write(HEX[(int) (value >>> shift) & 0xf]);
+    }
+  }
+
+  private void write(char c) throws IOException {
+    if (n == buffer.length) {
+      drain();
+    }
+    buffer[n++] = c;
+  }
+
+  private void write(String s) throws IOException {
+    int length = s.length();
+    int offset = 0;
+    while (offset < length) {
+      if (n == buffer.length) {
+        drain();
+      }
+      int count = Math.min(length - offset, buffer.length - n);
+      s.getChars(offset, offset + count, buffer, n);
+      n += count;
+      offset += count;
+    }
+  }
+
+  private void drain() throws IOException {
+    if (writer != null) {
+      writer.write(buffer, 0, n);
+    } else {
+      for (int i = 0; i < n; i++) {
+        bytes.put((byte) buffer[i]);
+      }
+      bytes.flip();
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      bytes.clear();
+    }
+    n = 0;
+  }
+
+  /**
+   * Writes out everything buffered so far, and flushes the underlying writer.
+   */
+  public void flush() throws IOException {
+    drain();
+    if (writer != null) {
+      writer.flush();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the counters of a set of machines over HTTP, in the Prometheus text format, so that they
+ * can be scraped without going through JMX. Like the MBean, everything is read from the counters
+ * that the processor's thread keeps anyway; a scrape never makes a processor wait.
+ *
+ * The *_total series are Prometheus counters, so they are published from the totals since each
+ * machine was created, which resetCounters() leaves alone; SMILPool resets the counters after
+ * every job, and that must not look like a counter reset to rate() and increase().
+ *
+ * The server only listens on the loopback interface unless it is explicitly given another address.
+ */
+public class MetricsExporter {
+  public static final String PATH = "/metrics";
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private List<SMILMetrics> machines = new CopyOnWriteArrayList<SMILMetrics>();
+  private AtomicLong jobsCompleted = new AtomicLong();
+  private AtomicLong jobsFailed = new AtomicLong();
+  private HttpServer server = null;
+
+  public void add(SMIL smil) {
+    machines.add(new SMILMetrics(smil));
+  }
+
+  public void remove(SMIL smil) {
+    for (SMILMetrics metrics : machines) {
+      if (metrics.getId() == smil.id()) {
+        machines.remove(metrics);
+      }
+    }
+  }
+
+  public void jobCompleted() {
+    jobsCompleted.incrementAndGet();
+  }
+
+  public void jobFailed() {
+    jobsFailed.incrementAndGet();
+  }
+
+  public long jobsCompleted() {
+    return jobsCompleted.get();
+  }
+
+  public long jobsFailed() {
+    return jobsFailed.get();
+  }
+
+  /**
+   * Starts serving metrics on the loopback interface. A port of 0 picks any free port; port()
+   * returns the one actually used.
+   */
+  public void start(int port) throws IOException {
+    start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  public synchronized void start(InetSocketAddress address) throws IOException {
+    if (server != null) {
+      return;
+    }
+    server = HttpServer.create(address, 0);
+    server.createContext(PATH, new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        try {
+          os.write(body);
+        } finally {
+          os.close();
+        }
+      }
+    });
+    server.start();
+  }
+
+  public synchronized int port() {
+    return server != null ? server.getAddress().getPort() : -1;
+  }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  /**
+   * Returns all the metrics in the Prometheus text format.
+   */
+  public synchronized String scrape() {
+    StringWriter sw = new StringWriter();
+    PrintWriter out = new PrintWriter(sw);
+
+    header(out, "smil_instructions_total", "counter", "Instructions executed.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_instructions_total", m, m.smil().processor().totalInstructionCount());
+    }
+    header(out, "smil_emulated_mhz", "gauge", "Emulated clock rate since the previous scrape, in MHz.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_emulated_mhz", m, m.getSpeedRatio() * SMIL.ticksPerSecond / 1e6);
+    }
+    header(out, "smil_running", "gauge", "Whether the machine is running.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_running", m, m.isRunning() ? 1 : 0);
+    }
+    header(out, "smil_drum_wait_ticks_total", "counter", "Ticks spent waiting for the drum to rotate.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_drum_wait_ticks_total", m, m.smil().drumMemory().totalWaitTicks());
+    }
+    header(out, "smil_pacing_sleeps_total", "counter", "Times the clock slept to pace emulated time.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_pacing_sleeps_total", m, m.smil().systemClock().totalSleeps());
+    }
+    header(out, "smil_pacing_oversleep_seconds_total", "counter", "Time slept beyond what was asked for.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_pacing_oversleep_seconds_total", m, m.smil().systemClock().totalOversleepNanos() / 1e9);
+    }
+    header(out, "smil_pacing_spare_seconds_total", "counter", "Time ahead of real time handed to clock listeners.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_pacing_spare_seconds_total", m, m.smil().systemClock().totalSpareTimeNanos() / 1e9);
+    }
+    header(out, "smil_tape_rows_read_total", "counter", "Tape rows passed under the read head.");
+    for (SMILMetrics m : machines) {
+      TapeReader tapeReader = m.smil().tapeReader();
+      sample(out, "smil_tape_rows_read_total", m, tapeReader != null ? tapeReader.totalRowsRead() : 0L);
+    }
+    header(out, "smil_typewriter_characters_total", "counter", "Characters printed on the typewriter.");
+    for (SMILMetrics m : machines) {
+      sample(out, "smil_typewriter_characters_total", m, m.smil().totalTypewriterCharacters());
+    }
+    header(out, "smil_jobs_completed_total", "counter", "Jobs that ran to completion.");
+    out.printf(Locale.ROOT, "smil_jobs_completed_total %d\n", jobsCompleted.get());
+    header(out, "smil_jobs_failed_total", "counter", "Jobs that failed.");
+    out.printf(Locale.ROOT, "smil_jobs_failed_total %d\n", jobsFailed.get());
+
+    out.flush();
+    return sw.toString();
+  }
+
+  private static void header(PrintWriter out, String name, String type, String help) {
+    out.printf(Locale.ROOT, "# HELP %s %s\n", name, help);
+    out.printf(Locale.ROOT, "# TYPE %s %s\n", name, type);
+  }
+
+  private static void sample(PrintWriter out, String name, SMILMetrics m, long value) {
+    out.printf(Locale.ROOT, "%s{machine=\"%d\"} %d\n", name, m.getId(), value);
+  }
+
+  private static void sample(PrintWriter out, String name, SMILMetrics m, double value) {
+    out.printf(Locale.ROOT, "%s{machine=\"%d\"} %s\n", name, m.getId(), Double.toString(value));
+  }
+}
@@ -6,12 +6,27 @@ package com.brunschen.christian.smil;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * @author Christian Brunschen
  *
  */
 public class Processor {
+
+  /**
+   * How oneStep() gets from an instruction to the code that executes it.
+   */
+  public enum Dispatch {
+    /** Through the Operation registered for the instruction's group, as the debugger shows it. */
+    OPERATIONS,
+    /**
+     * Through one switch over copies of the registers' bits, using Arithmetic, which writes each
+     * register that changed once per instruction. Listeners on a register, such as the sound
+     * generator on AR, therefore only see its value after each instruction.
+     */
+    SWITCH,
+  }
   
   public static final int decodeInstructionClockCycles = 6;
   public static final int shortOperationClockCycles = 9;
@@ -30,20 +45,107 @@ public class Processor {
 
   public Register[] registers = new Register[] { ar, mr, md, ir, kr, br };
   public Operation[] operations = new Operation[16];
+  private Disassembler disassembler = new Disassembler(this);
+  // only ever written by the thread running the processor, so lazySet is enough; they never go
+  // back to zero, instead resetCounters() moves the baseline that the getters subtract, so that it
+  // can be called from any thread without a later increment undoing it
+  private AtomicLongArray instructionCounts = new AtomicLongArray(16);
+  private AtomicLongArray instructionBaselines = new AtomicLongArray(16);
   
   boolean needToLoadIr = false;
   boolean jumped = false;
   private SMIL smil;
   protected Clock<Clock.UnitTick> clock;
+  private Fusion fusion;
+  private final Dispatch dispatch;
+  // scratch copies of the registers for Dispatch.SWITCH
+  private final Arithmetic.Registers registerBits = new Arithmetic.Registers();
+  private final Arithmetic.Registers registerBitsBefore = new Arithmetic.Registers();
 
   public void addOperation(int i, Operation operation) {
     operations[i] = operation;
+    disassembler.clear();
   }
 
   public Operation operation(int i) {
     return operations[i];
   }
 
+  public Disassembler disassembler() {
+    return disassembler;
+  }
+
+  /**
+   * Returns the number of instructions executed from an opcode group since the counters were last
+   * reset.
+   */
+  public long instructionCount(int group) {
+    long baseline = instructionBaselines.get(group);
+    return instructionCounts.get(group) - baseline;
+  }
+
+  public long[] instructionCounts() {
+    long[] counts = new long[instructionCounts.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = instructionCount(i);
+    }
+    return counts;
+  }
+
+  public long instructionCount() {
+    long total = 0L;
+    for (int i = 0; i < instructionCounts.length(); i++) {
+      total += instructionCount(i);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of instructions executed since the processor was created, which
+   * resetCounters() does not affect.
+   */
+  public long totalInstructionCount() {
+    long total = 0L;
+    for (int i = 0; i < instructionCounts.length(); i++) {
+      total += instructionCounts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Adds in counts of instructions executed elsewhere, such as by translated code, on this
+   * processor's thread.
+   */
+  public void addInstructionCounts(long[] counts) {
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0L) {
+        instructionCounts.lazySet(i, instructionCounts.get(i) + counts[i]);
+      }
+    }
+  }
+
+  public void resetCounters() {
+    for (int i = 0; i < instructionCounts.length(); i++) {
+      instructionBaselines.set(i, instructionCounts.get(i));
+    }
+    Fusion f = fusion;
+    if (f != null) {
+      f.resetCounters();
+    }
+  }
+
+  public Fusion fusion() {
+    return fusion;
+  }
+
+  /**
+   * Sets the fusion that oneStep() profiles into and fusedStep() runs fused words with, or null to
+   * only ever execute one halfword at a time. Only to be called while the processor is stopped.
+   */
+  public void setFusion(Fusion fusion) {
+    this.fusion = fusion;
+  }
+
   public void prepareOperations() {
     addOperation(0x0, new Operation("Read from Tape") {
       public void describe(PrintWriter pw, int address, int extras) {
@@ -159,19 +261,7 @@ public class Processor {
       }
 
       public void perform(int address, int extras) {
-        long mask = SMIL.WORD_MASK;
-        switch (extras >>> 2) {
-          case 1:
-            mask = 0xfff0000000L;
-            break;
-          case 2:
-            mask = 0x00000fff00L;
-            break;
-          case 3:
-            mask = 0xfff00fff00L;
-            break;
-        }
-        smil.memory_write(address, ar.value(), mask);
+        smil.memory_write(address, ar.value(), storeMask(extras));
 
         clock.sleep(30); // special case, 30 clock pulses
       }
@@ -446,7 +536,7 @@ public class Processor {
 
       public void describe(PrintWriter pw, int address, int extras) {
         if (SMIL.bitIsSet(extras, 3)) {
-          String special = address <= specials.length ? specials[address] : null;
+          String special = address < specials.length ? specials[address] : null;
           pw.printf("PRINT %s", special != null ? special : "<undef>");
         } else {
           pw.printf("PRINT hex(AR{36..39})");
@@ -492,6 +582,22 @@ public class Processor {
     return SMIL.bitIsSet(extras, 3);
   }
 
+  /**
+   * Returns the bits of the word that a store instruction writes.
+   */
+  public static long storeMask(int extras) {
+    switch (extras >>> 2) {
+      case 1:
+        return 0xfff0000000L;
+      case 2:
+        return 0x00000fff00L;
+      case 3:
+        return 0xfff00fff00L;
+      default:
+        return SMIL.WORD_MASK;
+    }
+  }
+
   public static long negate(long value) {
     return (value ^ SMIL.WORD_MASK) + 1 & SMIL.WORD_MASK;
   }
@@ -664,12 +770,33 @@ public class Processor {
     }
   }
   
-  public Processor(SMIL smil, Clock<Clock.UnitTick> clock) {
+  public Processor(SMIL smil, Clock<Clock.UnitTick> clock, Dispatch dispatch) {
     this.smil = smil;
     this.clock = clock;
+    this.dispatch = dispatch;
   }
-  
+
+  public Processor(SMIL smil, Clock<Clock.UnitTick> clock) {
+    this(smil, clock, Dispatch.OPERATIONS);
+  }
+
+  public Dispatch dispatch() {
+    return dispatch;
+  }
+
+  /**
+   * Executes the instruction at KR, leaving the registers, memory and clock exactly the same
+   * whichever dispatch the processor was made with.
+   */
   public void oneStep() {
+    if (dispatch == Dispatch.SWITCH && !smil.trace()) {
+      switchStep();
+    } else {
+      operationStep();
+    }
+  }
+
+  private void operationStep() {
     jumped = false;
     // check which one of the instructions in ir we need to execute
     boolean right = needToLoadIr = kr.isBitSet(ProgramCounter.RIGHT_BIT);
@@ -680,6 +807,11 @@ public class Processor {
     int address = (int) ((instructionHalfword & 0xfff00L) >>> 8);
     int instructionGroup = (int) ((instructionHalfword & 0xf0L) >>> 4);
     int extras = (int) (instructionHalfword & 0xfL);
+    instructionCounts.lazySet(instructionGroup, instructionCounts.get(instructionGroup) + 1);
+    Fusion f = fusion;
+    if (f != null) {
+      f.executed(instructionAddress, right, ir.bits(), instructionGroup);
+    }
 
     if (shouldClearAr(extras)) {
       ar.clear();
@@ -695,7 +827,13 @@ public class Processor {
         before = op.traceBefore(address, extras);
         after = op.traceAfter(address, extras);
         
-        pw.format("[%03X.%d] %-35s: ", instructionAddress, right ? 1 : 0, op.describe(address, extras));
+        pw.format("[%03X.%d] ", instructionAddress, right ? 1 : 0);
+        String description = disassembler.describeOperation((int) instructionHalfword);
+        pw.append(description);
+        for (int i = description.length(); i < 35; i++) {
+          pw.append(' ');
+        }
+        pw.append(": ");
         
         boolean first = true;
         for (Traceable traceable : before) {
@@ -752,7 +890,436 @@ public class Processor {
     }
   }
 
-  
+  private void switchStep() {
+    jumped = false;
+    boolean right = needToLoadIr = kr.isBitSet(ProgramCounter.RIGHT_BIT);
+    int instructionAddress = (int) kr.value();
+    long irBits = ir.bits();
+    int halfword = (int) (right ? irBits & SMIL.RIGHT_MASK : irBits >>> SMIL.HALFWORD_BITS);
+    int address = halfword >>> 8 & 0xfff;
+    int instructionGroup = halfword >>> 4 & 0xf;
+    int extras = halfword & 0xf;
+    instructionCounts.lazySet(instructionGroup, instructionCounts.get(instructionGroup) + 1);
+    Fusion f = fusion;
+    if (f != null) {
+      f.executed(instructionAddress, right, irBits, instructionGroup);
+    }
+
+    Arithmetic.Registers r = registerBits;
+    r.load(this);
+    registerBitsBefore.set(r);
+    if (shouldClearAr(extras)) {
+      r.ar = 0L;
+    }
+    // ticks not yet slept; they are slept before anything that depends on the clock, such as the
+    // drum or a device
+    int ticks = decodeInstructionClockCycles;
+    boolean jump = false;
+    switch (instructionGroup) {
+      case 0x0:
+        ticks = performOutOfLine(r, ticks, instructionGroup, address, extras);
+        break;
+      case 0x1:
+        clock.sleep(ticks);
+        r.md = smil.memory_read(address);
+        r.ar = Arithmetic.add(r.ar, r.md, shouldNegate(extras), shouldAbsolute(extras));
+        ticks = shortOperationClockCycles + Arithmetic.and(r);
+        break;
+      case 0x2:
+        ticks += SMIL.bitIsSet(extras, 3) ? Arithmetic.reverseMrIntoAr(r) : Arithmetic.copyMrToAr(r);
+        break;
+      case 0x3:
+        clock.sleep(ticks);
+        smil.memory_write(address, Arithmetic.arValue(r.ar), storeMask(extras));
+        ticks = 30; // special case, 30 clock pulses
+        break;
+      case 0x4:
+        clock.sleep(ticks);
+        r.md = smil.memory_read(address);
+        r.ar = Arithmetic.add(r.ar, r.md, shouldNegate(extras), shouldAbsolute(extras));
+        r.mr = Arithmetic.mrFromAr(r.ar);
+        ticks = shortOperationClockCycles;
+        break;
+      case 0x5:
+        clock.sleep(ticks);
+        r.md = smil.memory_read(address);
+        r.ar = Arithmetic.add(r.ar, r.md, shouldNegate(extras), shouldAbsolute(extras));
+        ticks = shortOperationClockCycles;
+        break;
+      case 0x6:
+        clock.sleep(ticks);
+        r.md = smil.memory_read(address);
+        ticks = Arithmetic.multiply(r);
+        break;
+      case 0x7:
+        clock.sleep(ticks);
+        r.md = smil.memory_read(address);
+        ticks = Arithmetic.multiply(r);
+        if ((r.mr & Arithmetic.MR_SIGN >>> 1) != 0L) {
+          r.ar = Arithmetic.increment(r.ar);
+        }
+        r.mr = 0L;
+        break;
+      case 0x8:
+        clock.sleep(ticks);
+        r.md = smil.memory_read(address);
+        ticks = Arithmetic.divide(r);
+        break;
+      case 0x9:
+        ticks += shortOperationClockCycles;
+        jump = !SMIL.bitIsSet(extras, 3) || Arithmetic.overflow(r.ar);
+        break;
+      case 0xa:
+        ticks += shortOperationClockCycles;
+        jump = SMIL.bitIsSet(extras, 3) == Arithmetic.isNegative(r.ar);
+        break;
+      case 0xb:
+        if (SMIL.bitIsSet(extras, 3)) {
+          ticks += shortOperationClockCycles;
+        } else {
+          clock.sleep(ticks);
+          ticks = 0;
+          smil.stop();
+        }
+        break;
+      case 0xc:
+        r.mr = 0L;
+        ticks += shortOperationClockCycles + Arithmetic.normalize(r);
+        break;
+      case 0xd:
+        if (extras >>> 2 != 1 && address > Arithmetic.BR_MASK) {
+          // never finishes, just as with the operation
+          ticks = performOutOfLine(r, ticks, instructionGroup, address, extras);
+          break;
+        }
+        ticks += shortOperationClockCycles;
+        switch (extras >>> 2) {
+          case 0:
+            ticks += Arithmetic.shiftLeft(r, address);
+            break;
+          case 2:
+            ticks += Arithmetic.shiftRight(r, address, true);
+            break;
+          case 3:
+            ticks += Arithmetic.shiftRight(r, address, false);
+            break;
+        }
+        break;
+      case 0xf:
+        clock.sleep(ticks);
+        if (SMIL.bitIsSet(extras, 3)) {
+          smil.typewriter_printSpecial(address & 0xf);
+        } else {
+          smil.typewriter_printHex((int) (Arithmetic.arValue(r.ar) & 0xf));
+        }
+        ticks = shortOperationClockCycles;
+        break;
+      default:
+        ticks += shortOperationClockCycles;
+        break;
+    }
+    storeChanged(r, registerBitsBefore);
+    clock.sleep(ticks);
+
+    if (jump) {
+      jump(address, SMIL.bitIsSet(extras, 2));
+    } else {
+      kr.setBits(kr.bits() + 1);
+    }
+    loadIrIfNecessary();
+
+    if (shouldStopConditionally(extras) && smil.stopConditionally()) {
+      smil.stop();
+    }
+  }
+
+  // executes an instruction with its Operation, from the middle of switchStep(), and returns the
+  // ticks left to sleep
+  private int performOutOfLine(Arithmetic.Registers r, int ticks, int group, int address, int extras) {
+    storeChanged(r, registerBitsBefore);
+    clock.sleep(ticks);
+    operations[group].perform(address, extras);
+    r.load(this);
+    registerBitsBefore.set(r);
+    return 0;
+  }
+
+  private void storeChanged(Arithmetic.Registers r, Arithmetic.Registers before) {
+    if (r.ar != before.ar) {
+      ar.setBits(r.ar);
+    }
+    if (r.mr != before.mr) {
+      mr.setBits(r.mr);
+    }
+    if (r.md != before.md) {
+      md.setBits(r.md);
+    }
+    if (r.br != before.br) {
+      br.setBits(r.br);
+    }
+  }
+
+  /**
+   * Executes the next instruction as oneStep() does; or, if the processor is at the left-hand
+   * halfword of a word that the fusion has fused, both halfwords of it with the idiom's handler,
+   * which leaves the machine exactly as two calls to oneStep() would. The handler stops after the
+   * left-hand halfword if that reaches 'tickLimit', and only runs at all if 'maxSteps' is at least
+   * two and the machine is neither tracing nor set to stop conditionally. Returns the number of
+   * instructions executed.
+   */
+  public int fusedStep(long tickLimit, long maxSteps) {
+    Fusion f = fusion;
+    if (f == null || maxSteps < 2 || kr.isBitSet(ProgramCounter.RIGHT_BIT) || smil.trace()
+        || smil.stopConditionally()) {
+      oneStep();
+      return 1;
+    }
+    long word = ir.bits();
+    Fusion.Idiom idiom = f.idiom((int) kr.value(), word);
+    if (idiom == null) {
+      oneStep();
+      return 1;
+    }
+    int left = (int) (word >>> SMIL.HALFWORD_BITS & SMIL.RIGHT_MASK);
+    int right = (int) (word & SMIL.RIGHT_MASK);
+    int steps;
+    switch (idiom) {
+      case ADD_STORE:
+        steps = fuseAddStore(left, right, tickLimit);
+        break;
+      case ADD_ADD:
+        steps = fuseAddAdd(left, right, tickLimit);
+        break;
+      case ADD_JUMP:
+        steps = fuseAddJump(left, right, tickLimit);
+        break;
+      case STORE_ADD:
+        steps = fuseStoreAdd(left, right, tickLimit);
+        break;
+      case SHIFT_PRINT:
+        steps = fuseShiftPrint(left, right, tickLimit);
+        break;
+      case JUMP_PAIR:
+        steps = fuseJumpPair(left, right, tickLimit);
+        break;
+      default:
+        throw new IllegalStateException("No handler for " + idiom);
+    }
+    f.fused(idiom, word, steps);
+    return steps;
+  }
+
+  // the fused handlers keep AR in a local, and only write registers once; they sleep in as few
+  // calls as they can, but always before touching the drum or a device, so those see the same
+  // clock as they would if each halfword were executed on its own
+
+  private void count(int halfword) {
+    int group = Fusion.group(halfword);
+    instructionCounts.lazySet(group, instructionCounts.get(group) + 1);
+  }
+
+  private long add(long arBits, int halfword) {
+    long word = smil.memory_read(Fusion.address(halfword));
+    md.setValue(word);
+    int extras = halfword & 0xf;
+    arBits = Arithmetic.add(arBits, word, shouldNegate(extras), shouldAbsolute(extras));
+    if (Fusion.group(halfword) == 0x4) {
+      mr.setBits(Arithmetic.mrFromAr(arBits));
+    }
+    return arBits;
+  }
+
+  private boolean jumps(long arBits, int halfword) {
+    boolean bit3 = SMIL.bitIsSet(halfword & 0xf, 3);
+    if (Fusion.group(halfword) == 0x9) {
+      return !bit3 || Arithmetic.overflow(arBits);
+    } else {
+      return bit3 == Arithmetic.isNegative(arBits);
+    }
+  }
+
+  // stops a fused word after its left-hand halfword, taking 'ticks' to finish it, if that reaches
+  // the tick limit
+  private boolean stopsAfterLeft(int ticks, long tickLimit) {
+    if (clock.now() + ticks < tickLimit) {
+      return false;
+    }
+    clock.sleep(ticks);
+    kr.setBits(kr.bits() + 1);
+    return true;
+  }
+
+  private int finishWord() {
+    kr.setBits(kr.bits() + 2);
+    needToLoadIr = true;
+    loadIrIfNecessary();
+    return 2;
+  }
+
+  private int fuseAddStore(int left, int right, long tickLimit) {
+    long arBits = ar.bits();
+    count(left);
+    if (shouldClearAr(left & 0xf)) {
+      arBits = 0L;
+    }
+    clock.sleep(decodeInstructionClockCycles);
+    arBits = add(arBits, left);
+    if (stopsAfterLeft(shortOperationClockCycles, tickLimit)) {
+      ar.setBits(arBits);
+      return 1;
+    }
+    count(right);
+    if (shouldClearAr(right & 0xf)) {
+      arBits = 0L;
+    }
+    ar.setBits(arBits);
+    clock.sleep(shortOperationClockCycles + decodeInstructionClockCycles);
+    smil.memory_write(Fusion.address(right), Arithmetic.arValue(arBits), storeMask(right & 0xf));
+    clock.sleep(30);
+    return finishWord();
+  }
+
+  private int fuseAddAdd(int left, int right, long tickLimit) {
+    long arBits = ar.bits();
+    count(left);
+    if (shouldClearAr(left & 0xf)) {
+      arBits = 0L;
+    }
+    clock.sleep(decodeInstructionClockCycles);
+    arBits = add(arBits, left);
+    if (stopsAfterLeft(shortOperationClockCycles, tickLimit)) {
+      ar.setBits(arBits);
+      return 1;
+    }
+    count(right);
+    if (shouldClearAr(right & 0xf)) {
+      arBits = 0L;
+    }
+    clock.sleep(shortOperationClockCycles + decodeInstructionClockCycles);
+    ar.setBits(add(arBits, right));
+    clock.sleep(shortOperationClockCycles);
+    return finishWord();
+  }
+
+  private int fuseAddJump(int left, int right, long tickLimit) {
+    long arBits = ar.bits();
+    count(left);
+    if (shouldClearAr(left & 0xf)) {
+      arBits = 0L;
+    }
+    clock.sleep(decodeInstructionClockCycles);
+    arBits = add(arBits, left);
+    if (stopsAfterLeft(shortOperationClockCycles, tickLimit)) {
+      ar.setBits(arBits);
+      return 1;
+    }
+    count(right);
+    if (shouldClearAr(right & 0xf)) {
+      arBits = 0L;
+    }
+    ar.setBits(arBits);
+    clock.sleep(shortOperationClockCycles + decodeInstructionClockCycles + shortOperationClockCycles);
+    if (jumps(arBits, right)) {
+      jump(Fusion.address(right), SMIL.bitIsSet(right & 0xf, 2));
+      loadIrIfNecessary();
+      return 2;
+    }
+    return finishWord();
+  }
+
+  private int fuseStoreAdd(int left, int right, long tickLimit) {
+    long arBits = ar.bits();
+    count(left);
+    if (shouldClearAr(left & 0xf)) {
+      arBits = 0L;
+    }
+    clock.sleep(decodeInstructionClockCycles);
+    smil.memory_write(Fusion.address(left), Arithmetic.arValue(arBits), storeMask(left & 0xf));
+    if (stopsAfterLeft(30, tickLimit)) {
+      ar.setBits(arBits);
+      return 1;
+    }
+    count(right);
+    if (shouldClearAr(right & 0xf)) {
+      arBits = 0L;
+    }
+    clock.sleep(30 + decodeInstructionClockCycles);
+    ar.setBits(add(arBits, right));
+    clock.sleep(shortOperationClockCycles);
+    return finishWord();
+  }
+
+  private int fuseShiftPrint(int left, int right, long tickLimit) {
+    long arBits = ar.bits();
+    count(left);
+    int extras = left & 0xf;
+    if (shouldClearAr(extras)) {
+      arBits = 0L;
+    }
+    int n = Fusion.address(left);
+    int ticks = decodeInstructionClockCycles + shortOperationClockCycles;
+    if (extras >>> 2 != 1) {
+      if (extras >>> 2 == 0) {
+        arBits = arBits << n & Arithmetic.AR_MASK;
+      } else {
+        for (int i = 0; i < n; i++) {
+          arBits = Arithmetic.shiftRight(arBits, extras >>> 2 == 2);
+        }
+      }
+      br.setValue(n);
+      ticks += 2 + n + 2;
+    }
+    if (stopsAfterLeft(ticks, tickLimit)) {
+      ar.setBits(arBits);
+      return 1;
+    }
+    count(right);
+    extras = right & 0xf;
+    if (shouldClearAr(extras)) {
+      arBits = 0L;
+    }
+    ar.setBits(arBits);
+    clock.sleep(ticks + decodeInstructionClockCycles);
+    if (SMIL.bitIsSet(extras, 3)) {
+      smil.typewriter_printSpecial(Fusion.address(right) & 0xf);
+    } else {
+      smil.typewriter_printHex((int) (Arithmetic.arValue(arBits) & 0xf));
+    }
+    clock.sleep(shortOperationClockCycles);
+    return finishWord();
+  }
+
+  private int fuseJumpPair(int left, int right, long tickLimit) {
+    long arBits = ar.bits();
+    count(left);
+    if (shouldClearAr(left & 0xf)) {
+      arBits = 0L;
+      ar.setBits(arBits);
+    }
+    int ticks = decodeInstructionClockCycles + shortOperationClockCycles;
+    if (jumps(arBits, left)) {
+      clock.sleep(ticks);
+      jump(Fusion.address(left), SMIL.bitIsSet(left & 0xf, 2));
+      loadIrIfNecessary();
+      return 1;
+    }
+    if (stopsAfterLeft(ticks, tickLimit)) {
+      return 1;
+    }
+    count(right);
+    if (shouldClearAr(right & 0xf)) {
+      arBits = 0L;
+      ar.setBits(arBits);
+    }
+    clock.sleep(ticks + decodeInstructionClockCycles + shortOperationClockCycles);
+    if (jumps(arBits, right)) {
+      jump(Fusion.address(right), SMIL.bitIsSet(right & 0xf, 2));
+      loadIrIfNecessary();
+      return 2;
+    }
+    return finishWord();
+  }
+
   // shorthand 'macro' calls to generate traceables for different things
   private Traceable T(Register r, boolean asDouble) {
     return smil.traceRegister(r, asDouble);
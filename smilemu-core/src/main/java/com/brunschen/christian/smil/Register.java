@@ -21,8 +21,6 @@
 
 package com.brunschen.christian.smil;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,10 +30,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.brunschen.christian.graphic.ValueUpdatedListener;
-
 public class Register {
 
+  /**
+   * Listens for any change to a register's bits.
+   */
+  public interface Listener {
+    void registerChanged(Register register);
+  }
+
   protected long bits;
   protected int nLowBits, nValueBits, nHighBits;
 
@@ -51,9 +54,11 @@ public class Register {
 
   protected String name;
   protected boolean notifyListeners = true;
-  protected Map<Integer, List<ValueUpdatedListener<Integer>>> listenersByBit = new HashMap<Integer, List<ValueUpdatedListener<Integer>>>(
+  protected Map<Integer, List<ValueChangeListener<Integer>>> listenersByBit = new HashMap<Integer, List<ValueChangeListener<Integer>>>(
       100);
-  protected List<ActionListener> listeners = new ArrayList<ActionListener>(10);
+  protected List<Listener> listeners = new ArrayList<Listener>(10);
+  // the bits that have at least one listener
+  protected long listenedBits = 0L;
   protected Map<String, Integer> bitsByName = new HashMap<String, Integer>();
   protected List<String> bitNames = null;
   protected Map<Integer, String> namesByBit = null;
@@ -295,10 +300,13 @@ public class Register {
     if (!notifyListeners || bits == oldBits) {
       return;
     }
-    for (ActionListener al : listeners) {
-      al.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "changed"));
+    for (Listener listener : listeners) {
+      listener.registerChanged(this);
+    }
+    long changed = (newBits ^ oldBits) & listenedBits;
+    if (changed == 0L) {
+      return;
     }
-    long changed = newBits ^ oldBits;
     for (int i = startBit(); i < endBit(); i++) {
       int shift = shiftForBit(i);
       long mask = maskForBit(i);
@@ -306,10 +314,10 @@ public class Register {
         // System.err.format("%s: bit %d changed, ", name(), i);
         int oldValue = (int) ((oldBits & mask) >>> shift);
         int newValue = (int) ((newBits & mask) >>> shift);
-        List<ValueUpdatedListener<Integer>> listeners = listenersByBit.get(i);
+        List<ValueChangeListener<Integer>> listeners = listenersByBit.get(i);
         if (listeners != null) {
-          for (ValueUpdatedListener<Integer> listener : listeners) {
-            listener.valueUpdated(oldValue, newValue);
+          for (ValueChangeListener<Integer> listener : listeners) {
+            listener.valueChanged(oldValue, newValue);
           }
         }
       }
@@ -373,27 +381,31 @@ public class Register {
     return namesByBit().get(i);
   }
 
-  public synchronized void addValueUpdatedListenerForBit(ValueUpdatedListener<Integer> listener, int bit) {
-    List<ValueUpdatedListener<Integer>> list = listenersByBit.get(bit);
+  public synchronized void addValueUpdatedListenerForBit(ValueChangeListener<Integer> listener, int bit) {
+    List<ValueChangeListener<Integer>> list = listenersByBit.get(bit);
     if (list == null) {
-      list = new LinkedList<ValueUpdatedListener<Integer>>();
+      list = new LinkedList<ValueChangeListener<Integer>>();
       listenersByBit.put(bit, list);
     }
     list.add(listener);
+    listenedBits |= maskForBit(bit);
   }
 
-  public synchronized void removeValueUpdatedListenerForBit(ValueUpdatedListener<Integer> listener, int bit) {
-    List<ValueUpdatedListener<Integer>> list = listenersByBit.get(bit);
+  public synchronized void removeValueUpdatedListenerForBit(ValueChangeListener<Integer> listener, int bit) {
+    List<ValueChangeListener<Integer>> list = listenersByBit.get(bit);
     if (list != null) {
       list.remove(listener);
+      if (list.isEmpty()) {
+        listenedBits &= ~maskForBit(bit);
+      }
     }
   }
 
-  public synchronized void addListener(ActionListener listener) {
+  public synchronized void addListener(Listener listener) {
     listeners.add(listener);
   }
 
-  public synchronized void removeListener(ActionListener listener) {
+  public synchronized void removeListener(Listener listener) {
     listeners.remove(listener);
   }
 
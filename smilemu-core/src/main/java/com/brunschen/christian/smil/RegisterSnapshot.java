@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * An immutable copy of the processor's registers, taken between two instructions, together with
+ * the tick count and whether the machine was running at the time.
+ */
+public class RegisterSnapshot {
+  private final long sequence;
+  private final long ar, mr, md, ir, kr, br;
+  private final long tick;
+  private final boolean running;
+
+  public RegisterSnapshot(long sequence, long ar, long mr, long md, long ir, long kr, long br, long tick,
+      boolean running) {
+    this.sequence = sequence;
+    this.ar = ar;
+    this.mr = mr;
+    this.md = md;
+    this.ir = ir;
+    this.kr = kr;
+    this.br = br;
+    this.tick = tick;
+    this.running = running;
+  }
+
+  /**
+   * Returns the number of snapshots that had been published when this one was; two snapshots with
+   * the same sequence number are identical.
+   */
+  public long sequence() {
+    return sequence;
+  }
+
+  public long ar() {
+    return ar;
+  }
+
+  public long mr() {
+    return mr;
+  }
+
+  public long md() {
+    return md;
+  }
+
+  public long ir() {
+    return ir;
+  }
+
+  public long kr() {
+    return kr;
+  }
+
+  public long br() {
+    return br;
+  }
+
+  public long tick() {
+    return tick;
+  }
+
+  public boolean running() {
+    return running;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("AR=%011X MR=%011X MD=%011X IR=%010X KR=%04X BR=%02X tick=%d %s", ar, mr, md, ir, kr,
+        br, tick, running ? "running" : "stopped");
+  }
+}
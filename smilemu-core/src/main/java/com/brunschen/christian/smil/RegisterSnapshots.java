@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes copies of the processor's registers to other threads without any locking, using a
+ * sequence lock: the single writer (the thread running the processor) makes the sequence number
+ * odd, writes the words, and makes it even again; a reader copies the words and retries if the
+ * sequence number was odd or changed while it was copying. Readers never block the writer, and
+ * the writer never waits for readers.
+ *
+ * All stores are ordered stores, which are cheap for the writer: each word's store makes the
+ * preceding odd sequence number visible to any reader that sees the word, so a reader that sees a
+ * partially written set of words always sees the sequence number change as well.
+ */
+public class RegisterSnapshots {
+  private static final int SEQUENCE = 0;
+  private static final int AR = 1;
+  private static final int MR = 2;
+  private static final int MD = 3;
+  private static final int IR = 4;
+  private static final int KR = 5;
+  private static final int BR = 6;
+  private static final int TICK = 7;
+  private static final int RUNNING = 8;
+  private static final int SIZE = 9;
+
+  private final AtomicLongArray words = new AtomicLongArray(SIZE);
+  private long sequence = 0L; // only touched by the writer
+
+  /**
+   * Publishes the processor's current registers. Must only be called from one thread at a time,
+   * between instructions.
+   */
+  public void publish(Processor processor, long tick, boolean running) {
+    words.lazySet(SEQUENCE, ++sequence);
+    words.lazySet(AR, processor.ar.bits());
+    words.lazySet(MR, processor.mr.bits());
+    words.lazySet(MD, processor.md.bits());
+    words.lazySet(IR, processor.ir.bits());
+    words.lazySet(KR, processor.kr.bits());
+    words.lazySet(BR, processor.br.bits());
+    words.lazySet(TICK, tick);
+    words.lazySet(RUNNING, running ? 1L : 0L);
+    words.lazySet(SEQUENCE, ++sequence);
+  }
+
+  /**
+   * Copies the latest published words into 'into', which must have room for at least
+   * {@link #size()} words, in the order sequence, AR, MR, MD, IR, KR, BR, tick, running. This does
+   * not allocate.
+   */
+  public void read(long[] into) {
+    int spins = 0;
+    while (true) {
+      long before = words.get(SEQUENCE);
+      if ((before & 1L) == 0L) {
+        for (int i = 1; i < SIZE; i++) {
+          into[i] = words.get(i);
+        }
+        if (words.get(SEQUENCE) == before) {
+          into[SEQUENCE] = before >>> 1;
+          return;
+        }
+      }
+      if (++spins > 100) {
+        Thread.yield();
+      }
+    }
+  }
+
+  public static int size() {
+    return SIZE;
+  }
+
+  /**
+   * Returns a consistent copy of the latest published registers.
+   */
+  public RegisterSnapshot snapshot() {
+    long[] w = new long[SIZE];
+    read(w);
+    return new RegisterSnapshot(w[SEQUENCE], w[AR], w[MR], w[MD], w[IR], w[KR], w[BR], w[TICK], w[RUNNING] != 0L);
+  }
+}
@@ -22,19 +22,25 @@
 package com.brunschen.christian.smil;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.net.URL;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.WritableByteChannel;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-import com.brunschen.christian.graphic.ValueUpdatedListener;
 import com.brunschen.christian.smil.Clock.UnitTick;
+import com.brunschen.christian.smil.jfr.QuantumRecorder;
+import com.brunschen.christian.smil.jfr.RunEvent;
+import com.brunschen.christian.smil.jfr.TypewriterOutputEvent;
 import com.brunschen.christian.smil.sound.SoundGenerator;
 
 public class SMIL implements Runnable {
@@ -62,6 +68,7 @@ public class SMIL implements Runnable {
   public static final long maxNanosAhead = 5000000L; // allow the simulator to get max 5 ms ahead
   // of its intended time
   public static final long ticksPerSecond = 100000L; // frequency of ticks from the rotating drum
+  public static final long ticksPerTypewriterCharacter = ticksPerSecond / 12; // 12 characters per second
 
   public static final int wordsPerDrumRow = 2;
   public static final int drumRows = 0x400;
@@ -72,7 +79,18 @@ public class SMIL implements Runnable {
   private SlaveClock<Clock.UnitTick> tickClock = new SlaveClock<Clock.UnitTick>(drumMemoryTickClock);
   private SlaveClock<Clock.UnitTick> memoryClock = new SlaveClock<Clock.UnitTick>(tickClock);
   private SlaveClock<Clock.UnitTick> asyncIoClock = new SlaveClock<Clock.UnitTick>(tickClock);
-  private Processor processor = new Processor(this, tickClock);
+  private final Processor processor;
+  private RegisterSnapshots registerSnapshots = new RegisterSnapshots();
+  // written only on the processor's thread; resetCounters() moves the baseline instead of zeroing it
+  private AtomicLong typewriterCharacters = new AtomicLong();
+  private AtomicLong typewriterCharactersBaseline = new AtomicLong();
+  private RunEvent runEvent = null;
+  private long runStartInstructions;
+  private long runStartTick;
+  private ObjectName metricsName = null;
+
+  private static AtomicInteger machineCount = new AtomicInteger();
+  private final int id = machineCount.incrementAndGet();
 
   private boolean runContinuously = true;
   private boolean stopConditionally = false;
@@ -83,18 +101,19 @@ public class SMIL implements Runnable {
 
   private Thread thread = null;
   private boolean trace = false;
-  private DebugDestination debugDestination = null;
+  private volatile DebugDestination debugDestination = null;
 
   // externally connected units, some with their own graphics for display
-  private ControlPanel controlPanel;
   private TapeReader tapeReader;
+  private TapePunch tapePunch;
+  private boolean punchTypewriterOutput = false;
   private Typewriter typewriter;
   private SoundGenerator soundGenerator;
 
   private boolean soundEnabled = true;
-  private Register soundSourceRegister = processor.ar;
+  private Register soundSourceRegister;
   private int soundSourceBit = Integer.MIN_VALUE;
-  private ValueUpdatedListener<Integer> soundSourceValueUpdatedListener = null;
+  private ValueChangeListener<Integer> soundSourceValueUpdatedListener = null;
 
   public static String[] tapes = new String[] { "A1", "B2", "B3", "Decimal Output", "Primes", "Print Integer", "Sine Wave",
       "Square Roots Main Program", "Square Root Subroutine", };
@@ -114,6 +133,13 @@ public class SMIL implements Runnable {
     return sb.toString();
   }
 
+  /**
+   * Returns whether there is a bundled tape with this name.
+   */
+  public static boolean hasTape(String name) {
+    return SMIL.class.getResource("Tapes/" + stripSpaces(name)) != null;
+  }
+
   public static Tape tape(String name) {
     return new Tape(new InputStreamReader(SMIL.class.getResourceAsStream("Tapes/" + stripSpaces(name))));
   }
@@ -144,24 +170,19 @@ public class SMIL implements Runnable {
     }
   }
   
-  public SMIL() {
+  /**
+   * Creates a machine whose processor dispatches instructions as given.
+   */
+  public SMIL(Processor.Dispatch dispatch) {
+    processor = new Processor(this, tickClock, dispatch);
+    soundSourceRegister = processor.ar;
     memory.setClock(memoryClock);
   }
-  
-  public ControlPanel controlPanel() {
-    return controlPanel;
-  }
 
-  public void setControlPanel(ControlPanel controlPanel) {
-    if (this.controlPanel != null) {
-      this.controlPanel.setSmil(null);
-    }
-    this.controlPanel = controlPanel;
-    if (this.controlPanel != null) {
-      this.controlPanel.setSmil(this);
-    }
+  public SMIL() {
+    this(Processor.Dispatch.OPERATIONS);
   }
-
+  
   public TapeReader tapeReader() {
     return tapeReader;
   }
@@ -170,6 +191,26 @@ public class SMIL implements Runnable {
     this.tapeReader = tapeReader;
   }
 
+  public TapePunch tapePunch() {
+    return tapePunch;
+  }
+
+  public void setTapePunch(TapePunch tapePunch) {
+    this.tapePunch = tapePunch;
+  }
+
+  public boolean punchTypewriterOutput() {
+    return punchTypewriterOutput;
+  }
+
+  /**
+   * When set, every hex digit printed on the typewriter is also punched onto the tape in the punch,
+   * as with a typewriter that has a tape punch attached.
+   */
+  public void setPunchTypewriterOutput(boolean punchTypewriterOutput) {
+    this.punchTypewriterOutput = punchTypewriterOutput;
+  }
+
   public Typewriter typewriter() {
     return typewriter;
   }
@@ -182,7 +223,14 @@ public class SMIL implements Runnable {
     return soundGenerator;
   }
 
+  /**
+   * Sets the generator that sound is rendered with; it is told the rate of the ticks that the
+   * machine's sound edges are timed in.
+   */
   public void setSoundGenerator(SoundGenerator soundGenerator) {
+    if (soundGenerator != null) {
+      soundGenerator.setTicksPerSecond(ticksPerSecond);
+    }
     this.soundGenerator = soundGenerator;
   }
   
@@ -206,6 +254,93 @@ public class SMIL implements Runnable {
     return memory;
   }
 
+  public SystemClock systemClock() {
+    return nanosClock;
+  }
+
+  public DrumMemory drumMemory() {
+    return memory;
+  }
+
+  /**
+   * Returns a number that identifies this machine among all those created in this JVM.
+   */
+  public int id() {
+    return id;
+  }
+
+  /**
+   * Returns the number of characters printed on the typewriter since the counters were last reset.
+   */
+  public long typewriterCharacters() {
+    long baseline = typewriterCharactersBaseline.get();
+    return typewriterCharacters.get() - baseline;
+  }
+
+  /**
+   * Returns the number of characters printed on the typewriter since this machine was created.
+   */
+  public long totalTypewriterCharacters() {
+    return typewriterCharacters.get();
+  }
+
+  /**
+   * Resets all the machine's counters: instructions executed, drum waits, tape rows read,
+   * typewriter characters and the clock's sleep statistics. This is safe to call from any thread,
+   * also while the machine is running: the counters themselves keep counting, and only the
+   * baselines that they are reported relative to move.
+   */
+  public void resetCounters() {
+    processor.resetCounters();
+    memory.resetCounters();
+    nanosClock.resetCounters();
+    typewriterCharactersBaseline.set(typewriterCharacters.get());
+    if (tapeReader != null) {
+      tapeReader.resetCounters();
+    }
+  }
+
+  /**
+   * Registers an MBean exposing this machine's counters with the platform MBean server, under the
+   * name com.brunschen.christian.smil:type=SMIL,id=[id], and returns that name.
+   */
+  public synchronized ObjectName registerMetrics() throws JMException {
+    if (metricsName == null) {
+      ObjectName name = new ObjectName(SMILMetrics.DOMAIN + ":type=SMIL,id=" + id);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new SMILMetrics(this), name);
+      metricsName = name;
+    }
+    return metricsName;
+  }
+
+  public synchronized void unregisterMetrics() throws JMException {
+    if (metricsName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      metricsName = null;
+    }
+  }
+
+  public RegisterSnapshots registerSnapshots() {
+    return registerSnapshots;
+  }
+
+  /**
+   * Returns a consistent copy of the registers as they were after the latest instruction, without
+   * waiting for the processor.
+   */
+  public RegisterSnapshot registerSnapshot() {
+    return registerSnapshots.snapshot();
+  }
+
+  /**
+   * Publishes the current registers to snapshot readers. The processor does this after every
+   * instruction; anything else that changes registers while the machine is stopped should call
+   * this afterwards.
+   */
+  public synchronized void publishRegisters() {
+    registerSnapshots.publish(processor, tickClock.now(), thread != null);
+  }
+
   public void init() {
     memory.setClock(memoryClock);
 
@@ -238,9 +373,9 @@ public class SMIL implements Runnable {
 
   private synchronized void connectSound() {
     soundSourceRegister.addValueUpdatedListenerForBit(
-        soundSourceValueUpdatedListener = new ValueUpdatedListener<Integer>() {
-          public void valueUpdated(Integer oldValue, Integer newValue) {
-            soundGenerator.setValue(newValue == 1 ? 1.0 : -1.0);
+        soundSourceValueUpdatedListener = new ValueChangeListener<Integer>() {
+          public void valueChanged(Integer oldValue, Integer newValue) {
+            soundGenerator.edge(tickClock.now(), newValue == 1 ? 1.0 : -1.0);
           }
         }, soundSourceBit);
   }
@@ -304,18 +439,64 @@ public class SMIL implements Runnable {
     }
   }
 
+  public void tapePunch_punch(int row) throws IOException {
+    try {
+      tapePunch().punch(row);
+    } catch (IOException e) {
+      stopWithError(e);
+      throw e;
+    }
+  }
+
   public void stopWithError(Exception e) {
     stop();
   }
 
   public void typewriter_printSpecial(int c) {
-    asyncIoClock.sleep(ticksPerSecond / 12);
+    asyncIoClock.sleep(ticksPerTypewriterCharacter);
     typewriter().printSpecial(c);
+    typewriterCharacters.lazySet(typewriterCharacters.get() + 1);
+    typewriterOutput(c, true);
   }
 
   public void typewriter_printHex(int c) {
-    asyncIoClock.sleep(ticksPerSecond / 12);
+    asyncIoClock.sleep(ticksPerTypewriterCharacter);
     typewriter().printHex(c);
+    typewriterCharacters.lazySet(typewriterCharacters.get() + 1);
+    typewriterOutput(c, false);
+    if (punchTypewriterOutput && tapePunch != null) {
+      try {
+        tapePunch_punch(c);
+      } catch (IOException e) {
+        // already stopped
+      }
+    }
+  }
+
+  private void typewriterOutput(int c, boolean special) {
+    TypewriterOutputEvent event = new TypewriterOutputEvent();
+    if (event.shouldCommit()) {
+      event.machine = id;
+      event.character = c;
+      event.special = special;
+      event.commit();
+    }
+  }
+
+  /**
+   * Saves the contents of memory from address 'from' to address 'to', both inclusive, to a tape
+   * file. The words are punched at host speed and written out on the punch's own thread, so this
+   * can be called while the machine is running.
+   */
+  public void saveMemoryToTape(File f, TapePunch.Format format, int from, int to) throws IOException {
+    TapePunch punch = new TapePunch();
+    punch.open(f, format);
+    try {
+      punch.punchComment(String.format("Memory %03X-%03X", from, to));
+      punch.punchMemory(memory, from, to);
+    } finally {
+      punch.close();
+    }
   }
 
   public synchronized void start() {
@@ -328,6 +509,11 @@ public class SMIL implements Runnable {
 
   public synchronized void started() {
     processor.rr.setValue(1L);
+    registerSnapshots.publish(processor, tickClock.now(), true);
+    runEvent = new RunEvent();
+    runEvent.begin();
+    runStartInstructions = processor.instructionCount();
+    runStartTick = tickClock.now();
     for (Listener listener : listeners) {
       listener.onStart(this);
     }
@@ -340,12 +526,19 @@ public class SMIL implements Runnable {
     started();
     // and let other threads run a bit (sound, in particular)
     Thread.yield();
+    QuantumRecorder quantum = new QuantumRecorder(id);
+    quantum.start(tickClock.now());
     do {
+      int steps;
       synchronized (this) {
-        processor.oneStep();
+        // single-stepping executes one halfword at a time, even of a fused word
+        steps = processor.fusedStep(Long.MAX_VALUE, runContinuously() ? Long.MAX_VALUE : 1L);
+        registerSnapshots.publish(processor, tickClock.now(), true);
       }
+      quantum.step(tickClock.now(), steps);
       Thread.yield();
     } while (runContinuously() && !shouldStop());
+    quantum.finish(tickClock.now());
     stopped();
     if (trace) {
       trace("Elapsed time: %d clock pulses.\n", tickClock.now());
@@ -370,10 +563,21 @@ public class SMIL implements Runnable {
 
   public synchronized void stopped() {
     processor.rr.setValue(0L);
+    if (runEvent != null) {
+      runEvent.end();
+      if (runEvent.shouldCommit()) {
+        runEvent.machine = id;
+        runEvent.instructions = processor.instructionCount() - runStartInstructions;
+        runEvent.ticks = tickClock.now() - runStartTick;
+        runEvent.commit();
+      }
+      runEvent = null;
+    }
     for (Listener listener : listeners) {
       listener.onStop(this);
     }
     thread = null;
+    registerSnapshots.publish(processor, tickClock.now(), false);
     dontStop();
   }
 
@@ -399,6 +603,7 @@ public class SMIL implements Runnable {
   public void tapeStart() {
     processor.ir.setValue(0L);
     processor.kr.setBits(ProgramCounter.RIGHT_BIT, 13, 0x1fff);
+    publishRegisters();
   }
 
   public void addListeners(Listener... listenersToAdd) {
@@ -421,6 +626,14 @@ public class SMIL implements Runnable {
     removeListeners(listener);
   }
 
+  public void clearListeners() {
+    listeners.clear();
+  }
+
+  public boolean hasListeners() {
+    return !listeners.isEmpty();
+  }
+
   public void addSpareTimeListeners(SystemClock.Listener... listenersToAdd) {
     nanosClock.addListeners(listenersToAdd);
   }
@@ -438,10 +651,9 @@ public class SMIL implements Runnable {
   }
 
   public void debug(String s) {
-    try {
-      debugDestination.debug(s);
-    } catch (NullPointerException e) {
-      e.printStackTrace();
+    DebugDestination destination = debugDestination;
+    if (destination != null) {
+      destination.debug(s);
     }
   }
 
@@ -475,57 +687,78 @@ public class SMIL implements Runnable {
       w.printf("%03X    ", end);
     }
     w.printf(":  %05X %05X       ", (word & 0xfffff00000L) >>> 20, word & 0xfffffL);
-    printHalfword(w, processor.operations, word, false);
+    w.write(processor.disassembler().describeHalfword(word, false));
     w.write("\n         ");
     w.printf("% 16.13f   ", SMIL.doubleValue(word));
-    printHalfword(w, processor.operations, word, true);
+    w.write(processor.disassembler().describeHalfword(word, true));
     w.write('\n');
   }
 
   public void dumpMemory() {
     StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter(sw);
-    int start = 0;
-    long previous = memory.get(0);
-    for (int i = 1; i < memory.length(); i++) {
-      long m = memory.get(i);
-      if (m != previous) {
-        printWord(pw, start, i - 1, previous);
-        pw.print("\n");
-        start = i;
-        previous = m;
-      }
+    try {
+      dumpMemory(sw, 0, memory.length() - 1);
+    } catch (IOException e) {
+      // cannot happen with a StringWriter
     }
-    printWord(pw, start, memory.length() - 1, previous);
-    pw.print("\n");
-    pw.close();
     debug(sw.toString());
   }
 
+  /**
+   * Streams a dump of memory from address 'from' to address 'to', both inclusive, to a writer.
+   */
+  public void dumpMemory(Writer w, int from, int to) throws IOException {
+    MemoryDumper dumper = new MemoryDumper(processor, w);
+    dumper.dump(memory, from, to);
+    dumper.flush();
+  }
+
+  /**
+   * Streams a dump of memory from address 'from' to address 'to', both inclusive, to a channel.
+   */
+  public void dumpMemory(WritableByteChannel channel, int from, int to) throws IOException {
+    MemoryDumper dumper = new MemoryDumper(processor, channel);
+    dumper.dump(memory, from, to);
+    dumper.flush();
+  }
+
   public void dumpTape() {
     Tape tape = tapeReader().tape();
     if (tape != null) {
       StringWriter sw = new StringWriter();
-      PrintWriter pw = new PrintWriter(sw);
-      List<Long> words = tape.words();
-      int start = 0;
-      long previous = words.get(0);
-      for (int i = 1; i < words.size(); i++) {
-        long m = words.get(i);
-        if (m != previous) {
-          printWord(pw, start, i - 1, previous);
-          pw.print('\n');
-          start = i;
-          previous = m;
-        }
+      try {
+        dumpTape(sw);
+      } catch (IOException e) {
+        // cannot happen with a StringWriter
       }
-      printWord(pw, start, words.size() - 1, previous);
-      pw.print('\n');
-      pw.close();
       debug(sw.toString());
     }
   }
 
+  /**
+   * Streams a dump of the words on the tape in the tape reader to a writer.
+   */
+  public void dumpTape(Writer w) throws IOException {
+    Tape tape = tapeReader().tape();
+    if (tape != null) {
+      MemoryDumper dumper = new MemoryDumper(processor, w);
+      dumper.dump(tape.words());
+      dumper.flush();
+    }
+  }
+
+  /**
+   * Streams a dump of the words on the tape in the tape reader to a channel.
+   */
+  public void dumpTape(WritableByteChannel channel) throws IOException {
+    Tape tape = tapeReader().tape();
+    if (tape != null) {
+      MemoryDumper dumper = new MemoryDumper(processor, channel);
+      dumper.dump(tape.words());
+      dumper.flush();
+    }
+  }
+
   public static long value(String s) {
     try {
       return Long.parseLong(s.substring(0, 5), 16) << 20 | Long.parseLong(s.substring(6), 16);
@@ -535,71 +768,6 @@ public class SMIL implements Runnable {
     }
   }
 
-  static URL[] extractDocUrls = new URL[] { 
-    SMIL.class.getResource("Documentation/QuickStart.html"),
-    SMIL.class.getResource("Documentation/Manual.html"),
-    SMIL.class.getResource("Documentation/style.css"),
-  };
-  static URL[] extractImageUrls = new URL[] {
-    SMIL.class.getResource("Documentation/images/ControlPanel.png"),
-    SMIL.class.getResource("Documentation/images/DebugMenu.png"),
-    SMIL.class.getResource("Documentation/images/LoadStandardTapeMenu.png"),
-    SMIL.class.getResource("Documentation/images/Memory.png"),
-    SMIL.class.getResource("Documentation/images/Options.png"),
-    SMIL.class.getResource("Documentation/images/PulseLabel.png"),
-    SMIL.class.getResource("Documentation/images/Registers.png"),
-    SMIL.class.getResource("Documentation/images/SaveMemoryToTape.png"),
-    SMIL.class.getResource("Documentation/images/TapeMenu.png"),
-    SMIL.class.getResource("Documentation/images/TapeReader.png"),
-    SMIL.class.getResource("Documentation/images/Typewriter.png"),
-    SMIL.class.getResource("Documentation/images/WindowsMenu.png")
-  };
-
-  private static String filenameFromURL(URL url) {
-    String path = url.getPath();
-    if (path == null) {
-      return null;
-    }
-    int lastSlash = path.lastIndexOf('/');
-    if (lastSlash < 0) {
-      return null;
-    }
-    return path.substring(lastSlash + 1);
-  }
-
-  private int copy(InputStream is, OutputStream os) throws IOException {
-    byte[] buf = new byte[10240];
-    int total = 0;
-    int nread;
-    while ((nread = is.read(buf)) > 0) {
-      os.write(buf, 0, nread);
-      nread += total;
-    }
-    is.close();
-    os.close();
-    return total;
-  }
-
-  private int copy(InputStream is, File f) throws IOException {
-    f.createNewFile();
-    return copy(is, new FileOutputStream(f));
-  }
-
-  protected void copy(ProgressCallback cb, URL[] urls, File dir) {
-    for (URL u : urls) {
-      String filename = filenameFromURL(u);
-      cb.starting(filename);
-      try {
-        InputStream is = u.openStream();
-        copy(is, new File(dir, filename));
-        cb.finished(filename);
-      } catch (IOException e) {
-        cb.exception(filename, e);
-      }
-    }
-
-  }
-
   public static long reverse(long value, int nBits) {
     long newValue = 0L;
     for (int i = 0; i < nBits; i++) {
@@ -648,12 +816,8 @@ public class SMIL implements Runnable {
     }
   }
 
-  public ValueUpdatedListener<Double> volumeUpdatedListener() {
-    return new ValueUpdatedListener<Double>() {
-      public void valueUpdated(Double oldValue, Double newValue) {
-        soundGenerator.setVolume(newValue);
-      }
-    };
+  public void setVolume(double volume) {
+    soundGenerator.setVolume(volume);
   }
 
   /**
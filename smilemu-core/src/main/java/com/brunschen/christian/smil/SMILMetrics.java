@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * Exposes a machine's counters as a standard MBean. Every attribute is read straight from the
+ * counters kept by the processor, drum, tape reader and clock, which only the processor's thread
+ * writes; reading them never makes the processor wait.
+ */
+public class SMILMetrics implements SMILMetricsMBean {
+  public static final String DOMAIN = "com.brunschen.christian.smil";
+
+  private SMIL smil;
+  private long lastTicks;
+  private long lastNanos;
+  private double speedRatio = 0.0;
+
+  public SMILMetrics(SMIL smil) {
+    this.smil = smil;
+    this.lastTicks = smil.tickClock().now();
+    this.lastNanos = System.nanoTime();
+  }
+
+  SMIL smil() {
+    return smil;
+  }
+
+  public int getId() {
+    return smil.id();
+  }
+
+  public boolean isRunning() {
+    return smil.registerSnapshot().running();
+  }
+
+  public long getInstructions() {
+    return smil.processor().instructionCount();
+  }
+
+  public long[] getInstructionsByGroup() {
+    return smil.processor().instructionCounts();
+  }
+
+  public long getEmulatedTicks() {
+    return smil.tickClock().now();
+  }
+
+  public long getDrumWaitTicks() {
+    return smil.drumMemory().waitTicks();
+  }
+
+  public long getTapeRowsRead() {
+    TapeReader tapeReader = smil.tapeReader();
+    return tapeReader != null ? tapeReader.rowsRead() : 0L;
+  }
+
+  public long getTypewriterCharacters() {
+    return smil.typewriterCharacters();
+  }
+
+  public long getSleepCount() {
+    return smil.systemClock().sleeps();
+  }
+
+  public long getOversleepNanos() {
+    return smil.systemClock().oversleepNanos();
+  }
+
+  public long getSpareTimeNanos() {
+    return smil.systemClock().spareTimeNanos();
+  }
+
+  public synchronized double getSpeedRatio() {
+    long ticks = smil.tickClock().now();
+    long nanos = System.nanoTime();
+    // the tick count restarts from zero whenever the machine is started
+    if (nanos > lastNanos && ticks >= lastTicks) {
+      double emulatedNanos = (ticks - lastTicks) * (double) TickClock.NANOS_PER_SECOND / SMIL.ticksPerSecond;
+      speedRatio = emulatedNanos / (nanos - lastNanos);
+    }
+    lastTicks = ticks;
+    lastNanos = nanos;
+    return speedRatio;
+  }
+
+  public void resetCounters() {
+    smil.resetCounters();
+  }
+}
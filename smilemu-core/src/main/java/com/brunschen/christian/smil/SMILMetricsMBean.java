@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * The counters of a running machine, as seen through JMX.
+ */
+public interface SMILMetricsMBean {
+  int getId();
+
+  boolean isRunning();
+
+  long getInstructions();
+
+  /**
+   * Returns the number of instructions executed per opcode group, indexed by group 0x0 .. 0xF.
+   */
+  long[] getInstructionsByGroup();
+
+  long getEmulatedTicks();
+
+  long getDrumWaitTicks();
+
+  long getTapeRowsRead();
+
+  long getTypewriterCharacters();
+
+  long getSleepCount();
+
+  long getOversleepNanos();
+
+  long getSpareTimeNanos();
+
+  /**
+   * Returns emulated time divided by wall time, measured since this attribute was last read.
+   */
+  double getSpeedRatio();
+
+  void resetCounters();
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+
+/**
+ * Hands out headless machines, made as by TapeRunner.newMachine(), and takes them back to reuse
+ * for the next job instead of building a new one each time. A machine is reset when it is
+ * released, so acquire() only ever hands out machines in the same state as a new one: processor
+ * registers cleared, memory zeroed, clocks restarted from zero at normal speed and not waiting,
+ * tape reader empty, a fresh transcript typewriter, no listeners or sound, and all counters reset.
+ *
+ * Memory is zeroed a page at a time, and only the pages that were written while the machine was
+ * out, which the pool tracks with a dirty-word bitmap on each machine. With validation on (the
+ * default), every released machine is then checked to really be in that state; one that is not
+ * is thrown away, so nothing one job leaves behind can ever be seen by the next.
+ *
+ * With setRegisterMetrics(true), each new machine also registers its MBean, and unregisters it
+ * when it is thrown away. A machine whose MBean cannot be registered is not handed out at all.
+ */
+public class SMILPool {
+  private int size;
+  private MetricsExporter metrics;
+  private boolean validate = true;
+  private boolean registerMetrics = false;
+  private int created = 0;
+  private LinkedList<SMIL> idle = new LinkedList<SMIL>();
+  private Map<SMIL, Memory.DirtyWords> written = new IdentityHashMap<SMIL, Memory.DirtyWords>();
+
+  private AtomicLong reused = new AtomicLong();
+  private AtomicLong discarded = new AtomicLong();
+  private AtomicLong pagesCleared = new AtomicLong();
+  private AtomicLong unregisterFailures = new AtomicLong();
+
+  /**
+   * @param size the most machines that will be out at any one time
+   * @param metrics an exporter to add each new machine to, or null
+   */
+  public SMILPool(int size, MetricsExporter metrics) {
+    this.size = size;
+    this.metrics = metrics;
+  }
+
+  public SMILPool(int size) {
+    this(size, null);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public synchronized void setValidate(boolean validate) {
+    this.validate = validate;
+  }
+
+  public synchronized boolean validate() {
+    return validate;
+  }
+
+  /**
+   * Sets whether machines created from now on register their MBeans with the platform MBean server.
+   */
+  public synchronized void setRegisterMetrics(boolean registerMetrics) {
+    this.registerMetrics = registerMetrics;
+  }
+
+  public synchronized boolean registerMetrics() {
+    return registerMetrics;
+  }
+
+  /**
+   * Returns an idle machine, or a new one if there is none and fewer than 'size' machines exist,
+   * otherwise waits for one to be released.
+   *
+   * @throws IllegalStateException if a new machine's MBean cannot be registered; the machine is
+   *           then dropped, and does not count towards 'size'
+   */
+  public synchronized SMIL acquire() throws InterruptedException {
+    while (idle.isEmpty() && created >= size) {
+      wait();
+    }
+    if (!idle.isEmpty()) {
+      reused.incrementAndGet();
+      return idle.removeFirst();
+    }
+    SMIL smil = TapeRunner.newMachine();
+    if (registerMetrics) {
+      try {
+        smil.registerMetrics();
+      } catch (JMException e) {
+        throw new IllegalStateException("Cannot register the MBean of machine " + smil.id(), e);
+      }
+    }
+    created++;
+    smil.tickClock().setWillWait(false);
+    written.put(smil, smil.memory().trackChanges());
+    if (metrics != null) {
+      metrics.add(smil);
+    }
+    return smil;
+  }
+
+  /**
+   * Resets a machine and makes it available again. The machine must have come from this pool, and
+   * must not be running.
+   */
+  public void release(SMIL smil) {
+    Memory.DirtyWords dirtyWords;
+    boolean validate;
+    synchronized (this) {
+      dirtyWords = written.get(smil);
+      validate = this.validate;
+    }
+    if (dirtyWords == null) {
+      throw new IllegalArgumentException("Machine " + smil.id() + " is not from this pool");
+    }
+    reset(smil, dirtyWords);
+    String problem = validate ? checkReset(smil) : null;
+    synchronized (this) {
+      if (problem != null) {
+        discarded.incrementAndGet();
+        written.remove(smil);
+        created--;
+        if (metrics != null) {
+          metrics.remove(smil);
+        }
+        try {
+          smil.unregisterMetrics();
+        } catch (JMException e) {
+          unregisterFailures.incrementAndGet();
+        }
+      } else {
+        idle.addFirst(smil);
+      }
+      notify();
+    }
+  }
+
+  private void reset(SMIL smil, Memory.DirtyWords dirtyWords) {
+    smil.stop(false);
+    smil.clearListeners();
+    smil.disconnectSound();
+    smil.setTrace(false);
+    smil.setRunMode(true, false);
+    smil.setPunchTypewriterOutput(false);
+    smil.setTapePunch(null);
+    smil.tapeReader().setTape(null);
+    smil.setTypewriter(new TapeRunner.Transcript());
+
+    smil.processor().reset();
+    smil.processor().rr.setValue(0L);
+    pagesCleared.addAndGet(smil.memory().clearDirtyPages(dirtyWords));
+
+    smil.tickClock().setSpeedup(1.0);
+    smil.tickClock().setWillWait(false);
+    smil.memoryClock().setSpeedup(1.0);
+    smil.memoryClock().setWillWait(true);
+    smil.asyncIoClock().setSpeedup(1.0);
+    smil.asyncIoClock().setWillWait(true);
+    smil.tickClock().reset();
+
+    smil.resetCounters();
+    smil.publishRegisters();
+  }
+
+  /**
+   * Returns what is wrong with a machine that should be freshly reset, or null if nothing is.
+   */
+  public static String checkReset(SMIL smil) {
+    Processor processor = smil.processor();
+    for (Register register : processor.registers) {
+      if (register.value() != 0L) {
+        return register.name() + " is not clear";
+      }
+    }
+    if (processor.rr.value() != 0L) {
+      return "RR is not clear";
+    }
+    if (!smil.memory().isClear()) {
+      return "memory is not clear";
+    }
+    if (smil.tickClock().now() != 0L) {
+      return "the clock is at " + smil.tickClock().now();
+    }
+    if (processor.instructionCount() != 0L || smil.drumMemory().waitTicks() != 0L
+        || smil.tapeReader().rowsRead() != 0L || smil.typewriterCharacters() != 0L
+        || smil.systemClock().sleeps() != 0L) {
+      return "counters are not reset";
+    }
+    if (smil.tapeReader().tape() != null) {
+      return "there is a tape in the reader";
+    }
+    if (smil.typewriter().length() != 0) {
+      return "the typewriter is not clear";
+    }
+    if (smil.hasListeners() || smil.shouldStop() || smil.registerSnapshot().running()) {
+      return "the machine is not idle";
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of times an idle machine was handed out, rather than a new one.
+   */
+  public long reused() {
+    return reused.get();
+  }
+
+  /**
+   * Returns the number of released machines that failed validation and were thrown away.
+   */
+  public long discarded() {
+    return discarded.get();
+  }
+
+  /**
+   * Returns the number of memory pages zeroed when resetting machines.
+   */
+  public long pagesCleared() {
+    return pagesCleared.get();
+  }
+
+  /**
+   * Returns the number of thrown-away machines whose MBeans could not be unregistered, and so are
+   * still in the platform MBean server.
+   */
+  public long unregisterFailures() {
+    return unregisterFailures.get();
+  }
+}
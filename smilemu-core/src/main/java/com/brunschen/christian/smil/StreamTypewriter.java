@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import com.brunschen.christian.smil.Clock.UnitTick;
+
+/**
+ * A typewriter for batch use, which streams what is printed straight to an output stream or
+ * channel through a fixed-size buffer, without keeping the whole text in memory. length() counts
+ * everything printed, while text() only returns the last 'tailCapacity' characters.
+ *
+ * Optionally, each line is prefixed with the emulated tick at which its first character was
+ * printed, as "[tick] ".
+ */
+public class StreamTypewriter extends Typewriter.Default {
+  public static final int BUFFER_SIZE = 8192;
+
+  private WritableByteChannel channel;
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private IOException failure = null;
+  private boolean autoFlush = false;
+
+  private char[] tail;
+  private int tailStart = 0;
+  private int tailLength = 0;
+  private long length = 0L;
+
+  private Clock<UnitTick> clock = null;
+  private boolean atLineStart = true;
+
+  /**
+   * @param tailCapacity the number of most recently printed characters to keep for text()
+   */
+  public StreamTypewriter(WritableByteChannel channel, int tailCapacity) {
+    this.channel = channel;
+    this.tail = new char[tailCapacity];
+  }
+
+  public StreamTypewriter(OutputStream out, int tailCapacity) {
+    this(Channels.newChannel(out), tailCapacity);
+  }
+
+  public StreamTypewriter(OutputStream out) {
+    this(out, 0);
+  }
+
+  /**
+   * Sets the clock to timestamp lines with, or null for no timestamps.
+   */
+  public synchronized void setTimestampClock(Clock<UnitTick> clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Sets whether output is flushed at the end of every line, which is useful when writing to a
+   * pipe that someone is watching.
+   */
+  public synchronized void setAutoFlush(boolean autoFlush) {
+    this.autoFlush = autoFlush;
+  }
+
+  public synchronized void append(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (atLineStart && clock != null) {
+        put('[');
+        putString(Long.toString(clock.now()));
+        put(']');
+        put(' ');
+      }
+      put(c < 0x80 ? (byte) c : (byte) '?');
+      remember(c);
+      atLineStart = c == '\n';
+    }
+    length += s.length();
+    if (autoFlush && atLineStart) {
+      drain();
+    }
+  }
+
+  private void putString(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      put((byte) s.charAt(i));
+    }
+  }
+
+  private void put(char c) {
+    put((byte) c);
+  }
+
+  private void put(byte b) {
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put(b);
+  }
+
+  private void drain() {
+    buffer.flip();
+    try {
+      // after a failure, output is discarded
+      while (failure == null && buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    buffer.clear();
+  }
+
+  private void remember(char c) {
+    if (tail.length == 0) {
+      return;
+    }
+    if (tailLength < tail.length) {
+      tail[(tailStart + tailLength++) % tail.length] = c;
+    } else {
+      tail[tailStart] = c;
+      tailStart = (tailStart + 1) % tail.length;
+    }
+  }
+
+  /**
+   * Returns the total number of characters printed.
+   */
+  public synchronized int length() {
+    return (int) Math.min(Integer.MAX_VALUE, length);
+  }
+
+  public synchronized long totalLength() {
+    return length;
+  }
+
+  /**
+   * Returns the last characters printed, up to the tail capacity.
+   */
+  public synchronized String text() {
+    StringBuilder sb = new StringBuilder(tailLength);
+    for (int i = 0; i < tailLength; i++) {
+      sb.append(tail[(tailStart + i) % tail.length]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Forgets the retained text and starts counting from zero again; what has already been written
+   * stays written.
+   */
+  public synchronized void clear() {
+    tailStart = 0;
+    tailLength = 0;
+    length = 0L;
+  }
+
+  public synchronized void flush() throws IOException {
+    drain();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    drain();
+    channel.close();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public synchronized IOException failure() {
+    return failure;
+  }
+}
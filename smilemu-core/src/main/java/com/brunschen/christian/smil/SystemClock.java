@@ -7,6 +7,9 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brunschen.christian.smil.jfr.PacingSleepEvent;
 
 /**
  * @author Christian Brunschen
@@ -23,6 +26,14 @@ public class SystemClock extends Clock<Clock.UnitNanosecond> {
   private InterruptedException lastException = null;
   private long nominalNanoTime;
   private long maxNanosAhead;
+  // only ever written by the sleeping thread, so lazySet is enough; resetCounters() may be called
+  // from another thread, so it records baselines rather than zeroing them
+  private AtomicLong sleeps = new AtomicLong();
+  private AtomicLong oversleepNanos = new AtomicLong();
+  private AtomicLong spareTimeNanos = new AtomicLong();
+  private AtomicLong sleepsBaseline = new AtomicLong();
+  private AtomicLong oversleepNanosBaseline = new AtomicLong();
+  private AtomicLong spareTimeNanosBaseline = new AtomicLong();
   
   public SystemClock(long maxNanosAhead) {
     this.maxNanosAhead = maxNanosAhead;
@@ -41,9 +52,60 @@ public class SystemClock extends Clock<Clock.UnitNanosecond> {
   }
   
   protected void spendTime(long now, long then) {
+    if (listeners.isEmpty()) {
+      return;
+    }
     for (Listener listener : listeners) {
       listener.onSpareTime(now, then);
     }
+    spareTimeNanos.lazySet(spareTimeNanos.get() + actualTime() - now);
+  }
+
+  /**
+   * Returns the number of times the clock has actually put a thread to sleep, since the counters
+   * were last reset.
+   */
+  public long sleeps() {
+    long baseline = sleepsBaseline.get();
+    return sleeps.get() - baseline;
+  }
+
+  /**
+   * Returns the total time by which sleeping threads overslept, in nanoseconds.
+   */
+  public long oversleepNanos() {
+    long baseline = oversleepNanosBaseline.get();
+    return oversleepNanos.get() - baseline;
+  }
+
+  /**
+   * Returns the total time spent in spare time listeners, in nanoseconds.
+   */
+  public long spareTimeNanos() {
+    long baseline = spareTimeNanosBaseline.get();
+    return spareTimeNanos.get() - baseline;
+  }
+
+  /**
+   * Returns the number of times the clock has put a thread to sleep since it was created; this and
+   * the other totals are not affected by resetCounters().
+   */
+  public long totalSleeps() {
+    return sleeps.get();
+  }
+
+  public long totalOversleepNanos() {
+    return oversleepNanos.get();
+  }
+
+  public long totalSpareTimeNanos() {
+    return spareTimeNanos.get();
+  }
+
+  public void resetCounters() {
+    sleepsBaseline.set(sleeps.get());
+    oversleepNanosBaseline.set(oversleepNanos.get());
+    spareTimeNanosBaseline.set(spareTimeNanos.get());
   }
   
   public void addListeners(Listener... listenersToAdd) {
@@ -96,12 +158,25 @@ public class SystemClock extends Clock<Clock.UnitNanosecond> {
         synchronized(sleepers) {
           sleepers.add(Thread.currentThread());
         }
+        PacingSleepEvent event = new PacingSleepEvent();
+        event.begin();
         try {
           Thread.sleep(delay / NANOS_PER_MILLI, (int) (delay % NANOS_PER_MILLI));
         } catch (InterruptedException e) {
           wasInterrupted = true;
           lastException = e;
         }
+        event.end();
+        long overslept = actualTime() - actualNanoTime - delay;
+        if (event.shouldCommit()) {
+          event.intended = delay;
+          event.actual = delay + overslept;
+          event.commit();
+        }
+        sleeps.lazySet(sleeps.get() + 1);
+        if (overslept > 0) {
+          oversleepNanos.lazySet(oversleepNanos.get() + overslept);
+        }
         synchronized(sleepers) {
           sleepers.remove(Thread.currentThread());
         }
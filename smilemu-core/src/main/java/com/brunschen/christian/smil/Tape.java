@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -166,6 +167,22 @@ public class Tape {
     loadNew(lines);
   }
 
+  /**
+   * Loads a tape in the compiled binary format, one byte per row, as punched by {@link TapePunch}.
+   */
+  public void loadBinary(InputStream is) throws IOException {
+    entries = new ArrayList<Entry>();
+    entries.add(new Space());
+    byte[] buf = new byte[4096];
+    int nread;
+    while ((nread = is.read(buf)) > 0) {
+      for (int i = 0; i < nread; i++) {
+        entries.add(new Value(buf[i] & 0xf));
+      }
+    }
+    entries.add(new Space());
+  }
+
   public Entry loadLine(List<Entry> entries, Entry lastEntry, String line) {
     for (int i = 0; i < line.length(); i++) {
       int c = line.charAt(i);
@@ -0,0 +1,339 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.brunschen.christian.smil.Clock.UnitTick;
+
+/**
+ * A tape punch, which streams the rows punched into it to a file or channel. Rows are collected
+ * into chunks on the punching thread and handed to a separate writer thread, which does all the
+ * formatting and the actual I/O; the punching thread (usually the processor) never waits for the
+ * disk.
+ *
+ * Punch timing is modelled in emulated time: the punch mechanism is busy for one row time after
+ * each row, and punching a row while it is still busy sleeps on the punch's clock until it is
+ * ready again.
+ */
+public class TapePunch {
+
+  public static final long ROWS_PER_SECOND = 150L; // the punch can punch 150 rows per second
+  public static final int ROWS_PER_WORD = 10;
+  public static final int CHUNK_ROWS = 4096;
+
+  public static enum Format {
+    /** The text format read by {@link Tape}: two groups of five hex digits per line. */
+    TEXT,
+    /** The compiled format: one byte per row, with the row value in the low four bits. */
+    BINARY
+  }
+
+  public static class NoOutputException extends IOException {
+    public static final long serialVersionUID = 0L;
+    public NoOutputException() {
+      super("No Output Open in Punch");
+    }
+  }
+
+  private static class Chunk {
+    byte[] rows;
+    int length;
+    String comment;
+
+    Chunk(byte[] rows, int length) {
+      this.rows = rows;
+      this.length = length;
+    }
+
+    Chunk(String comment) {
+      this.comment = comment;
+    }
+  }
+
+  private static final Chunk END = new Chunk(null, 0);
+
+  private Clock<UnitTick> clock;
+  private long ticksPerRow;
+  private long readyAt = Long.MIN_VALUE;
+
+  private byte[] pending = new byte[CHUNK_ROWS];
+  private int nPending = 0;
+  private long rowsPunched = 0L;
+
+  private BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+  private Writer writer = null;
+
+  /**
+   * @param clock the clock to model punch timing on, or null to punch without any delay
+   * @param ticksPerSecond the frequency of the clock
+   */
+  public TapePunch(Clock<UnitTick> clock, long ticksPerSecond) {
+    this.clock = clock;
+    this.ticksPerRow = ticksPerSecond / ROWS_PER_SECOND;
+  }
+
+  public TapePunch() {
+    this(null, 0L);
+  }
+
+  public synchronized void open(File f, Format format) throws IOException {
+    open(new FileOutputStream(f).getChannel(), format);
+  }
+
+  public synchronized void open(WritableByteChannel channel, Format format) throws IOException {
+    close();
+    writer = new Writer(channel, format);
+    writer.start();
+  }
+
+  public synchronized boolean isOpen() {
+    return writer != null;
+  }
+
+  private void checkOpen() throws IOException {
+    if (writer == null) {
+      throw new NoOutputException();
+    }
+    if (writer.failure != null) {
+      throw writer.failure;
+    }
+  }
+
+  private void waitUntilReady() {
+    if (clock != null) {
+      long now = clock.now();
+      if (now < readyAt) {
+        now = clock.sleepUntil(readyAt);
+      }
+      readyAt = now + ticksPerRow;
+    }
+  }
+
+  private void append(int row) {
+    pending[nPending++] = (byte) (row & 0xf);
+    rowsPunched++;
+    if (nPending == pending.length) {
+      handOff();
+    }
+  }
+
+  private void handOff() {
+    if (nPending > 0) {
+      queue.add(new Chunk(pending, nPending));
+      pending = new byte[CHUNK_ROWS];
+      nPending = 0;
+    }
+  }
+
+  /**
+   * Punches a single row, taking one row time on the punch's clock.
+   */
+  public synchronized void punch(int row) throws IOException {
+    checkOpen();
+    waitUntilReady();
+    append(row);
+  }
+
+  /**
+   * Punches a whole word, most significant row first, taking ten row times on the punch's clock.
+   */
+  public synchronized void punchWord(long word) throws IOException {
+    checkOpen();
+    for (int shift = 4 * (ROWS_PER_WORD - 1); shift >= 0; shift -= 4) {
+      waitUntilReady();
+      append((int) (word >>> shift));
+    }
+  }
+
+  /**
+   * Punches a sequence of words at host speed, without modelling any punch time; this is for
+   * saving memory and similar operations that happen outside of emulated time.
+   */
+  public synchronized void punchWords(long[] words, int offset, int length) throws IOException {
+    checkOpen();
+    for (int i = offset; i < offset + length; i++) {
+      long word = words[i];
+      for (int shift = 4 * (ROWS_PER_WORD - 1); shift >= 0; shift -= 4) {
+        append((int) (word >>> shift));
+      }
+    }
+  }
+
+  /**
+   * Punches the contents of memory from address 'from' to address 'to', both inclusive, at host
+   * speed. The words are read directly from memory, without waiting for the drum.
+   */
+  public synchronized void punchMemory(Memory memory, int from, int to) throws IOException {
+    checkOpen();
+    for (int address = from; address <= to; address++) {
+      long word = memory.get(address);
+      for (int shift = 4 * (ROWS_PER_WORD - 1); shift >= 0; shift -= 4) {
+        append((int) (word >>> shift));
+      }
+    }
+  }
+
+  /**
+   * Adds a comment to the tape. Comments appear as '#' lines in the text format, and are left out
+   * of the binary format.
+   */
+  public synchronized void punchComment(String comment) throws IOException {
+    checkOpen();
+    handOff();
+    queue.add(new Chunk(comment));
+  }
+
+  /**
+   * Hands all rows punched so far to the writer thread, without waiting for them to be written.
+   */
+  public synchronized void flush() throws IOException {
+    checkOpen();
+    handOff();
+  }
+
+  /**
+   * Writes out all rows punched so far and closes the output, waiting for the writer thread to
+   * finish.
+   */
+  public synchronized void close() throws IOException {
+    if (writer == null) {
+      return;
+    }
+    handOff();
+    queue.add(END);
+    Writer w = writer;
+    writer = null;
+    boolean interrupted = false;
+    while (w.isAlive()) {
+      try {
+        w.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (w.failure != null) {
+      throw w.failure;
+    }
+  }
+
+  public synchronized long rowsPunched() {
+    return rowsPunched;
+  }
+
+  public synchronized void resetRowsPunched() {
+    rowsPunched = 0L;
+  }
+
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+  private class Writer extends Thread {
+    private WritableByteChannel channel;
+    private Format format;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+    private int column = 0; // rows punched on the current line, text format only
+    volatile IOException failure = null;
+
+    Writer(WritableByteChannel channel, Format format) {
+      super("Tape Punch");
+      setDaemon(true);
+      this.channel = channel;
+      this.format = format;
+    }
+
+    private void put(byte b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      buffer.put(b);
+    }
+
+    private void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    private void endLine() throws IOException {
+      if (column > 0) {
+        put((byte) '\n');
+        column = 0;
+      }
+    }
+
+    private void write(Chunk chunk) throws IOException {
+      if (chunk.comment != null) {
+        if (format == Format.TEXT) {
+          endLine();
+          for (byte b : ("# " + chunk.comment + "\n").getBytes()) {
+            put(b);
+          }
+        }
+      } else if (format == Format.BINARY) {
+        for (int i = 0; i < chunk.length; i++) {
+          put(chunk.rows[i]);
+        }
+      } else {
+        for (int i = 0; i < chunk.length; i++) {
+          if (column == ROWS_PER_WORD / 2) {
+            put((byte) ' ');
+          }
+          put(HEX[chunk.rows[i]]);
+          if (++column == ROWS_PER_WORD) {
+            endLine();
+          }
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        Chunk chunk;
+        while ((chunk = queue.take()) != END) {
+          // after a failure, keep taking chunks so they don't pile up, but don't write them
+          if (failure == null) {
+            try {
+              write(chunk);
+              if (queue.isEmpty()) {
+                drain();
+              }
+            } catch (IOException e) {
+              failure = e;
+            }
+          }
+        }
+        if (failure == null) {
+          if (format == Format.TEXT) {
+            endLine();
+          }
+          drain();
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        // nothing more will be written
+      } finally {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+    }
+  }
+}
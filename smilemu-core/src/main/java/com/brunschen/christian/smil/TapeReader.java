@@ -22,13 +22,23 @@
 package com.brunschen.christian.smil;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.brunschen.christian.graphic.Font;
-import com.brunschen.christian.graphic.Size;
 import com.brunschen.christian.smil.Clock.UnitTick;
-import com.brunschen.christian.smil.graphic.TapeReaderGraphic;
+import com.brunschen.christian.smil.jfr.TapeReadEvent;
 
 public class TapeReader {
+  public static final int ROWS_PER_SECOND = 200;
+
+  /**
+   * Listens for a tape being loaded into the reader, and for the read head moving along it.
+   */
+  public interface Listener {
+    void tapeChanged(TapeReader tapeReader);
+    void headMoved(TapeReader tapeReader);
+  }
 
   public static class NoTapeInReaderException extends IOException {
     public static final long serialVersionUID = 0L;
@@ -49,20 +59,31 @@ public class TapeReader {
   private Tape tape;
   private int location;
   private int headPosition;
-  private TapeReaderGraphic graphic;
-  private Font commentFont;
+  private List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+  private AtomicLong rowsRead = new AtomicLong();
+  private AtomicLong rowsReadBaseline = new AtomicLong();
 
-  public TapeReader(Clock<UnitTick> tickClock, long ticksPerSecond, Font commentFont) {
+  public TapeReader(Clock<UnitTick> tickClock, long ticksPerSecond) {
     super();
     this.tickClock = tickClock;
-    this.ticksPerRow = ticksPerSecond / 200; // tqpe reader can read 200 rows per second.
-    this.commentFont = commentFont;
+    this.ticksPerRow = ticksPerSecond / ROWS_PER_SECOND;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
   }
 
   public int read() throws IOException {
     if (tape == null) {
       throw new NoTapeInReaderException();
     }
+    TapeReadEvent event = new TapeReadEvent();
+    event.begin();
+    int rows = 0;
     Tape.Entry entry;
     do {
       if (location >= tape.length()) {
@@ -75,11 +96,39 @@ public class TapeReader {
         ++headPosition;
         // repaint();
       }
+      rowsRead.lazySet(rowsRead.get() + width);
+      rows += width;
     } while (entry == null || !entry.hasValue());
+    event.end();
+    if (event.shouldCommit()) {
+      event.location = location - 1;
+      event.rows = rows;
+      event.value = entry.value();
+      event.commit();
+    }
     repaint();
     return entry.value();
   }
 
+  /**
+   * Returns the number of rows that have passed the read head since the counter was last reset.
+   */
+  public long rowsRead() {
+    long baseline = rowsReadBaseline.get();
+    return rowsRead.get() - baseline;
+  }
+
+  /**
+   * Returns the number of rows that have passed the read head since the reader was created.
+   */
+  public long totalRowsRead() {
+    return rowsRead.get();
+  }
+
+  public void resetCounters() {
+    rowsReadBaseline.set(rowsRead.get());
+  }
+
   public long readWord() throws IOException {
     long value = 0L;
     for (int i = 0; i < 10; i++) {
@@ -89,9 +138,8 @@ public class TapeReader {
   }
 
   public void repaint() {
-    if (graphic != null) {
-      graphic.scrollRectToVisible(graphic.headRect());
-      graphic.repaint();
+    for (Listener listener : listeners) {
+      listener.headMoved(this);
     }
   }
 
@@ -99,10 +147,8 @@ public class TapeReader {
     this.tape = tape;
     location = 0;
     headPosition = 0;
-    if (graphic != null) {
-      graphic.adjustBounds(tape);
-      graphic.scrollRectToVisible(graphic.headRect());
-      graphic.repaint();
+    for (Listener listener : listeners) {
+      listener.tapeChanged(this);
     }
   }
 
@@ -118,16 +164,7 @@ public class TapeReader {
     return headPosition;
   }
 
-  public TapeReaderGraphic graphic() {
-    if (graphic == null) {
-      graphic = new TapeReaderGraphic(new Size(350.0f, 70.0f), commentFont, this);
-    }
-    return graphic;
-  }
-
   public void scrollToHead() {
-    if (graphic != null) {
-      graphic.scrollRectToVisible(graphic.headRect());
-    }
+    repaint();
   }
 }
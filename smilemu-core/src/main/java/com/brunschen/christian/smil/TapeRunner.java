@@ -0,0 +1,393 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.brunschen.christian.smil.jfr.QuantumRecorder;
+
+/**
+ * Runs tapes on a machine without any user interface, as fast as the host allows. The machine's
+ * clock is set not to wait, so emulated time advances exactly as it would in real time but nothing
+ * ever sleeps; running the same tapes therefore always takes the same number of ticks.
+ *
+ * Tapes are loaded the way an operator would load them: the A1 loader is read using tape start,
+ * and every other tape is then read by starting the loader at 001L with that tape in the reader.
+ */
+public class TapeRunner {
+  public static final String LOADER = "A1";
+  public static final int LOADER_START = 0x001;
+  public static final int DEADLINE_CHECK_STEPS = 1024;
+
+  /**
+   * A typewriter that just keeps everything typed in memory.
+   */
+  public static class Transcript extends Typewriter.Default {
+    private StringBuilder text = new StringBuilder();
+
+    public synchronized int length() {
+      return text.length();
+    }
+
+    public synchronized String text() {
+      return text.toString();
+    }
+
+    public synchronized void append(String s) {
+      text.append(s);
+    }
+
+    public synchronized void clear() {
+      text.setLength(0);
+    }
+  }
+
+  /**
+   * A program made up of bundled tapes: the tapes to load after the loader, the values to put in
+   * AR and MR, and where to start it.
+   */
+  public static class Program {
+    private String name;
+    private List<String> tapes;
+    private int start;
+    private long ar;
+    private long mr;
+    private long tickLimit;
+
+    public Program(String name, int start, long ar, long mr, long tickLimit, String... tapes) {
+      this.name = name;
+      this.start = start;
+      this.ar = ar;
+      this.mr = mr;
+      this.tickLimit = tickLimit;
+      this.tapes = Collections.unmodifiableList(Arrays.asList(tapes));
+    }
+
+    public Program(String name, int start, String... tapes) {
+      this(name, start, 0L, 0L, Long.MAX_VALUE, tapes);
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public List<String> tapes() {
+      return tapes;
+    }
+
+    public int start() {
+      return start;
+    }
+
+    public long ar() {
+      return ar;
+    }
+
+    public long mr() {
+      return mr;
+    }
+
+    /**
+     * Returns the number of ticks after which the program is stopped, for programs that never halt
+     * by themselves.
+     */
+    public long tickLimit() {
+      return tickLimit;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * The programs that can be put together from the bundled tapes.
+   */
+  public static final List<Program> programs = Collections.unmodifiableList(Arrays.asList(new Program[] {
+      new Program("Primes", 0x405, "Primes", "Print Integer"),
+      new Program("Square Roots", 0x101, "Square Root Subroutine", "Decimal Output", "Square Roots Main Program"),
+      new Program("Sine Wave", 0x405, 0L, 0L, 10000000L, "Sine Wave"),
+      new Program("Memory Dump", 0x0e2, 0x0000000f00L, 0L, Long.MAX_VALUE, "B2"),
+  }));
+
+  public static Program program(String name) {
+    for (Program program : programs) {
+      if (program.name().equals(name)) {
+        return program;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * What happened when running a program.
+   */
+  public static class Result {
+    private String output;
+    private long ticks;
+    private long steps;
+    private boolean halted;
+    private long nanos;
+
+    public Result(String output, long ticks, long steps, boolean halted, long nanos) {
+      this.output = output;
+      this.ticks = ticks;
+      this.steps = steps;
+      this.halted = halted;
+      this.nanos = nanos;
+    }
+
+    /**
+     * Returns everything the program printed on the typewriter.
+     */
+    public String output() {
+      return output;
+    }
+
+    /**
+     * Returns the number of emulated ticks from loading the first tape until the program stopped.
+     */
+    public long ticks() {
+      return ticks;
+    }
+
+    /**
+     * Returns the number of instructions executed, including loading the tapes.
+     */
+    public long steps() {
+      return steps;
+    }
+
+    /**
+     * Returns whether the program halted by itself, rather than being stopped at its tick limit.
+     */
+    public boolean halted() {
+      return halted;
+    }
+
+    /**
+     * Returns the host time spent running, in nanoseconds.
+     */
+    public long nanos() {
+      return nanos;
+    }
+
+    public double instructionsPerSecond() {
+      return nanos > 0L ? steps * 1e9 / nanos : 0.0;
+    }
+  }
+
+  private SMIL smil;
+  private long tickLimit = Long.MAX_VALUE;
+  private long stepLimit = Long.MAX_VALUE;
+  private boolean hasDeadline = false;
+  private long deadline;
+  private long steps = 0L;
+  private Translation translation;
+  private long translatedSteps = 0L;
+
+  /**
+   * Creates a machine with a tape reader and a transcript typewriter, and no sound.
+   */
+  public static SMIL newMachine() {
+    return newMachine(Processor.Dispatch.OPERATIONS);
+  }
+
+  public static SMIL newMachine(Processor.Dispatch dispatch) {
+    SMIL smil = new SMIL(dispatch);
+    smil.setTapeReader(new TapeReader(smil.tickClock(), SMIL.ticksPerSecond));
+    smil.setTypewriter(new Transcript());
+    smil.init();
+    return smil;
+  }
+
+  public TapeRunner(SMIL smil) {
+    this.smil = smil;
+    smil.tickClock().setWillWait(false);
+  }
+
+  public TapeRunner() {
+    this(newMachine());
+  }
+
+  public TapeRunner(Processor.Dispatch dispatch) {
+    this(newMachine(dispatch));
+  }
+
+  public SMIL smil() {
+    return smil;
+  }
+
+  public long tickLimit() {
+    return tickLimit;
+  }
+
+  /**
+   * Sets the tick count at which run() stops the machine, if it has not halted before then.
+   */
+  public void setTickLimit(long tickLimit) {
+    this.tickLimit = tickLimit;
+  }
+
+  /**
+   * Returns the number of instructions executed since this runner was created.
+   */
+  public long steps() {
+    return steps;
+  }
+
+  public long stepLimit() {
+    return stepLimit;
+  }
+
+  /**
+   * Sets the step count, as returned by steps(), at which run() stops the machine.
+   */
+  public void setStepLimit(long stepLimit) {
+    this.stepLimit = stepLimit;
+  }
+
+  /**
+   * Sets a System.nanoTime() after which run() stops the machine. The time is only looked at every
+   * DEADLINE_CHECK_STEPS instructions, so the machine may run a little past it.
+   */
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+    this.hasDeadline = true;
+  }
+
+  public void clearDeadline() {
+    this.hasDeadline = false;
+  }
+
+  /**
+   * Sets a translation to run the program with, or null to only interpret. The translation is
+   * used for as long as it can, and the processor interprets whatever it cannot do.
+   */
+  public void setTranslation(Translation translation) {
+    this.translation = translation;
+  }
+
+  public Translation translation() {
+    return translation;
+  }
+
+  /**
+   * Returns the number of the instructions counted by steps() that were executed by the
+   * translation.
+   */
+  public long translatedSteps() {
+    return translatedSteps;
+  }
+
+  public boolean pastDeadline() {
+    return hasDeadline && System.nanoTime() - deadline >= 0L;
+  }
+
+  /**
+   * Runs until the machine halts or is stopped, returning true, or until the tick limit, step limit
+   * or deadline is reached, returning false.
+   */
+  public boolean run() {
+    Processor processor = smil.processor();
+    Clock<Clock.UnitTick> tickClock = smil.tickClock();
+    smil.dontStop();
+    smil.started();
+    QuantumRecorder quantum = new QuantumRecorder(smil.id());
+    quantum.start(tickClock.now());
+    try {
+      while (!smil.shouldStop()) {
+        if (tickClock.now() >= tickLimit || steps >= stepLimit) {
+          return false;
+        }
+        if ((steps & DEADLINE_CHECK_STEPS - 1) == 0 && pastDeadline()) {
+          return false;
+        }
+        // run up to the next deadline check at most, then carry on from there
+        long maxSteps = Math.min(stepLimit - steps, DEADLINE_CHECK_STEPS - (steps & DEADLINE_CHECK_STEPS - 1));
+        if (translation != null) {
+          int result = translation.run(smil, tickLimit, maxSteps);
+          steps += translation.steps();
+          translatedSteps += translation.steps();
+          if (result == Translation.HALTED) {
+            smil.stop();
+          }
+          if (result != Translation.FALLBACK) {
+            continue;
+          }
+        }
+        int n = processor.fusedStep(tickLimit, maxSteps);
+        steps += n;
+        quantum.step(tickClock.now(), n);
+      }
+      return true;
+    } finally {
+      quantum.finish(tickClock.now());
+      smil.stopped();
+    }
+  }
+
+  /**
+   * Starts the machine at an address, and runs it as in run().
+   */
+  public boolean start(int address, boolean right) {
+    smil.processor().jump(address, right);
+    smil.processor().loadIrIfNecessary();
+    return run();
+  }
+
+  /**
+   * Reads a tape using tape start, as is done for the loader itself.
+   */
+  public boolean bootstrap(Tape tape) {
+    smil.tapeReader().setTape(tape);
+    smil.tapeStart();
+    return run();
+  }
+
+  /**
+   * Reads a tape using the loader, which must already be in memory.
+   */
+  public boolean load(Tape tape) {
+    smil.tapeReader().setTape(tape);
+    return start(LOADER_START, false);
+  }
+
+  /**
+   * Clears the machine's memory, registers and typewriter, and restarts its clock from zero.
+   */
+  public void reset() {
+    smil.reset();
+    smil.typewriter().clear();
+    smil.tickClock().reset();
+  }
+
+  /**
+   * Loads and runs a program on a freshly reset machine.
+   */
+  public Result run(Program program) {
+    reset();
+    long startSteps = steps;
+    long startNanos = System.nanoTime();
+    long savedTickLimit = tickLimit;
+    tickLimit = Long.MAX_VALUE;
+    try {
+      bootstrap(SMIL.tape(LOADER));
+      for (String tape : program.tapes()) {
+        load(SMIL.tape(tape));
+      }
+      smil.processor().ar.setValue(program.ar());
+      smil.processor().mr.setValue(program.mr());
+      tickLimit = Math.min(savedTickLimit, program.tickLimit());
+      boolean halted = start(program.start(), false);
+      return new Result(smil.typewriter().text(), smil.tickClock().now(), steps - startSteps, halted,
+          System.nanoTime() - startNanos);
+    } finally {
+      tickLimit = savedTickLimit;
+    }
+  }
+}
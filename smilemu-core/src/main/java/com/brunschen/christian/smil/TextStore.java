@@ -0,0 +1,213 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+
+/**
+ * Holds a growing text as a list of immutable chunks, so appending never copies what is already
+ * there. Optionally only the last 'maxLines' lines are retained; older text is dropped, or written
+ * to a spill file first if there is one, so a program that prints for hours does not make memory
+ * climb without bound. Dropping lines only moves an offset into the oldest chunk, and a chunk is
+ * let go once all of it has been dropped, so the text stays in chunks of CHUNK_SIZE however many
+ * lines are dropped.
+ */
+public class TextStore {
+  public static final int CHUNK_SIZE = 4096;
+
+  private LinkedList<String> chunks = new LinkedList<String>();
+  private StringBuilder tail = new StringBuilder();
+  // the retained text starts this far into the first chunk, or into the tail if there are no chunks
+  private int start = 0;
+  private int length = 0;
+  private int lines = 0;
+  private long discarded = 0L;
+  private int maxLines = 0;
+  private File spillFile = null;
+  private Writer spill = null;
+
+  /**
+   * @param maxLines the number of complete lines to retain, or 0 to retain everything
+   */
+  public TextStore(int maxLines) {
+    this.maxLines = maxLines;
+  }
+
+  public TextStore() {
+    this(0);
+  }
+
+  public synchronized void append(CharSequence s) {
+    int n = s.length();
+    for (int i = 0; i < n; i++) {
+      if (s.charAt(i) == '\n') {
+        lines++;
+      }
+    }
+    tail.append(s);
+    length += n;
+    if (tail.length() >= CHUNK_SIZE) {
+      seal();
+    }
+    if (maxLines > 0 && lines > maxLines) {
+      discardLines(lines - maxLines);
+    }
+  }
+
+  private void seal() {
+    if (tail.length() > 0) {
+      chunks.add(tail.toString());
+      tail.setLength(0);
+    }
+  }
+
+  private void discardLines(int n) {
+    while (n > 0) {
+      if (chunks.isEmpty()) {
+        int newline = tail.indexOf("\n", start);
+        if (newline < 0) {
+          return;
+        }
+        discard(tail, start, newline + 1);
+        start = newline + 1;
+        if (start == tail.length()) {
+          tail.setLength(0);
+          start = 0;
+        }
+      } else {
+        String chunk = chunks.getFirst();
+        int newline = chunk.indexOf('\n', start);
+        int end = newline < 0 ? chunk.length() : newline + 1;
+        discard(chunk, start, end);
+        start = end;
+        if (start == chunk.length()) {
+          chunks.removeFirst();
+          start = 0;
+        }
+        if (newline < 0) {
+          continue;
+        }
+      }
+      n--;
+      lines--;
+    }
+  }
+
+  private void discard(CharSequence s, int from, int to) {
+    if (spill != null) {
+      try {
+        spill.append(s, from, to);
+      } catch (IOException e) {
+        e.printStackTrace();
+        closeSpill();
+      }
+    }
+    length -= to - from;
+    discarded += to - from;
+  }
+
+  /**
+   * Returns the length of the retained text.
+   */
+  public synchronized int length() {
+    return length;
+  }
+
+  /**
+   * Returns the number of characters that have been appended, including any no longer retained.
+   */
+  public synchronized long totalLength() {
+    return discarded + length;
+  }
+
+  /**
+   * Returns the number of complete lines retained.
+   */
+  public synchronized int lines() {
+    return lines;
+  }
+
+  public synchronized String text() {
+    StringBuilder sb = new StringBuilder(length);
+    int from = start;
+    for (String chunk : chunks) {
+      sb.append(chunk, from, chunk.length());
+      from = 0;
+    }
+    sb.append(tail, from, tail.length());
+    return sb.toString();
+  }
+
+  /**
+   * Returns the number of full chunks that the retained text is held in, besides the one being
+   * appended to.
+   */
+  public synchronized int chunks() {
+    return chunks.size();
+  }
+
+  public synchronized void clear() {
+    chunks.clear();
+    tail.setLength(0);
+    start = 0;
+    length = 0;
+    lines = 0;
+    discarded = 0L;
+  }
+
+  public synchronized int maxLines() {
+    return maxLines;
+  }
+
+  public synchronized void setMaxLines(int maxLines) {
+    this.maxLines = maxLines;
+    if (maxLines > 0 && lines > maxLines) {
+      discardLines(lines - maxLines);
+    }
+  }
+
+  /**
+   * Sets a file to write text to before it is discarded, or null to just discard it.
+   */
+  public synchronized void setSpillFile(File file) throws IOException {
+    closeSpill();
+    spillFile = file;
+    if (file != null) {
+      spill = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+    }
+  }
+
+  public synchronized File spillFile() {
+    return spillFile;
+  }
+
+  private void closeSpill() {
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      spill = null;
+    }
+  }
+
+  /**
+   * Writes out anything spilled but not yet written to the spill file.
+   */
+  public synchronized void flushSpill() throws IOException {
+    if (spill != null) {
+      spill.flush();
+    }
+  }
+
+  public synchronized void close() {
+    closeSpill();
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * A memory image translated into Java by the Translator. The generated subclass has one case per
+ * halfword of the image, which does exactly what the Processor would for that halfword, down to the
+ * tick, using the word-level Arithmetic. It works directly on the machine's memory, and on a copy
+ * of the registers and clock that is handed back to the machine when it returns.
+ *
+ * Every case first checks that IR still holds the word it was translated from, so if the program
+ * changes itself, or is started on memory that differs from the image, the translation returns
+ * FALLBACK and the interpreter takes over for the next instruction. So do instructions that use the
+ * tape reader or the typewriter, shifts that never finish, and everything while the machine is
+ * tracing or set to stop conditionally, so the interpreter always handles those exactly as before.
+ *
+ * Translated code takes no real time, so it is only for machines that are not paced; and, like the
+ * interpreter, it only touches the drum memory through get and set, so counts of drum waits and
+ * Flight Recorder events cover interpreted instructions only.
+ */
+public abstract class Translation {
+  public static final int HALTED = 0;
+  public static final int LIMIT = 1;
+  public static final int FALLBACK = 2;
+
+  protected final Arithmetic.Registers r = new Arithmetic.Registers();
+  protected final long[] counts = new long[16];
+  protected Memory memory;
+  protected long ticks;
+  protected long steps;
+
+  /**
+   * Returns the addresses of the words that were translated, in increasing order.
+   */
+  public abstract int[] addresses();
+
+  /**
+   * Returns the words that were translated, in the same order as addresses().
+   */
+  public abstract long[] words();
+
+  /**
+   * Returns the hash of the tapes, or memory image, that this was translated from.
+   */
+  public abstract String key();
+
+  /**
+   * Runs translated code until an instruction needs the interpreter, the machine halts, or either
+   * limit is reached, whichever is first.
+   */
+  protected abstract int execute(long tickLimit, long stepLimit);
+
+  /**
+   * Returns true if the machine's memory holds exactly the translated words.
+   */
+  public boolean matches(Memory memory) {
+    int[] addresses = addresses();
+    long[] words = words();
+    for (int i = 0; i < addresses.length; i++) {
+      if (memory.get(addresses[i]) != words[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Runs translated code on a machine from where its processor is now, at most 'maxSteps'
+   * instructions and up to the tick limit, and leaves the processor and clock where the code
+   * stopped. Returns HALTED if a halt instruction was executed (the caller stops the machine),
+   * LIMIT if a limit was reached, or FALLBACK if the next instruction must be interpreted.
+   */
+  public int run(SMIL smil, long tickLimit, long maxSteps) {
+    steps = 0L;
+    if (smil.trace() || smil.stopConditionally()) {
+      return FALLBACK;
+    }
+    Processor processor = smil.processor();
+    Clock<Clock.UnitTick> tickClock = smil.tickClock();
+    memory = smil.memory();
+    r.load(processor);
+    long startTicks = ticks = tickClock.now();
+    int result = execute(tickLimit, maxSteps);
+    if (steps > 0L) {
+      r.store(processor);
+      tickClock.sleep(ticks - startTicks);
+      processor.addInstructionCounts(counts);
+    }
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = 0L;
+    }
+    memory = null;
+    return result;
+  }
+
+  /**
+   * Returns the number of instructions executed by the last run().
+   */
+  public long steps() {
+    return steps;
+  }
+
+  private void waitForAddress(int address) {
+    int row = (int) (ticks % SMIL.drumRows);
+    ticks += (address + SMIL.drumRows - row) % SMIL.drumRows;
+  }
+
+  protected final long read(int address) {
+    waitForAddress(address);
+    return memory.get(address);
+  }
+
+  protected final void write(int address, long word, long mask) {
+    waitForAddress(address);
+    memory.set(address, word, mask);
+  }
+}
@@ -0,0 +1,576 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates the program that a set of tapes loads into a Java class, compiles it with the system
+ * Java compiler and keeps the class in a cache directory, keyed by the SHA-256 hash of the tapes'
+ * contents, so the next run, in this process or another, loads it from there without translating
+ * or compiling anything.
+ *
+ * The image translated is memory as it is after loading the tapes with the A1 loader, and every
+ * non-zero word in it is translated; see Translation for how the generated code guards against
+ * memory that differs from the image. A cache entry is a directory named after the key, holding
+ * the generated source as well as the class, which is written to a temporary directory first and
+ * then renamed into place, so other processes never see half a translation.
+ */
+public class Translator {
+  public static final String PACKAGE = "com.brunschen.christian.smil.translated";
+  /** Changes whenever the generated code does, so older cache entries are not used. */
+  public static final int VERSION = 1;
+  /** Each generated method handles 2^CHUNK_BITS halfwords, to stay small enough to be compiled. */
+  public static final int CHUNK_BITS = 6;
+
+  private File directory;
+  private Map<String, Class<? extends Translation>> classes = new HashMap<String, Class<? extends Translation>>();
+  private AtomicLong compiled = new AtomicLong();
+  private AtomicLong loaded = new AtomicLong();
+
+  public Translator(File directory) {
+    this.directory = directory;
+  }
+
+  public File directory() {
+    return directory;
+  }
+
+  /**
+   * Returns true if there is a Java compiler to translate with; without one, only translations that
+   * are already in a cache can be used.
+   */
+  public static boolean canCompile() {
+    return ToolProvider.getSystemJavaCompiler() != null;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(("SMIL translation " + VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+      return digest;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the cache key for a set of tapes: the hash of their rows, tape by tape.
+   */
+  public static String key(List<Tape> tapes) {
+    MessageDigest digest = sha256();
+    for (Tape tape : tapes) {
+      digest.update((byte) 'T');
+      for (int row : tape.rows()) {
+        digest.update((byte) row);
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  /**
+   * Returns the cache key for a memory image.
+   */
+  public static String key(long[] image) {
+    MessageDigest digest = sha256();
+    digest.update((byte) 'M');
+    for (long word : image) {
+      for (int shift = SMIL.WORD_BITS - 8; shift >= 0; shift -= 8) {
+        digest.update((byte) (word >>> shift));
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  public static String className(String key) {
+    return "T" + key.substring(0, 16);
+  }
+
+  /**
+   * Returns memory as it is after loading the tapes with the A1 loader on a new machine.
+   */
+  public static long[] image(List<Tape> tapes) {
+    TapeRunner runner = new TapeRunner();
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    for (Tape tape : tapes) {
+      runner.load(tape);
+    }
+    Memory memory = runner.smil().memory();
+    long[] image = new long[memory.length()];
+    for (int address = 0; address < image.length; address++) {
+      image[address] = memory.get(address);
+    }
+    return image;
+  }
+
+  /**
+   * Returns a new translation of the program the tapes load, from the cache if it is there.
+   */
+  public Translation translate(List<Tape> tapes) throws IOException {
+    String key = key(tapes);
+    Translation translation = cached(key);
+    return translation != null ? translation : translate(key, image(tapes));
+  }
+
+  /**
+   * Returns a new translation of the program the tapes load if it is already in the cache, or null
+   * if it is not; this never translates or compiles anything.
+   */
+  public Translation lookup(List<Tape> tapes) throws IOException {
+    return cached(key(tapes));
+  }
+
+  /**
+   * Returns a new translation of a memory image, from the cache if it is there.
+   */
+  public Translation translate(long[] image) throws IOException {
+    String key = key(image);
+    Translation translation = cached(key);
+    return translation != null ? translation : translate(key, image);
+  }
+
+  /**
+   * Returns the number of translations compiled by this translator.
+   */
+  public long compiled() {
+    return compiled.get();
+  }
+
+  /**
+   * Returns the number of translations loaded from classes already in the cache directory.
+   */
+  public long loaded() {
+    return loaded.get();
+  }
+
+  private static Translation instantiate(Class<? extends Translation> c) throws IOException {
+    try {
+      return c.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Cannot instantiate " + c.getName(), e);
+    }
+  }
+
+  private File entry(String key) {
+    return new File(directory, key);
+  }
+
+  private static File classFile(File entry, String key) {
+    return new File(entry, PACKAGE.replace('.', File.separatorChar) + File.separator + className(key) + ".class");
+  }
+
+  private Translation cached(String key) throws IOException {
+    Class<? extends Translation> c;
+    synchronized (classes) {
+      c = classes.get(key);
+      if (c == null && classFile(entry(key), key).isFile()) {
+        c = load(entry(key), key);
+        classes.put(key, c);
+        loaded.incrementAndGet();
+      }
+    }
+    return c == null ? null : instantiate(c);
+  }
+
+  private static Class<? extends Translation> load(File entry, String key) throws IOException {
+    URLClassLoader loader = new URLClassLoader(new URL[] { entry.toURI().toURL() }, Translation.class
+        .getClassLoader());
+    try {
+      return loader.loadClass(PACKAGE + "." + className(key)).asSubclass(Translation.class);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Cache entry " + entry + " has no translation", e);
+    }
+  }
+
+  private Translation translate(String key, long[] image) throws IOException {
+    String source = source(key, image);
+    File entry = entry(key);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    // unique among all threads and processes sharing the directory
+    File temporary = Files.createTempDirectory(directory.toPath(), key + ".tmp").toFile();
+    try {
+      File sourceFile = new File(temporary, PACKAGE.replace('.', File.separatorChar) + File.separator
+          + className(key) + ".java");
+      if (!sourceFile.getParentFile().isDirectory() && !sourceFile.getParentFile().mkdirs()) {
+        throw new IOException("Cannot create " + sourceFile.getParentFile());
+      }
+      Writer writer = new OutputStreamWriter(new FileOutputStream(sourceFile), StandardCharsets.UTF_8);
+      try {
+        writer.write(source);
+      } finally {
+        writer.close();
+      }
+      compile(sourceFile, temporary);
+      compiled.incrementAndGet();
+      if (!temporary.renameTo(entry) && !classFile(entry, key).isFile()) {
+        throw new IOException("Cannot move " + temporary + " to " + entry);
+      }
+    } finally {
+      // gone already if it was renamed into place
+      delete(temporary);
+    }
+
+    Class<? extends Translation> c = load(entry, key);
+    synchronized (classes) {
+      classes.put(key, c);
+    }
+    return instantiate(c);
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+
+  private static String classPath() {
+    String path = System.getProperty("java.class.path", "");
+    try {
+      URL location = Translation.class.getProtectionDomain().getCodeSource().getLocation();
+      path = new File(location.toURI()).getPath() + File.pathSeparator + path;
+    } catch (URISyntaxException e) {
+      // just the class path, then
+    } catch (NullPointerException e) {
+      // no code source
+    }
+    return path;
+  }
+
+  private static void compile(File sourceFile, File output) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IOException("No Java compiler available");
+    }
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+    try {
+      List<String> options = new ArrayList<String>(Arrays.asList("-d", output.getPath(), "-classpath", classPath(),
+          "-nowarn"));
+      boolean ok = compiler.getTask(null, fileManager, diagnostics, options, null,
+          fileManager.getJavaFileObjects(sourceFile)).call();
+      if (!ok) {
+        StringWriter message = new StringWriter();
+        message.append("Cannot compile ").append(sourceFile.getPath());
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+          message.append('\n').append(diagnostic.toString());
+        }
+        throw new IOException(message.toString());
+      }
+    } finally {
+      fileManager.close();
+    }
+  }
+
+  private static String word(long word) {
+    return String.format("0x%010XL", word);
+  }
+
+  private static String kr(int kr) {
+    return String.format("0x%04X", kr);
+  }
+
+  /**
+   * Returns the source of the class translating an image.
+   */
+  public static String source(String key, long[] image) {
+    Disassembler disassembler = TapeRunner.newMachine().processor().disassembler();
+    List<Integer> addresses = new ArrayList<Integer>();
+    for (int address = 0; address < image.length; address++) {
+      if (image[address] != 0L) {
+        addresses.add(address);
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("package ").append(PACKAGE).append(";\n\n");
+    sb.append("import com.brunschen.christian.smil.Arithmetic;\n");
+    sb.append("import com.brunschen.christian.smil.Translation;\n\n");
+    sb.append("/**\n * Generated by the Translator from ").append(key).append("; do not edit.\n */\n");
+    sb.append("public final class ").append(className(key)).append(" extends Translation {\n");
+    sb.append("  private static final String KEY = \"").append(key).append("\";\n");
+    sb.append("  private static final int[] ADDRESSES = {");
+    for (int i = 0; i < addresses.size(); i++) {
+      sb.append(i % 8 == 0 ? "\n      " : " ").append(String.format("0x%03X,", addresses.get(i)));
+    }
+    sb.append("\n  };\n");
+    sb.append("  private static final long[] WORDS = {");
+    for (int i = 0; i < addresses.size(); i++) {
+      sb.append(i % 4 == 0 ? "\n      " : " ").append(word(image[addresses.get(i)])).append(',');
+    }
+    sb.append("\n  };\n\n");
+    sb.append("  public int[] addresses() {\n    return ADDRESSES.clone();\n  }\n\n");
+    sb.append("  public long[] words() {\n    return WORDS.clone();\n  }\n\n");
+    sb.append("  public String key() {\n    return KEY;\n  }\n\n");
+
+    // the halfwords, grouped into chunks
+    Map<Integer, List<Integer>> chunks = new TreeMap<Integer, List<Integer>>();
+    for (int address : addresses) {
+      for (int right = 0; right < 2; right++) {
+        int kr = address << 1 | right;
+        List<Integer> chunk = chunks.get(kr >>> CHUNK_BITS);
+        if (chunk == null) {
+          chunks.put(kr >>> CHUNK_BITS, chunk = new ArrayList<Integer>());
+        }
+        chunk.add(kr);
+      }
+    }
+
+    sb.append("  protected int execute(long tickLimit, long stepLimit) {\n");
+    sb.append("    while (true) {\n");
+    sb.append("      int result;\n");
+    sb.append("      switch (r.kr >>> ").append(CHUNK_BITS).append(") {\n");
+    for (int chunk : chunks.keySet()) {
+      sb.append("        case ").append(chunk).append(":\n");
+      sb.append("          result = chunk").append(chunk).append("(tickLimit, stepLimit);\n");
+      sb.append("          break;\n");
+    }
+    sb.append("        default:\n");
+    sb.append("          return FALLBACK;\n");
+    sb.append("      }\n");
+    sb.append("      if (result >= 0) {\n        return result;\n      }\n");
+    sb.append("    }\n  }\n");
+
+    for (Map.Entry<Integer, List<Integer>> chunk : chunks.entrySet()) {
+      sb.append("\n  private int chunk").append(chunk.getKey()).append("(long tickLimit, long stepLimit) {\n");
+      sb.append("    Arithmetic.Registers r = this.r;\n");
+      sb.append("    while (true) {\n");
+      sb.append("      if (ticks >= tickLimit || steps >= stepLimit) {\n        return LIMIT;\n      }\n");
+      sb.append("      switch (r.kr) {\n");
+      for (int kr : chunk.getValue()) {
+        long word = image[kr >>> 1];
+        int halfword = (int) ((kr & 1) != 0 ? word & SMIL.RIGHT_MASK : word >>> SMIL.HALFWORD_BITS);
+        sb.append("        case ").append(kr(kr)).append(": // ");
+        sb.append(String.format("[%03X.%d] %05X %s\n", kr >>> 1, kr & 1, halfword,
+            disassembler.describeOperation(halfword)));
+        halfword(sb, kr, word, halfword);
+      }
+      sb.append("        default:\n");
+      sb.append("          return (r.kr >>> ").append(CHUNK_BITS).append(") == ").append(chunk.getKey())
+          .append(" ? FALLBACK : -1;\n");
+      sb.append("      }\n");
+      sb.append("    }\n  }\n");
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static final String INDENT = "          ";
+
+  private static void line(StringBuilder sb, String s) {
+    sb.append(INDENT).append(s).append('\n');
+  }
+
+  /**
+   * Generates the code for one halfword, as Processor.oneStep() and the operation would execute it.
+   */
+  private static void halfword(StringBuilder sb, int kr, long word, int halfword) {
+    int address = halfword >>> 8 & 0xfff;
+    int group = halfword >>> 4 & 0xf;
+    int extras = halfword & 0xf;
+    boolean bit2 = SMIL.bitIsSet(extras, 2);
+    boolean bit3 = SMIL.bitIsSet(extras, 3);
+    String minus = Boolean.toString(bit3);
+    String absolute = Boolean.toString(bit2);
+
+    // the devices, and shifts that never finish, are left to the interpreter
+    if (group == 0x0 || group == 0xF || group == 0xD && extras >>> 2 != 1 && address > Arithmetic.BR_MASK) {
+      line(sb, "return FALLBACK;");
+      return;
+    }
+    line(sb, "if (r.ir != " + word(word) + ") {");
+    line(sb, "  return FALLBACK;");
+    line(sb, "}");
+    line(sb, String.format("counts[0x%X]++;", group));
+    if (Processor.shouldClearAr(extras)) {
+      line(sb, "r.ar = 0L;");
+    }
+    line(sb, "ticks += 6;");
+
+    String jump = null;
+    switch (group) {
+      case 0x1:
+        line(sb, String.format("r.md = read(0x%03X);", address));
+        line(sb, "r.ar = Arithmetic.add(r.ar, r.md, " + minus + ", " + absolute + ");");
+        line(sb, "ticks += 9 + Arithmetic.and(r);");
+        break;
+      case 0x2:
+        line(sb, "ticks += Arithmetic." + (bit3 ? "reverseMrIntoAr" : "copyMrToAr") + "(r);");
+        break;
+      case 0x3: {
+        long mask;
+        switch (extras >>> 2) {
+          case 1:
+            mask = 0xfff0000000L;
+            break;
+          case 2:
+            mask = 0x00000fff00L;
+            break;
+          case 3:
+            mask = 0xfff00fff00L;
+            break;
+          default:
+            mask = SMIL.WORD_MASK;
+            break;
+        }
+        line(sb, String.format("write(0x%03X, Arithmetic.arValue(r.ar), %s);", address, word(mask)));
+        line(sb, "ticks += 30;");
+        break;
+      }
+      case 0x4:
+        line(sb, String.format("r.md = read(0x%03X);", address));
+        line(sb, "r.ar = Arithmetic.add(r.ar, r.md, " + minus + ", " + absolute + ");");
+        line(sb, "r.mr = Arithmetic.mrFromAr(r.ar);");
+        line(sb, "ticks += 9;");
+        break;
+      case 0x5:
+        line(sb, String.format("r.md = read(0x%03X);", address));
+        line(sb, "r.ar = Arithmetic.add(r.ar, r.md, " + minus + ", " + absolute + ");");
+        line(sb, "ticks += 9;");
+        break;
+      case 0x6:
+        line(sb, String.format("r.md = read(0x%03X);", address));
+        line(sb, "ticks += Arithmetic.multiply(r);");
+        break;
+      case 0x7:
+        line(sb, String.format("r.md = read(0x%03X);", address));
+        line(sb, "ticks += Arithmetic.multiply(r);");
+        line(sb, "if ((r.mr & Arithmetic.MR_SIGN >>> 1) != 0L) {");
+        line(sb, "  r.ar = Arithmetic.increment(r.ar);");
+        line(sb, "}");
+        line(sb, "r.mr = 0L;");
+        break;
+      case 0x8:
+        line(sb, String.format("r.md = read(0x%03X);", address));
+        line(sb, "ticks += Arithmetic.divide(r);");
+        break;
+      case 0x9:
+        line(sb, "ticks += 9;");
+        jump = bit3 ? "Arithmetic.overflow(r.ar)" : "true";
+        break;
+      case 0xA:
+        line(sb, "ticks += 9;");
+        jump = (bit3 ? "" : "!") + "Arithmetic.isNegative(r.ar)";
+        break;
+      case 0xB:
+        if (bit3) {
+          line(sb, "ticks += 9;");
+        }
+        break;
+      case 0xC:
+        line(sb, "r.mr = 0L;");
+        line(sb, "ticks += 9 + Arithmetic.normalize(r);");
+        break;
+      case 0xD:
+        line(sb, "ticks += 9;");
+        switch (extras >>> 2) {
+          case 0:
+            line(sb, "ticks += Arithmetic.shiftLeft(r, " + address + ");");
+            break;
+          case 2:
+            line(sb, "ticks += Arithmetic.shiftRight(r, " + address + ", true);");
+            break;
+          case 3:
+            line(sb, "ticks += Arithmetic.shiftRight(r, " + address + ", false);");
+            break;
+          default:
+            break;
+        }
+        break;
+      default:
+        line(sb, "ticks += 9;");
+        break;
+    }
+
+    // advance KR, or jump, and reload IR after the right-hand halfword or a jump
+    int next = kr + 1 & Arithmetic.KR_MASK;
+    String advance = "r.kr = " + kr(next) + ";";
+    String reload = (kr & 1) != 0 ? String.format("r.ir = read(0x%03X);", next >>> 1) : null;
+    String target = "r.kr = " + kr(address << 1 | (bit2 ? 1 : 0)) + ";";
+    String load = String.format("r.ir = read(0x%03X);", address);
+    if ("true".equals(jump)) {
+      line(sb, target);
+      line(sb, load);
+    } else if (jump != null) {
+      line(sb, "if (" + jump + ") {");
+      line(sb, "  " + target);
+      line(sb, "  " + load);
+      line(sb, "} else {");
+      line(sb, "  " + advance);
+      if (reload != null) {
+        line(sb, "  " + reload);
+      }
+      line(sb, "}");
+    } else {
+      line(sb, advance);
+      if (reload != null) {
+        line(sb, reload);
+      }
+    }
+    line(sb, "steps++;");
+    if (group == 0xB && !bit3) {
+      line(sb, "return HALTED;");
+    } else {
+      line(sb, "break;");
+    }
+  }
+
+  /**
+   * Usage: Translator directory tape... Translates the program that the tapes, bundled tape names
+   * or files, load after the A1 loader, into the cache in the directory.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: Translator directory tape...");
+      System.exit(1);
+    }
+    Translator translator = new Translator(new File(args[0]));
+    List<Tape> tapes = new ArrayList<Tape>();
+    for (int i = 1; i < args.length; i++) {
+      tapes.add(SMIL.hasTape(args[i]) ? SMIL.tape(args[i]) : new Tape(new File(args[i])));
+    }
+    Translation translation = translator.translate(tapes);
+    System.out.format("%s: %d words, %s\n", translation.key(), translation.addresses().length,
+        translator.compiled() > 0 ? "translated" : "already in the cache");
+  }
+}
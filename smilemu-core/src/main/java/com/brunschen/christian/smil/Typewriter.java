@@ -25,6 +25,9 @@ public interface Typewriter {
 
   public String[] specialChars = new String[] { " ", "\n", ".", "\t", "-", "+", "_", "", "i", };
 
+  public String[] hexChars = new String[] { "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "A", "B", "C", "D",
+      "E", "F", };
+
   public abstract int length();
 
   public abstract String text();
@@ -39,7 +42,7 @@ public interface Typewriter {
   
   public abstract static class Default implements Typewriter {
     public void printHex(int d) {
-      append(String.format("%01X", d & 0xF));
+      append(hexChars[d & 0xF]);
     }
 
     public void printSpecial(int c) {
@@ -0,0 +1,11 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+/**
+ * Listens for changes to a value, such as a single bit of a register.
+ */
+public interface ValueChangeListener<T> {
+  void valueChanged(T oldValue, T newValue);
+}
@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Disabled by default, since there is one for every memory access; enable it in the recording's
+ * settings to see where the drum's rotation holds the processor up.
+ */
+@Name("com.brunschen.christian.smil.DrumWait")
+@Label("Drum Wait")
+@Category({ "SMIL", "Memory" })
+@Description("Waiting for the drum to rotate to an address")
+@Enabled(false)
+public class DrumWaitEvent extends Event {
+  @Label("Address")
+  public int address;
+
+  @Label("Wait Ticks")
+  public int waitTicks;
+}
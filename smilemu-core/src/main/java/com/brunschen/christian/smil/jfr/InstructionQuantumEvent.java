@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.brunschen.christian.smil.InstructionQuantum")
+@Label("Instruction Quantum")
+@Category({ "SMIL", "Processor" })
+@Description("A run of consecutive instructions executed by one machine")
+public class InstructionQuantumEvent extends Event {
+  @Label("Machine")
+  public int machine;
+
+  @Label("Instructions")
+  public int instructions;
+
+  @Label("Start Tick")
+  public long startTick;
+
+  @Label("End Tick")
+  public long endTick;
+}
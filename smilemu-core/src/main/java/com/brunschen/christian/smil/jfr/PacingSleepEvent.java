@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("com.brunschen.christian.smil.PacingSleep")
+@Label("Pacing Sleep")
+@Category({ "SMIL", "Clock" })
+@Description("The clock sleeping to keep emulated time from running ahead of real time")
+public class PacingSleepEvent extends Event {
+  @Label("Intended")
+  @Timespan(Timespan.NANOSECONDS)
+  public long intended;
+
+  @Label("Actual")
+  @Timespan(Timespan.NANOSECONDS)
+  public long actual;
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+/**
+ * Splits a machine's execution into InstructionQuantumEvents of about INSTRUCTIONS instructions
+ * each, so that recordings show how fast the machine ran without an event per instruction. When
+ * the event is not enabled, this costs one allocation per quantum.
+ */
+public class QuantumRecorder {
+  public static final int INSTRUCTIONS = 4096;
+
+  private int machine;
+  private InstructionQuantumEvent event = null;
+  private int instructions;
+  private long startTick;
+
+  public QuantumRecorder(int machine) {
+    this.machine = machine;
+  }
+
+  public void start(long tick) {
+    event = new InstructionQuantumEvent();
+    event.begin();
+    instructions = 0;
+    startTick = tick;
+  }
+
+  /**
+   * Counts one instruction, ending the quantum, and starting the next, if it is full.
+   */
+  public void step(long tick) {
+    step(tick, 1);
+  }
+
+  /**
+   * Counts 'count' instructions run together, as a fused word's are, so a quantum can end up to one
+   * instruction over INSTRUCTIONS.
+   */
+  public void step(long tick, int count) {
+    instructions += count;
+    if (instructions >= INSTRUCTIONS) {
+      finish(tick);
+      start(tick);
+    }
+  }
+
+  public void finish(long tick) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (instructions > 0 && event.shouldCommit()) {
+      event.machine = machine;
+      event.instructions = instructions;
+      event.startTick = startTick;
+      event.endTick = tick;
+      event.commit();
+    }
+    event = null;
+  }
+}
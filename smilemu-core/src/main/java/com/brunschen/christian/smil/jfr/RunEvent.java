@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.brunschen.christian.smil.Run")
+@Label("Run")
+@Category({ "SMIL", "Processor" })
+@Description("A machine running, from being started until it stopped")
+public class RunEvent extends Event {
+  @Label("Machine")
+  public int machine;
+
+  @Label("Instructions")
+  public long instructions;
+
+  @Label("Ticks")
+  public long ticks;
+}
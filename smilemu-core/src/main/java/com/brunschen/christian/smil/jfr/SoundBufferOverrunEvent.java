@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.brunschen.christian.smil.SoundBufferOverrun")
+@Label("Sound Buffer Overrun")
+@Category({ "SMIL", "Sound" })
+@Description("The sound buffer overran, and was made longer")
+public class SoundBufferOverrunEvent extends Event {
+  @Label("Old Length (ms)")
+  public int oldLengthMillis;
+
+  @Label("New Length (ms)")
+  public int newLengthMillis;
+}
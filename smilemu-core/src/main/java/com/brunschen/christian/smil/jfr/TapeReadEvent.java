@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.brunschen.christian.smil.TapeRead")
+@Label("Tape Read")
+@Category({ "SMIL", "Devices" })
+@Description("The tape reader reading one value from the tape")
+public class TapeReadEvent extends Event {
+  @Label("Location")
+  public int location;
+
+  @Label("Rows")
+  public int rows;
+
+  @Label("Value")
+  public int value;
+}
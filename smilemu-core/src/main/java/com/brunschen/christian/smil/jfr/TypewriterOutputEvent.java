@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.brunschen.christian.smil.TypewriterOutput")
+@Label("Typewriter Output")
+@Category({ "SMIL", "Devices" })
+@Description("One character printed on the typewriter")
+public class TypewriterOutputEvent extends Event {
+  @Label("Machine")
+  public int machine;
+
+  @Label("Character")
+  public int character;
+
+  @Label("Special")
+  public boolean special;
+}
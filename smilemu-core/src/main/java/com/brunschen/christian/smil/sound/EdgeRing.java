@@ -0,0 +1,117 @@
+package com.brunschen.christian.smil.sound;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size ring of timestamped level changes, passed from a single producer thread (the one
+ * running the emulated processor) to a single consumer thread (the one rendering audio), without
+ * any locking. All storage is allocated up front; when the ring is full, new edges are dropped and
+ * counted rather than making the producer wait.
+ */
+public class EdgeRing {
+  private final long[] ticks;
+  private final double[] values;
+  private final int mask;
+
+  // the index of the next edge to be written; only ever written by the producer
+  private final AtomicLong head = new AtomicLong();
+  // the index of the next edge to be read; only ever written by the consumer
+  private final AtomicLong tail = new AtomicLong();
+  // the producer's and consumer's latest views of each other's index
+  private long cachedTail = 0L;
+  private long cachedHead = 0L;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param capacity the number of edges the ring can hold, which is rounded up to a power of two
+   */
+  public EdgeRing(int capacity) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    ticks = new long[size];
+    values = new double[size];
+    mask = size - 1;
+  }
+
+  public int capacity() {
+    return ticks.length;
+  }
+
+  /**
+   * Adds an edge to the ring. Must only be called from the producer thread.
+   *
+   * @return true if the edge was added, false if the ring was full and the edge was dropped
+   */
+  public boolean offer(long tick, double value) {
+    long h = head.get();
+    if (h - cachedTail >= ticks.length) {
+      cachedTail = tail.get();
+      if (h - cachedTail >= ticks.length) {
+        dropped.incrementAndGet();
+        return false;
+      }
+    }
+    int i = (int) h & mask;
+    ticks[i] = tick;
+    values[i] = value;
+    head.lazySet(h + 1);
+    return true;
+  }
+
+  /**
+   * Returns whether there are no edges to read. Must only be called from the consumer thread.
+   */
+  public boolean isEmpty() {
+    long t = tail.get();
+    if (t == cachedHead) {
+      cachedHead = head.get();
+    }
+    return t == cachedHead;
+  }
+
+  /**
+   * Returns the tick of the oldest edge in the ring, which must not be empty. Must only be called
+   * from the consumer thread.
+   */
+  public long peekTick() {
+    return ticks[(int) tail.get() & mask];
+  }
+
+  /**
+   * Returns the value of the oldest edge in the ring, which must not be empty. Must only be called
+   * from the consumer thread.
+   */
+  public double peekValue() {
+    return values[(int) tail.get() & mask];
+  }
+
+  /**
+   * Removes the oldest edge from the ring, which must not be empty. Must only be called from the
+   * consumer thread.
+   */
+  public void remove() {
+    tail.lazySet(tail.get() + 1);
+  }
+
+  /**
+   * Discards all edges currently in the ring. Must only be called from the consumer thread.
+   */
+  public void clear() {
+    cachedHead = head.get();
+    tail.lazySet(cachedHead);
+  }
+
+  public int size() {
+    return (int) (head.get() - tail.get());
+  }
+
+  /**
+   * Returns the number of edges that have been dropped because the ring was full.
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+}
@@ -6,8 +6,9 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import com.brunschen.christian.graphic.ValueUpdatedListener;
 import com.brunschen.christian.smil.SMIL;
+import com.brunschen.christian.smil.ValueChangeListener;
+import com.brunschen.christian.smil.jfr.SoundBufferOverrunEvent;
 
 public abstract class SoundGenerator {
   public static final long MILLIS_PER_SECOND = 1000L;
@@ -49,7 +50,20 @@ public abstract class SoundGenerator {
   public Condition bufferEmpty = bufferLock.newCondition();
   public byte[] generationBuffer;
   
-  public Collection<ValueUpdatedListener<Integer>> bufferLengthMillisUpdatedListeners = new LinkedList<ValueUpdatedListener<Integer>>();
+  // edge-driven rendering: the emulator pushes timestamped level changes into 'edges', and the
+  // tickler thread renders them into the buffer, mapping ticks to frames.
+  public static final int EDGE_RING_CAPACITY = 8192;
+  public EdgeRing edges = new EdgeRing(EDGE_RING_CAPACITY);
+  public long ticksPerSecond = 0L;
+  public boolean anchored = false;
+  public long referenceTick;
+  public long referenceFrame;
+  public long framesRendered;
+  // set when writing to the buffer overran it; the buffer is only grown once rendering is done,
+  // since growing it restarts the generator and with it the render state
+  public boolean overran = false;
+
+  public Collection<ValueChangeListener<Integer>> bufferLengthMillisUpdatedListeners = new LinkedList<ValueChangeListener<Integer>>();
   public boolean pushingBufferLengthMillis;
 
   public void open() {
@@ -87,7 +101,11 @@ public abstract class SoundGenerator {
             now = System.nanoTime();
             if (nextWakeNanos <= now) {
 //               System.err.format("player thread: refreshing value\n");
-              refreshValue();
+              if (isEdgeDriven()) {
+                renderEdges();
+              } else {
+                refreshValue();
+              }
               int skipped = 0;
               while (nextWakeNanos <= now) {
                 nextWakeNanos += updateIntervalNanos;
@@ -185,8 +203,8 @@ public abstract class SoundGenerator {
     generationBuffer = new byte[bufferSizeBytes];
     
     pushingBufferLengthMillis = true;
-    for (ValueUpdatedListener<Integer> listener : bufferLengthMillisUpdatedListeners) {
-      listener.valueUpdated(oldBufferLengthMillis, newBufferLengthMillis);
+    for (ValueChangeListener<Integer> listener : bufferLengthMillisUpdatedListeners) {
+      listener.valueChanged(oldBufferLengthMillis, newBufferLengthMillis);
     }
     pushingBufferLengthMillis = false;
 
@@ -264,12 +282,7 @@ public abstract class SoundGenerator {
 //      System.err.format("after %d nanos, expected %d frames, %d already, generating %d frames\n",
 //          nanosPassed, expectedFramesSinceReference, framesSinceReference, nFrames);
       if (nFrames > 0) {
-        int nBytes = createBuffer(nFrames, value);
-        boolean overran = buffer.write(generationBuffer, 0, nBytes);
-        
-        if (overran) {
-          setBufferLengthMillis((int) Math.floor(1 + bufferLengthMillis * 1.5));
-        }
+        writeFrames(nFrames);
 
         framesSinceReference += nFrames;
         while (framesSinceReference > samplesPerTenthSecond
@@ -278,11 +291,44 @@ public abstract class SoundGenerator {
           framesSinceReference -= samplesPerTenthSecond;
           nanosPassed -= NANOS_PER_TENTH_SECOND;
         }
+        growBufferIfOverran();
       }
     } else {
 //      System.err.format("not receiving - not writing data to the buffer\n");
     }
     
+    deliver();
+    
+    // update the current value
+    value = Math.max(-1.0, Math.min(1.0, newValue));
+  }
+
+  private void writeFrames(int nFrames) {
+    int nBytes = createBuffer(nFrames, value);
+    if (buffer.write(generationBuffer, 0, nBytes)) {
+      overran = true;
+    }
+  }
+
+  /**
+   * Grows the buffer by half if writing to it overran since the last time. This restarts the
+   * generator, so it must not be called while rendering.
+   */
+  private void growBufferIfOverran() {
+    if (overran) {
+      overran = false;
+      int oldBufferLengthMillis = bufferLengthMillis;
+      setBufferLengthMillis((int) Math.floor(1 + bufferLengthMillis * 1.5));
+      SoundBufferOverrunEvent event = new SoundBufferOverrunEvent();
+      if (event.shouldCommit()) {
+        event.oldLengthMillis = oldBufferLengthMillis;
+        event.newLengthMillis = bufferLengthMillis;
+        event.commit();
+      }
+    }
+  }
+
+  private void deliver() {
     if (playing) {
       pushBufferToDestination();
         
@@ -297,9 +343,81 @@ public abstract class SoundGenerator {
     } else {
 //      System.err.format("not playing - not reading data from the buffer to the dataLine\n");
     }
-    
-    // update the current value
-    value = Math.max(-1.0, Math.min(1.0, newValue));
+  }
+
+  /**
+   * Makes this generator render from timestamped edges, passed to {@link #edge(long, double)},
+   * rather than from calls to {@link #setValue(double)}.
+   * 
+   * @param ticksPerSecond the frequency of the clock the edges' ticks are measured on
+   */
+  public void setTicksPerSecond(long ticksPerSecond) {
+    this.ticksPerSecond = ticksPerSecond;
+  }
+
+  public boolean isEdgeDriven() {
+    return ticksPerSecond > 0;
+  }
+
+  /**
+   * Records that the value changed at the given tick. This only puts the edge into a lock-free
+   * ring; the audio is rendered from it later, on the tickler thread. Must only be called from one
+   * thread, the one running the emulator.
+   */
+  public void edge(long tick, double newValue) {
+    newValue = Math.max(-1.0, Math.min(1.0, newValue));
+    if (receiving) {
+      edges.offer(tick, newValue);
+    } else {
+      value = newValue;
+    }
+  }
+
+  public long edgesDropped() {
+    return edges.dropped();
+  }
+
+  private long frameForTick(long tick) {
+    return referenceFrame + (long) ((tick - referenceTick) * (double) sampleRate / ticksPerSecond);
+  }
+
+  private void renderUntil(long frame) {
+    while (framesRendered < frame) {
+      int nFrames = (int) Math.min(frame - framesRendered, bufferSizeFrames);
+      writeFrames(nFrames);
+      framesRendered += nFrames;
+    }
+  }
+
+  /**
+   * Renders the edges received so far into the buffer, up to the current time less one update
+   * interval, which gives edges from the emulator time to arrive. Ticks are mapped to frames
+   * relative to an anchor, which is moved whenever the emulator falls behind or gets far ahead of
+   * real time, so that a slow or unpaced emulator does not make audio fall ever further behind.
+   */
+  public void renderEdges() {
+    if (receiving) {
+      long nanosPassed = System.nanoTime() - referenceNanos - updateIntervalNanos;
+      long horizon = (long) (nanosPassed * (double) sampleRate / NANOS_PER_SECOND);
+      while (!edges.isEmpty()) {
+        long tick = edges.peekTick();
+        long frame = anchored ? frameForTick(tick) : Long.MIN_VALUE;
+        if (frame < framesRendered || frame > horizon + 4 * bufferSizeFrames) {
+          referenceTick = tick;
+          referenceFrame = frame = Math.max(framesRendered, horizon);
+          anchored = true;
+        } else if (frame > horizon) {
+          // leave it for next time
+          break;
+        }
+        renderUntil(frame);
+        value = edges.peekValue();
+        edges.remove();
+      }
+      renderUntil(horizon);
+      growBufferIfOverran();
+    }
+    deliver();
   }
 
   public void refreshValue() {
@@ -321,6 +439,9 @@ public abstract class SoundGenerator {
       
       referenceNanos = System.nanoTime();
       framesSinceReference = 0;
+      framesRendered = 0L;
+      anchored = false;
+      overran = false;
       receiving = true;
       playing = true;
       
@@ -377,7 +498,7 @@ public abstract class SoundGenerator {
     }
     
     playing = false;
-    if (!isTickler) {
+    if (!isTickler && tickler != null) {
       tickler.interrupt();
     }
 
@@ -430,14 +551,16 @@ public abstract class SoundGenerator {
 
   public void setVolume(double newVolume) {
     volume = Math.max(0.0, Math.min(1.0, newVolume));
-    refreshValue();
+    if (!isEdgeDriven()) {
+      refreshValue();
+    }
   }
 
-  public void addBufferLengthMillisUpdatedListener(ValueUpdatedListener<Integer> valueUpdatedListener) {
+  public void addBufferLengthMillisUpdatedListener(ValueChangeListener<Integer> valueUpdatedListener) {
     bufferLengthMillisUpdatedListeners.add(valueUpdatedListener);
   }
   
-  public void removeBufferLengthMillisUpdatedListener(ValueUpdatedListener<Integer> valueUpdatedListener) {
+  public void removeBufferLengthMillisUpdatedListener(ValueChangeListener<Integer> valueUpdatedListener) {
     bufferLengthMillisUpdatedListeners.remove(valueUpdatedListener);
   }
 }
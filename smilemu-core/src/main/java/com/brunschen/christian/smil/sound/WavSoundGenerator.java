@@ -0,0 +1,234 @@
+package com.brunschen.christian.smil.sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.brunschen.christian.smil.SMIL;
+
+/**
+ * A sound generator that renders into a WAV file rather than to a sound device. Samples are placed
+ * purely by the emulated tick at which each edge happened, so the output is the same whether the
+ * emulator runs paced or at full speed, and no audio thread is involved: edges are rendered
+ * directly as they arrive, and the file is brought up to date whenever the emulator stops.
+ *
+ * The output is mono, 16-bit signed little-endian PCM. The header is rewritten with the current
+ * length each time the emulator stops, so the file is valid between runs; ticks restart from zero
+ * with each run, and each run's audio follows on from the previous one's.
+ */
+public class WavSoundGenerator extends SoundGenerator {
+  public static final int HEADER_SIZE = 44;
+
+  private File file;
+  private FileChannel channel = null;
+  private ByteBuffer out = ByteBuffer.allocateDirect(16384).order(ByteOrder.LITTLE_ENDIAN);
+  private long dataBytes = 0L;
+  private long runStartFrame = 0L;
+  private IOException failure = null;
+
+  public WavSoundGenerator(File file, int sampleRate) {
+    super();
+    this.file = file;
+    this.sampleRate = sampleRate;
+    samplesPerTenthSecond = sampleRate / 10;
+    bitsPerSample = 16;
+    channels = 1;
+    signed = true;
+    bigEndian = false;
+
+    bytesPerSample = bitsPerSample >> 3;
+    bytesPerFrame = bytesPerSample * channels;
+    amp = (1 << bitsPerSample - 1) - 1;
+    mid = 0;
+
+    setBufferLengthMillis(50);
+  }
+
+  public WavSoundGenerator(File file) {
+    this(file, 44100);
+  }
+
+  public File file() {
+    return file;
+  }
+
+  @Override
+  public boolean canGenerateSound() {
+    return true;
+  }
+
+  /**
+   * Opens the output file; unlike other sound generators, no tickler thread is started.
+   */
+  @Override
+  public void open() {
+    if (channel != null) {
+      return;
+    }
+    try {
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      channel.truncate(0L);
+      channel.position(HEADER_SIZE);
+      dataBytes = 0L;
+      framesRendered = 0L;
+      writeHeader();
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  @Override
+  public void close() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      flush();
+      channel.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    channel = null;
+  }
+
+  /**
+   * Returns the first I/O error that happened while writing the file, or null if there was none.
+   */
+  public IOException failure() {
+    return failure;
+  }
+
+  @Override
+  public void start() {
+    if (receiving) {
+      return;
+    }
+    open();
+    runStartFrame = framesRendered;
+    receiving = true;
+    playing = true;
+  }
+
+  @Override
+  public void stop(boolean finishPlaying, boolean retainData) {
+    receiving = false;
+    playing = false;
+    try {
+      flush();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+  }
+
+  @Override
+  public void edge(long tick, double newValue) {
+    newValue = Math.max(-1.0, Math.min(1.0, newValue));
+    if (receiving) {
+      renderUntilTick(tick);
+    }
+    value = newValue;
+  }
+
+  /**
+   * Renders the current value up to the given tick of the current run.
+   */
+  public void renderUntilTick(long tick) {
+    long frame = runStartFrame + tick * (long) sampleRate / ticksPerSecond;
+    if (frame <= framesRendered || channel == null || failure != null) {
+      return;
+    }
+    short sample = (short) Math.round(amp * value * volume);
+    try {
+      for (long n = frame - framesRendered; n > 0; n--) {
+        if (!out.hasRemaining()) {
+          drain();
+        }
+        out.putShort(sample);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    dataBytes += (frame - framesRendered) * bytesPerFrame;
+    framesRendered = frame;
+  }
+
+  private void drain() throws IOException {
+    out.flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+    out.clear();
+  }
+
+  /**
+   * Writes out all rendered samples, and updates the header to match.
+   */
+  public void flush() throws IOException {
+    if (channel != null && failure == null) {
+      drain();
+      writeHeader();
+      channel.force(false);
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    int byteRate = (int) sampleRate * bytesPerFrame;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put("RIFF".getBytes("US-ASCII"));
+    header.putInt((int) (HEADER_SIZE - 8 + dataBytes));
+    header.put("WAVE".getBytes("US-ASCII"));
+    header.put("fmt ".getBytes("US-ASCII"));
+    header.putInt(16);
+    header.putShort((short) 1); // PCM
+    header.putShort((short) channels);
+    header.putInt((int) sampleRate);
+    header.putInt(byteRate);
+    header.putShort((short) bytesPerFrame);
+    header.putShort((short) bitsPerSample);
+    header.put("data".getBytes("US-ASCII"));
+    header.putInt((int) dataBytes);
+    header.flip();
+    long position = 0L;
+    while (header.hasRemaining()) {
+      position += channel.write(header, position);
+    }
+  }
+
+  public long framesRendered() {
+    return framesRendered;
+  }
+
+  @Override
+  public SMIL.Listener smilListener() {
+    return new SMIL.Listener() {
+      public void onStart(SMIL smil) {
+        start();
+      }
+
+      public void onStop(SMIL smil) {
+        // bring the file up to the moment the emulator stopped
+        renderUntilTick(smil.tickClock().now());
+        stop();
+      }
+    };
+  }
+
+  @Override
+  public void startDestination() {
+  }
+
+  @Override
+  public void stopDestination(boolean finishPlaying, boolean retainData) {
+  }
+
+  @Override
+  public void pushBufferToDestination() {
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks every Arithmetic method against the Processor's bit-serial method of the same name, on
+ * random registers, including the ticks each one takes.
+ */
+public class TestArithmetic extends TestCase {
+  public static final int CASES = 2000;
+
+  private Random random = new Random(40L);
+  private SMIL smil;
+  private Processor processor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    smil = TapeRunner.newMachine();
+    smil.tickClock().setWillWait(false);
+    processor = smil.processor();
+  }
+
+  private long word() {
+    // favour the edges, where the carries and signs are
+    switch (random.nextInt(6)) {
+      case 0:
+        return 0L;
+      case 1:
+        return SMIL.WORD_MASK;
+      case 2:
+        return Arithmetic.WORD_SIGN;
+      case 3:
+        return Arithmetic.WORD_SIGN - 1;
+      default:
+        return random.nextLong() & SMIL.WORD_MASK;
+    }
+  }
+
+  private Arithmetic.Registers randomRegisters() {
+    Arithmetic.Registers r = new Arithmetic.Registers();
+    r.ar = word() << 1 | random.nextLong() & (Arithmetic.AR_EXTRA | Arithmetic.AR_LOW);
+    r.mr = word() << 1 | random.nextLong() & Arithmetic.MR_HIGH;
+    r.md = word();
+    r.ir = word();
+    r.kr = random.nextInt(Arithmetic.KR_MASK + 1);
+    r.br = random.nextInt(Arithmetic.BR_MASK + 1);
+    return r;
+  }
+
+  private interface Method {
+    int arithmetic(Arithmetic.Registers r);
+
+    void processor();
+  }
+
+  private void check(String name, Method method) {
+    for (int i = 0; i < CASES; i++) {
+      Arithmetic.Registers before = randomRegisters();
+      before.store(processor);
+      long ticks = smil.tickClock().now();
+      method.processor();
+      ticks = smil.tickClock().now() - ticks;
+      Arithmetic.Registers expected = new Arithmetic.Registers();
+      expected.load(processor);
+
+      Arithmetic.Registers actual = new Arithmetic.Registers(before);
+      int actualTicks = method.arithmetic(actual);
+      assertEquals(name + " of " + before, expected, actual);
+      assertEquals(name + " of " + before, ticks, actualTicks);
+    }
+  }
+
+  public void testAdd() {
+    for (int i = 0; i < CASES; i++) {
+      Arithmetic.Registers r = randomRegisters();
+      r.store(processor);
+      boolean minus = random.nextBoolean();
+      boolean absolute = random.nextBoolean();
+      processor.ar.add(processor.md, minus, absolute);
+      assertEquals(r.toString(), processor.ar.bits(), Arithmetic.add(r.ar, r.md, minus, absolute));
+      assertEquals(processor.ar.overflow(), Arithmetic.overflow(processor.ar.bits()));
+      long value = word();
+      processor.ar.setValue(value);
+      assertEquals(processor.ar.bits(), Arithmetic.arWithValue(value));
+      processor.mr.copy(processor.ar);
+      assertEquals(processor.mr.bits(), Arithmetic.mrFromAr(processor.ar.bits()));
+    }
+  }
+
+  public void testShifts() {
+    for (int i = 0; i < CASES; i++) {
+      Arithmetic.Registers r = randomRegisters();
+      r.store(processor);
+      processor.ar.shiftLeft();
+      assertEquals(processor.ar.bits(), Arithmetic.shiftLeft(r.ar));
+      for (boolean arithmetic : new boolean[] { false, true }) {
+        r.store(processor);
+        processor.ar.shiftRight(arithmetic);
+        assertEquals(processor.ar.bits(), Arithmetic.shiftRight(r.ar, arithmetic));
+      }
+      r.store(processor);
+      processor.ar.increment();
+      assertEquals(processor.ar.bits(), Arithmetic.increment(r.ar));
+    }
+  }
+
+  public void testAnd() {
+    check("and", new Method() {
+      public int arithmetic(Arithmetic.Registers r) {
+        return Arithmetic.and(r);
+      }
+
+      public void processor() {
+        processor.and();
+      }
+    });
+  }
+
+  public void testTransfers() {
+    check("copyMrToAr", new Method() {
+      public int arithmetic(Arithmetic.Registers r) {
+        return Arithmetic.copyMrToAr(r);
+      }
+
+      public void processor() {
+        processor.copyMrToAr();
+      }
+    });
+    check("reverseMrIntoAr", new Method() {
+      public int arithmetic(Arithmetic.Registers r) {
+        return Arithmetic.reverseMrIntoAr(r);
+      }
+
+      public void processor() {
+        processor.reverseMrIntoAr();
+      }
+    });
+  }
+
+  public void testMultiply() {
+    check("multiply", new Method() {
+      public int arithmetic(Arithmetic.Registers r) {
+        return Arithmetic.multiply(r);
+      }
+
+      public void processor() {
+        processor.multiply();
+      }
+    });
+  }
+
+  public void testDivide() {
+    check("divide", new Method() {
+      public int arithmetic(Arithmetic.Registers r) {
+        return Arithmetic.divide(r);
+      }
+
+      public void processor() {
+        processor.divide();
+      }
+    });
+  }
+
+  public void testNormalize() {
+    check("normalize", new Method() {
+      public int arithmetic(Arithmetic.Registers r) {
+        return Arithmetic.normalize(r);
+      }
+
+      public void processor() {
+        processor.normalize();
+      }
+    });
+  }
+
+  public void testShiftBy() {
+    for (final int n : new int[] { 0, 1, 7, 39, 40, 41, 63 }) {
+      check("shiftLeft " + n, new Method() {
+        public int arithmetic(Arithmetic.Registers r) {
+          return Arithmetic.shiftLeft(r, n);
+        }
+
+        public void processor() {
+          processor.shiftLeft(n);
+        }
+      });
+      for (final boolean arithmetic : new boolean[] { false, true }) {
+        check("shiftRight " + n, new Method() {
+          public int arithmetic(Arithmetic.Registers r) {
+            return Arithmetic.shiftRight(r, n, arithmetic);
+          }
+
+          public void processor() {
+            processor.shiftRight(n, arithmetic);
+          }
+        });
+      }
+    }
+    try {
+      Arithmetic.shiftLeft(new Arithmetic.Registers(), 64);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class TestAsyncDebugDestination extends TestCase {
+
+  private static class Collector implements SMIL.DebugDestination {
+    StringBuffer text = new StringBuffer();
+    CountDownLatch release = new CountDownLatch(0);
+    CountDownLatch entered = new CountDownLatch(1);
+
+    public void debug(String s) {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        // just carry on
+      }
+      text.append(s);
+    }
+  }
+
+  public void testDeliversEverythingInOrder() throws Exception {
+    Collector collector = new Collector();
+    AsyncDebugDestination destination = new AsyncDebugDestination(collector, 16,
+        AsyncDebugDestination.Policy.BLOCK);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      destination.debug(i + ",");
+      expected.append(i).append(',');
+    }
+    destination.flush();
+    assertEquals(expected.toString(), collector.text.toString());
+    assertEquals(1000, destination.delivered());
+    assertEquals(0, destination.dropped());
+    destination.close();
+  }
+
+  public void testDropNewest() throws Exception {
+    Collector collector = new Collector();
+    collector.release = new CountDownLatch(1);
+    AsyncDebugDestination destination = new AsyncDebugDestination(collector, 4,
+        AsyncDebugDestination.Policy.DROP_NEWEST);
+    destination.debug("a");
+    // wait for the writer thread to pick up "a" and get stuck delivering it
+    collector.entered.await();
+    for (String s : new String[] { "b", "c", "d", "e", "f", "g" }) {
+      destination.debug(s);
+    }
+    assertEquals(2, destination.dropped());
+    collector.release.countDown();
+    destination.close();
+    assertEquals("abcde", collector.text.toString());
+  }
+
+  public void testDropOldest() throws Exception {
+    Collector collector = new Collector();
+    collector.release = new CountDownLatch(1);
+    AsyncDebugDestination destination = new AsyncDebugDestination(collector, 4,
+        AsyncDebugDestination.Policy.DROP_OLDEST);
+    destination.debug("a");
+    collector.entered.await();
+    for (String s : new String[] { "b", "c", "d", "e", "f", "g" }) {
+      destination.debug(s);
+    }
+    assertEquals(2, destination.dropped());
+    collector.release.countDown();
+    destination.close();
+    assertEquals("adefg", collector.text.toString());
+  }
+
+  private static void raceClose(AsyncDebugDestination.Policy policy) throws Exception {
+    Collector collector = new Collector();
+    final AsyncDebugDestination destination = new AsyncDebugDestination(collector, 1, policy);
+    final CountDownLatch started = new CountDownLatch(4);
+    final AtomicBoolean stop = new AtomicBoolean();
+    Thread[] senders = new Thread[4];
+    for (int i = 0; i < senders.length; i++) {
+      senders[i] = new Thread() {
+        @Override
+        public void run() {
+          started.countDown();
+          while (!stop.get()) {
+            destination.debug("x");
+          }
+        }
+      };
+      senders[i].start();
+    }
+    started.await();
+    Thread.sleep(20L);
+    Thread closer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          destination.close();
+        } catch (InterruptedException e) {
+          // the test fails below
+        }
+      }
+    };
+    closer.start();
+    closer.join(10000L);
+    stop.set(true);
+    for (Thread sender : senders) {
+      sender.join();
+    }
+    assertFalse(policy + ": close() never returned", closer.isAlive());
+    // everything queued was either written, or, for DROP_OLDEST, dropped for a newer message
+    assertEquals(policy.toString(), destination.delivered(), collector.text.length());
+    if (policy == AsyncDebugDestination.Policy.DROP_OLDEST) {
+      assertTrue(destination.accepted() >= destination.delivered());
+    } else {
+      assertEquals(policy.toString(), destination.accepted(), destination.delivered());
+    }
+    long dropped = destination.dropped();
+    destination.debug("x");
+    assertEquals(dropped + 1, destination.dropped());
+  }
+
+  public void testSendersRacingClose() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      for (AsyncDebugDestination.Policy policy : AsyncDebugDestination.Policy.values()) {
+        raceClose(policy);
+      }
+    }
+  }
+
+  public void testWriter() throws Exception {
+    StringWriter sw = new StringWriter();
+    AsyncDebugDestination destination = AsyncDebugDestination.toWriter(sw, 8,
+        AsyncDebugDestination.Policy.BLOCK);
+    SMIL smil = new SMIL();
+    smil.setDebugDestination(destination);
+    smil.debug("hello, ");
+    smil.debug("world\n");
+    destination.close();
+    assertEquals("hello, world\n", sw.toString());
+    smil.debug("not delivered");
+    assertEquals(1, destination.dropped());
+  }
+}
@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import junit.framework.TestCase;
+
+public class TestDisassembler extends TestCase {
+
+  private Processor processor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    processor = new SMIL().processor();
+    processor.prepareOperations();
+  }
+
+  public void testMatchesPrintHalfword() {
+    Disassembler disassembler = new Disassembler(processor, 64);
+    for (int halfword = 0; halfword < 0x100000; halfword += 0x1f3) {
+      long word = ((long) halfword << 20) | (halfword ^ 0x5a5a5);
+      assertEquals(SMIL.printHalfword(processor.operations, word, false),
+          disassembler.describeHalfword(word, false));
+      assertEquals(SMIL.printHalfword(processor.operations, word, true),
+          disassembler.describeHalfword(word, true));
+      Operation op = processor.operation((halfword & 0xf0) >>> 4);
+      assertEquals(op.describe((halfword & 0xfff00) >>> 8, halfword & 0xf),
+          disassembler.describeOperation(halfword));
+    }
+  }
+
+  public void testReturnsCachedStrings() {
+    Disassembler disassembler = processor.disassembler();
+    String first = disassembler.describeHalfword(0x12345);
+    assertSame(first, disassembler.describeHalfword(0x12345));
+    processor.addOperation(0x4, processor.operation(0x4));
+    assertNotSame(first, disassembler.describeHalfword(0x12345));
+    assertEquals(first, disassembler.describeHalfword(0x12345));
+  }
+}
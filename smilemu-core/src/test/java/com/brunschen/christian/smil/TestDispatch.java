@@ -0,0 +1,89 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestDispatch extends TestCase {
+
+  private static void assertSameState(SMIL e, SMIL a) {
+    assertEquals(e.typewriter().text(), a.typewriter().text());
+    assertEquals(e.tickClock().now(), a.tickClock().now());
+    assertEquals(e.drumMemory().waitTicks(), a.drumMemory().waitTicks());
+    Arithmetic.Registers registers = new Arithmetic.Registers();
+    registers.load(e.processor());
+    Arithmetic.Registers actualRegisters = new Arithmetic.Registers();
+    actualRegisters.load(a.processor());
+    assertEquals(registers, actualRegisters);
+    assertTrue(Arrays.equals(e.processor().instructionCounts(), a.processor().instructionCounts()));
+    for (int address = 0; address < e.memory().length(); address++) {
+      assertEquals(e.memory().get(address), a.memory().get(address));
+    }
+  }
+
+  public void testDefault() {
+    assertEquals(Processor.Dispatch.OPERATIONS, new SMIL().processor().dispatch());
+    assertEquals(Processor.Dispatch.SWITCH, new SMIL(Processor.Dispatch.SWITCH).processor().dispatch());
+    assertEquals(Processor.Dispatch.SWITCH, new TapeRunner(Processor.Dispatch.SWITCH).smil().processor().dispatch());
+  }
+
+  public void testBundledPrograms() {
+    for (TapeRunner.Program program : TapeRunner.programs) {
+      TapeRunner operations = new TapeRunner();
+      TapeRunner.Result expected = operations.run(program);
+      TapeRunner switched = new TapeRunner(Processor.Dispatch.SWITCH);
+      TapeRunner.Result actual = switched.run(program);
+      assertEquals(program.name(), expected.output(), actual.output());
+      assertEquals(program.name(), expected.steps(), actual.steps());
+      assertEquals(program.name(), expected.halted(), actual.halted());
+      assertSameState(operations.smil(), switched.smil());
+    }
+  }
+
+  public void testWithFusion() {
+    TapeRunner.Program program = TapeRunner.program("Primes");
+    TapeRunner operations = new TapeRunner();
+    operations.run(program);
+    TapeRunner switched = new TapeRunner(Processor.Dispatch.SWITCH);
+    Fusion fusion = new Fusion();
+    switched.smil().processor().setFusion(fusion);
+    switched.run(program);
+    assertSameState(operations.smil(), switched.smil());
+    assertTrue(fusion.fusedSteps() > 0L);
+  }
+
+  public void testFuzzCases() {
+    Fuzzer fuzzer = new Fuzzer(50L, Fuzzer.EngineType.PROCESSOR, Fuzzer.EngineType.SWITCH);
+    for (long id = 0L; id < 2000L; id++) {
+      Fuzzer.Divergence divergence = fuzzer.check(fuzzer.generate(id));
+      assertNull(String.valueOf(divergence), divergence);
+    }
+  }
+
+  private static String trace(Processor.Dispatch dispatch) {
+    final StringBuilder sb = new StringBuilder();
+    TapeRunner runner = new TapeRunner(dispatch);
+    SMIL smil = runner.smil();
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    smil.setDebugDestination(new SMIL.DebugDestination() {
+      public void debug(String s) {
+        sb.append(s);
+      }
+    });
+    smil.setTrace(true);
+    for (String tape : TapeRunner.program("Primes").tapes()) {
+      runner.load(SMIL.tape(tape));
+    }
+    return sb.toString();
+  }
+
+  public void testTracing() {
+    // tracing goes through the operations, so it reads the same either way
+    String expected = trace(Processor.Dispatch.OPERATIONS);
+    assertTrue(expected.length() > 0);
+    assertEquals(expected, trace(Processor.Dispatch.SWITCH));
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestFusion extends TestCase {
+
+  private static void assertSameState(SMIL e, SMIL a) {
+    assertEquals(e.typewriter().text(), a.typewriter().text());
+    assertEquals(e.tickClock().now(), a.tickClock().now());
+    assertEquals(e.shouldStop(), a.shouldStop());
+    Arithmetic.Registers registers = new Arithmetic.Registers();
+    registers.load(e.processor());
+    Arithmetic.Registers actualRegisters = new Arithmetic.Registers();
+    actualRegisters.load(a.processor());
+    assertEquals(registers, actualRegisters);
+    assertTrue(Arrays.equals(e.processor().instructionCounts(), a.processor().instructionCounts()));
+    for (int address = 0; address < e.memory().length(); address++) {
+      assertEquals(e.memory().get(address), a.memory().get(address));
+    }
+  }
+
+  private static long fired(Fusion fusion) {
+    long total = 0L;
+    for (Fusion.Idiom idiom : Fusion.Idiom.values()) {
+      total += fusion.fired(idiom);
+    }
+    return total;
+  }
+
+  public void testIdioms() {
+    assertEquals(Fusion.Idiom.ADD_STORE, Fusion.Idiom.of(0x4025040630L));
+    assertEquals(Fusion.Idiom.ADD_ADD, Fusion.Idiom.of(0x4015240350L));
+    assertEquals(Fusion.Idiom.STORE_ADD, Fusion.Idiom.of(0x7C03040652L));
+    assertEquals(Fusion.Idiom.ADD_JUMP, Fusion.Idiom.of(0x40052404A0L));
+    assertEquals(Fusion.Idiom.SHIFT_PRINT, Fusion.Idiom.of(0x004D0000F0L));
+    assertEquals(Fusion.Idiom.JUMP_PAIR, Fusion.Idiom.of(0x40EA840898L));
+    // a shift by 64 never finishes, and an unconditional jump never gets to its right-hand halfword
+    assertNull(Fusion.Idiom.of(0x040D0000F0L));
+    assertNull(Fusion.Idiom.of(0x4089040898L));
+    assertNull(Fusion.Idiom.of(0x001F8FFFB0L));
+  }
+
+  public void testBundledPrograms() {
+    for (TapeRunner.Program program : TapeRunner.programs) {
+      for (int threshold : new int[] { 1, Fusion.DEFAULT_THRESHOLD }) {
+        TapeRunner interpreted = new TapeRunner();
+        TapeRunner.Result expected = interpreted.run(program);
+
+        TapeRunner fused = new TapeRunner();
+        Fusion fusion = new Fusion(threshold);
+        fused.smil().processor().setFusion(fusion);
+        TapeRunner.Result actual = fused.run(program);
+        assertEquals(program.name(), expected.output(), actual.output());
+        assertEquals(program.name(), expected.steps(), actual.steps());
+        assertEquals(program.name(), expected.halted(), actual.halted());
+        assertSameState(interpreted.smil(), fused.smil());
+        assertTrue(program.name(), fired(fusion) > 0L);
+        assertTrue(program.name(), fusion.fusedWords() > 0);
+      }
+    }
+  }
+
+  public void testPrimesProfile() {
+    TapeRunner runner = new TapeRunner();
+    Fusion fusion = new Fusion();
+    runner.smil().processor().setFusion(fusion);
+    runner.run(TapeRunner.program("Primes"));
+    // 407 and 40B add, then store the result
+    assertTrue(fusion.fired(Fusion.Idiom.ADD_STORE) > 0L);
+    assertTrue(fusion.pairCount(0x5, 0x3) >= fusion.fired(Fusion.Idiom.ADD_STORE));
+    assertTrue(fusion.tripleCount(0x5, 0x5, 0x3) > 0L);
+    assertTrue(fusion.report(4).contains("ADD_STORE"));
+
+    fusion.resetCounters();
+    assertEquals(0L, fired(fusion));
+    assertEquals(0L, fusion.pairCount(0x5, 0x3));
+    assertEquals(0L, fusion.fusedSteps());
+  }
+
+  public void testLimitsBetweenHalfwords() {
+    TapeRunner.Program program = TapeRunner.program("Primes");
+    // every step and tick limit in a stretch of the program stops both machines at the same place,
+    // including those that fall between the halfwords of a fused word
+    for (long limit = 2000L; limit < 2040L; limit++) {
+      TapeRunner interpreted = new TapeRunner();
+      interpreted.setStepLimit(interpreted.steps() + limit + 1000L);
+      interpreted.run(program);
+      TapeRunner fused = new TapeRunner();
+      fused.smil().processor().setFusion(new Fusion(1));
+      fused.setStepLimit(fused.steps() + limit + 1000L);
+      fused.run(program);
+      assertEquals(interpreted.steps(), fused.steps());
+      assertSameState(interpreted.smil(), fused.smil());
+    }
+    TapeRunner reference = new TapeRunner();
+    reference.run(program);
+    long ticks = reference.smil().tickClock().now();
+    for (long limit = ticks / 2; limit < ticks / 2 + 400L; limit += 7L) {
+      TapeRunner interpreted = new TapeRunner();
+      interpreted.setTickLimit(limit);
+      interpreted.run(program);
+      TapeRunner fused = new TapeRunner();
+      fused.smil().processor().setFusion(new Fusion(1));
+      fused.setTickLimit(limit);
+      fused.run(program);
+      assertEquals(interpreted.steps(), fused.steps());
+      assertSameState(interpreted.smil(), fused.smil());
+    }
+  }
+
+  public void testRunFuses() {
+    TapeRunner.Program program = TapeRunner.program("Primes");
+    TapeRunner interpreted = new TapeRunner();
+    interpreted.run(program);
+
+    TapeRunner loader = new TapeRunner();
+    loader.reset();
+    loader.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    for (String tape : program.tapes()) {
+      loader.load(SMIL.tape(tape));
+    }
+    SMIL smil = loader.smil();
+    Fusion fusion = new Fusion(1);
+    smil.processor().setFusion(fusion);
+    smil.processor().jump(program.start(), false);
+    smil.processor().loadIrIfNecessary();
+    smil.setRunMode(true, false);
+    smil.run();
+    assertEquals(interpreted.smil().typewriter().text(), smil.typewriter().text());
+    assertEquals(interpreted.smil().processor().instructionCount(), smil.processor().instructionCount());
+    assertTrue(fired(fusion) > 0L);
+  }
+
+  public void testFuzzCases() {
+    Fuzzer.FusedEngine fused = new Fuzzer.FusedEngine();
+    Fuzzer fuzzer = new Fuzzer(49L, new Fuzzer.ProcessorEngine(), fused);
+    for (long id = 0L; id < 500L; id++) {
+      Fuzzer.Divergence divergence = fuzzer.check(fuzzer.generate(id));
+      assertNull(String.valueOf(divergence), divergence);
+    }
+    assertTrue(fused.fusedSteps() > 0L);
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import junit.framework.TestCase;
+
+public class TestFuzzer extends TestCase {
+
+  /**
+   * A Processor that gets the rounding multiply one tick wrong.
+   */
+  private static class BrokenEngine extends Fuzzer.ProcessorEngine {
+    private Arithmetic.Registers registers = new Arithmetic.Registers();
+    private long extraTicks;
+
+    @Override
+    public String name() {
+      return "Broken";
+    }
+
+    @Override
+    public void load(Fuzzer.Case c) {
+      super.load(c);
+      extraTicks = 0L;
+    }
+
+    @Override
+    public void step() {
+      registers(registers);
+      if ((registers.halfword() >>> 4 & 0xf) == 0x7) {
+        extraTicks++;
+      }
+      super.step();
+    }
+
+    @Override
+    public long ticks() {
+      return super.ticks() + extraTicks;
+    }
+  }
+
+  public void testEnginesAgree() throws Exception {
+    Fuzzer.Report report = Fuzzer.fuzz(3000L, 60000L, 2, 47L, Fuzzer.EngineType.values());
+    assertEquals(3000L, report.cases());
+    assertTrue(report.steps() > 3000L);
+    assertEquals(report.divergences().toString(), 0, report.divergences().size());
+  }
+
+  public void testCasesAreReproducible() throws Exception {
+    Fuzzer fuzzer = new Fuzzer(47L, Fuzzer.EngineType.values());
+    assertEquals(fuzzer.generate(12L), fuzzer.generate(12L));
+    assertFalse(fuzzer.generate(12L).equals(fuzzer.generate(13L)));
+  }
+
+  public void testDivergenceIsMinimized() throws Exception {
+    Fuzzer fuzzer = new Fuzzer(47L, new Fuzzer.ProcessorEngine(), new BrokenEngine());
+    Fuzzer.Divergence divergence = null;
+    for (long id = 0L; divergence == null; id++) {
+      divergence = fuzzer.check(fuzzer.generate(id));
+    }
+    assertEquals("Broken", divergence.engine());
+
+    Fuzzer.Divergence minimized = fuzzer.minimize(divergence);
+    Fuzzer.Case c = minimized.testCase();
+    assertEquals(1, minimized.step());
+    assertEquals(1, c.steps);
+    assertEquals(0x7, c.registers.halfword() >>> 4 & 0xf);
+    assertEquals(0L, c.registers.ar);
+    assertEquals(0L, c.ticks);
+    int words = 0;
+    for (long word : c.memory) {
+      if (word != 0L) {
+        words++;
+      }
+    }
+    assertTrue(words <= 2);
+
+    // the reproducer tape replays the same case
+    Tape tape = minimized.tape();
+    Fuzzer.Case replayed = Fuzzer.Case.fromTape(tape);
+    assertEquals(c, replayed);
+    assertNotNull(fuzzer.check(replayed));
+
+    // and loads into memory with the A1 loader
+    TapeRunner runner = new TapeRunner();
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    runner.load(tape);
+    for (int address = Fuzzer.CODE_START; address < c.memory.length; address++) {
+      assertEquals(c.memory[address], runner.smil().memory().get(address));
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestJobServer extends TestCase {
+
+  private JobServer server;
+  private MetricsExporter metrics;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    metrics = new MetricsExporter();
+    server = new JobServer(1, metrics);
+    server.start(0);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    server = null;
+    super.tearDown();
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = is.read(buf)) > 0) {
+      bytes.write(buf, 0, n);
+    }
+    is.close();
+    return bytes.toByteArray();
+  }
+
+  private static String resource(String name) throws IOException {
+    return new String(readAll(TestJobServer.class.getResourceAsStream(name)), StandardCharsets.UTF_8);
+  }
+
+  private HttpURLConnection post(String query, String body) throws IOException {
+    URL url = new URL("http://127.0.0.1:" + server.port() + JobServer.PATH + "?" + query);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    OutputStream os = connection.getOutputStream();
+    os.write(body.getBytes(StandardCharsets.UTF_8));
+    os.close();
+    return connection;
+  }
+
+  private String submit(String query, String body) throws IOException {
+    HttpURLConnection connection = post(query, body);
+    try {
+      assertEquals(200, connection.getResponseCode());
+      return new String(readAll(connection.getInputStream()), StandardCharsets.UTF_8);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static String output(String response) {
+    return response.substring(0, response.lastIndexOf("\n#"));
+  }
+
+  private static String status(String response) {
+    return response.substring(response.lastIndexOf("\n#") + 1).trim();
+  }
+
+  public void testBundledTapes() throws Exception {
+    String tapes = URLEncoder.encode("Primes,Print Integer", "UTF-8");
+    String response = submit("tapes=" + tapes + "&start=405L", "");
+    assertEquals(resource("Baselines/Primes.txt"), output(response));
+    assertTrue(status(response), status(response).startsWith("# status=halted ticks=8679447 instructions=6681 "));
+
+    // the same machine is reused, and must give exactly the same result
+    assertEquals(response.substring(0, response.indexOf("millis=")),
+        submit("tapes=" + tapes + "&start=405", "").substring(0, response.indexOf("millis=")));
+    assertEquals(2L, metrics.jobsCompleted());
+    assertEquals(0L, metrics.jobsFailed());
+  }
+
+  public void testUploadedTape() throws Exception {
+    String response = submit("tapes=Primes&start=405", resource("/com/brunschen/christian/smil/Tapes/PrintInteger"));
+    assertEquals(resource("Baselines/Primes.txt"), output(response));
+    assertTrue(status(response).startsWith("# status=halted "));
+  }
+
+  public void testBudgets() throws Exception {
+    String tapes = URLEncoder.encode("Primes,Print Integer", "UTF-8");
+    String response = submit("tapes=" + URLEncoder.encode("Sine Wave", "UTF-8") + "&start=405&ticks=2000000", "");
+    assertTrue(status(response), status(response).startsWith("# status=tick_limit "));
+    response = submit("tapes=" + tapes + "&start=405&instructions=1000", "");
+    assertTrue(status(response), status(response).startsWith("# status=instruction_limit ticks="));
+    assertTrue(status(response).contains(" instructions=1000 "));
+  }
+
+  public void testOnlyCachedTranslations() throws Exception {
+    File directory = File.createTempFile("translations", "");
+    directory.delete();
+    directory.mkdirs();
+    try {
+      Translator translator = new Translator(directory);
+      server.setTranslator(translator);
+      String tapes = URLEncoder.encode("Primes,Print Integer", "UTF-8");
+      String response = submit("tapes=" + tapes + "&start=405", "");
+      assertEquals(resource("Baselines/Primes.txt"), output(response));
+      // a job never compiles anything itself
+      assertEquals(0L, translator.compiled());
+      assertEquals(0, directory.list().length);
+
+      if (Translator.canCompile()) {
+        translator.translate(Arrays.asList(SMIL.tape("Primes"), SMIL.tape("Print Integer")));
+        assertEquals(resource("Baselines/Primes.txt"), output(submit("tapes=" + tapes + "&start=405", "")));
+        assertEquals(1L, translator.compiled());
+      }
+    } finally {
+      server.setTranslator(null);
+      delete(directory);
+    }
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+
+  public void testClientGoneStopsJob() throws Exception {
+    JobServer.Job job = new JobServer.Job();
+    job.addTape("Primes");
+    job.addTape("Print Integer");
+    job.setStart(0x405, false);
+    OutputStream gone = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    };
+    JobServer.Outcome outcome = server.run(job, gone);
+    assertEquals(JobServer.Status.FAILED, outcome.status());
+    assertTrue(outcome.error(), outcome.error().contains("Broken pipe"));
+    // it stopped at the end of the first line, long before Primes is done
+    assertTrue(outcome.instructions() < 6681L);
+  }
+
+  public void testBadRequests() throws Exception {
+    HttpURLConnection connection = post("tapes=NoSuchTape", "");
+    assertEquals(400, connection.getResponseCode());
+    connection.disconnect();
+    connection = post("tapes=Primes&mode=sideways", "");
+    assertEquals(400, connection.getResponseCode());
+    connection.disconnect();
+    for (String budget : new String[] { "ticks", "instructions", "timeout" }) {
+      connection = post("tapes=Primes&" + budget + "=-1", "");
+      assertEquals(budget, 400, connection.getResponseCode());
+      connection.disconnect();
+    }
+
+    connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.port() + JobServer.PATH).openConnection();
+    assertEquals(405, connection.getResponseCode());
+    connection.disconnect();
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that every lane ends up exactly where a scalar machine running the same program from the
+ * same state does.
+ */
+public class TestLockstep extends TestCase {
+
+  private static String resource(String name) throws IOException {
+    InputStream is = TestLockstep.class.getResourceAsStream(name);
+    StringBuilder sb = new StringBuilder();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = is.read(buf)) > 0) {
+      sb.append(new String(buf, 0, n, "UTF-8"));
+    }
+    is.close();
+    return sb.toString();
+  }
+
+  private static TapeRunner loaded(String... tapes) {
+    TapeRunner runner = new TapeRunner();
+    runner.smil().tickClock().setWillWait(false);
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    for (String tape : tapes) {
+      runner.load(SMIL.tape(tape));
+    }
+    runner.smil().typewriter().clear();
+    return runner;
+  }
+
+  private static void assertSameAs(SMIL smil, boolean halted, Lockstep lockstep, int lane) {
+    Arithmetic.Registers expected = new Arithmetic.Registers();
+    expected.load(smil.processor());
+    assertEquals("lane " + lane, expected, lockstep.registers(lane));
+    assertEquals("lane " + lane, smil.tickClock().now(), lockstep.ticks(lane));
+    assertEquals("lane " + lane, smil.typewriter().text(), lockstep.output(lane));
+    assertEquals("lane " + lane, halted, lockstep.isHalted(lane));
+    long[] memory = lockstep.memory(lane);
+    for (int address = 0; address < memory.length; address++) {
+      assertEquals("lane " + lane + " [" + address + "]", smil.memory().get(address), memory[address]);
+    }
+  }
+
+  public void testPrimesOnEveryLane() throws Exception {
+    // every lane loads the tapes through its own reader, from tape start
+    Lockstep lockstep = new Lockstep(Lockstep.MAX_LANES);
+    for (String tape : new String[] { TapeRunner.LOADER, "Primes", "Print Integer" }) {
+      for (int lane = 0; lane < lockstep.lanes(); lane++) {
+        lockstep.setTape(lane, SMIL.tape(tape));
+        if (tape.equals(TapeRunner.LOADER)) {
+          lockstep.tapeStart(lane);
+        } else {
+          lockstep.start(lane, TapeRunner.LOADER_START, false);
+        }
+      }
+      assertTrue(lockstep.run());
+    }
+    for (int lane = 0; lane < lockstep.lanes(); lane++) {
+      lockstep.start(lane, 0x405, false);
+    }
+    lockstep.resetCounters();
+    assertTrue(lockstep.run());
+    assertEquals(0L, lockstep.divergentSteps());
+    assertEquals(lockstep.steps() * Lockstep.MAX_LANES, lockstep.laneSteps());
+
+    TapeRunner runner = loaded("Primes", "Print Integer");
+    long steps = runner.steps();
+    assertTrue(runner.start(0x405, false));
+    assertEquals(runner.steps() - steps, lockstep.steps());
+    assertEquals(8679447L, runner.smil().tickClock().now());
+    assertEquals(resource("Baselines/Primes.txt"), runner.smil().typewriter().text());
+    for (int lane = 0; lane < lockstep.lanes(); lane++) {
+      assertSameAs(runner.smil(), true, lockstep, lane);
+    }
+  }
+
+  public void testDivergentLanes() throws Exception {
+    // the memory dump routine prints from the address in AR; different addresses take different
+    // branches and print different numbers of lines, and some never finish
+    long[] starts = new long[] { 0xf00L, 0x1000L, 0x100L, 0xf80L, 0x10f00L, 0x12345L, 1L, 0x8000000f00L };
+    long tickLimit = 5000000L;
+    Random random = new Random(46L);
+    TapeRunner runner = loaded("B2");
+    Lockstep lockstep = new Lockstep(24);
+    long[] ar = new long[lockstep.lanes()];
+    for (int lane = 0; lane < lockstep.lanes(); lane++) {
+      ar[lane] = lane < starts.length ? starts[lane] : random.nextLong() & 0x0000001fffL;
+      lockstep.load(lane, runner.smil());
+      lockstep.registers(lane).ar = Arithmetic.arWithValue(ar[lane]);
+      lockstep.start(lane, 0x0e2, false);
+    }
+    assertFalse(lockstep.run(tickLimit, Long.MAX_VALUE));
+    assertTrue(lockstep.divergentSteps() > 0L);
+    assertTrue(lockstep.halted() != 0L);
+
+    SMIL smil = runner.smil();
+    long[] memory = new long[Lockstep.MEMORY_WORDS];
+    for (int address = 0; address < memory.length; address++) {
+      memory[address] = smil.memory().get(address);
+    }
+    long startTicks = smil.tickClock().now();
+    Arithmetic.Registers registers = new Arithmetic.Registers();
+    registers.load(smil.processor());
+    for (int lane = 0; lane < lockstep.lanes(); lane++) {
+      smil.memory().set(0, memory, 0, memory.length);
+      registers.store(smil.processor());
+      smil.processor().ar.setValue(ar[lane]);
+      smil.tickClock().reset();
+      smil.tickClock().sleep(startTicks);
+      smil.typewriter().clear();
+      runner.setTickLimit(tickLimit);
+      boolean halted = runner.start(0x0e2, false);
+      assertSameAs(smil, halted, lockstep, lane);
+    }
+  }
+
+  public void testMatchesScalarOnRandomPrograms() throws Exception {
+    // random straight-line arithmetic, with conditional jumps that send lanes different ways
+    Random random = new Random(4600L);
+    int[] groups = new int[] { 0x1, 0x2, 0x3, 0x4, 0x5, 0x6, 0x7, 0x8, 0x9, 0xA, 0xC, 0xD, 0xE };
+    for (int program = 0; program < 20; program++) {
+      long[] image = new long[Lockstep.MEMORY_WORDS];
+      for (int address = 0; address < 0x100; address++) {
+        int[] halfwords = new int[2];
+        for (int h = 0; h < 2; h++) {
+          int group = groups[random.nextInt(groups.length)];
+          int extras = random.nextInt(16);
+          int target = 0x101 + random.nextInt(0xff);
+          if (group == 0x9 || group == 0xA) {
+            // jump forward, so every program finishes
+            target = Math.min(address + 1 + random.nextInt(4), 0x100);
+          } else if (group == 0xD) {
+            target = random.nextInt(Arithmetic.BR_MASK + 1);
+          }
+          halfwords[h] = target << 8 | group << 4 | extras;
+        }
+        image[address] = (long) halfwords[0] << SMIL.HALFWORD_BITS | halfwords[1];
+      }
+      image[0x100] = 0x000b0000b0L;
+      for (int address = 0x101; address < 0x200; address++) {
+        image[address] = random.nextLong() & SMIL.WORD_MASK;
+      }
+
+      Lockstep lockstep = new Lockstep(16);
+      long[] ar = new long[lockstep.lanes()];
+      for (int lane = 0; lane < lockstep.lanes(); lane++) {
+        ar[lane] = random.nextLong() & SMIL.WORD_MASK;
+        System.arraycopy(image, 0, lockstep.memory(lane), 0, image.length);
+        lockstep.registers(lane).ar = Arithmetic.arWithValue(ar[lane]);
+        lockstep.start(lane, 0, false);
+      }
+      assertTrue(lockstep.run(Long.MAX_VALUE, 100000L));
+
+      TapeRunner runner = new TapeRunner();
+      SMIL smil = runner.smil();
+      smil.tickClock().setWillWait(false);
+      for (int lane = 0; lane < lockstep.lanes(); lane++) {
+        runner.reset();
+        smil.memory().set(0, image, 0, image.length);
+        smil.processor().ar.setValue(ar[lane]);
+        assertTrue(runner.start(0, false));
+        assertSameAs(smil, true, lockstep, lane);
+      }
+    }
+  }
+}
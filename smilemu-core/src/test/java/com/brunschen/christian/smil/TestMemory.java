@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestMemory extends TestCase {
+
+  private static class Ranges implements MemoryChangeListener {
+    List<String> ranges = new ArrayList<String>();
+
+    public synchronized void memoryChanged(Memory memory, int address, int length) {
+      ranges.add(String.format("%03X+%d", address, length));
+    }
+
+    public synchronized void memoryChanged(Memory memory, int address) {
+      ranges.add(String.format("%03X", address));
+    }
+  }
+
+  public void testDirtyRanges() {
+    Memory memory = new Memory(0x800, SMIL.WORD_BITS);
+    Memory.DirtyWords dirty = memory.trackChanges();
+    assertTrue(dirty.isEmpty());
+
+    memory.set(5, 1L);
+    memory.set(5, 2L);
+    memory.set(6, 3L);
+    memory.set(0x40, 4L);
+    memory.set(0x3f0, new long[0x20], 0, 0x20);
+    memory.set(0x7ff, 5L);
+    assertTrue(dirty.isDirty(6));
+    assertFalse(dirty.isDirty(7));
+
+    Ranges ranges = new Ranges();
+    assertEquals(2 + 1 + 0x20 + 1, dirty.drain(ranges));
+    assertEquals("[005+2, 040, 3F0+32, 7FF]", ranges.ranges.toString());
+    assertTrue(dirty.isEmpty());
+
+    memory.stopTrackingChanges(dirty);
+    memory.set(1, 1L);
+    assertTrue(dirty.isEmpty());
+  }
+
+  public void testWrappingBulkSet() {
+    Memory memory = new Memory(0x10, SMIL.WORD_BITS);
+    Memory.DirtyWords dirty = memory.trackChanges();
+    memory.set(0xe, new long[] { 1L, 2L, 3L, 4L }, 0, 4);
+    assertEquals(1L, memory.get(0xe));
+    assertEquals(2L, memory.get(0xf));
+    assertEquals(3L, memory.get(0x0));
+    assertEquals(4L, memory.get(0x1));
+    Ranges ranges = new Ranges();
+    dirty.drain(ranges);
+    assertEquals("[000+2, 00E+2]", ranges.ranges.toString());
+  }
+
+  public void testChangeListenersAreCalledOffTheWritingThread() throws Exception {
+    Memory memory = new Memory(0x800, SMIL.WORD_BITS);
+    final Thread writer = Thread.currentThread();
+    final boolean[] onWriter = new boolean[1];
+    Ranges ranges = new Ranges() {
+      @Override
+      public synchronized void memoryChanged(Memory memory, int address, int length) {
+        onWriter[0] |= Thread.currentThread() == writer;
+        super.memoryChanged(memory, address, length);
+      }
+    };
+    memory.addChangeListener(ranges);
+    for (int i = 0; i < 1000; i++) {
+      memory.set(0x100 + i % 16, i);
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      synchronized (ranges) {
+        if (!ranges.ranges.isEmpty()) {
+          break;
+        }
+      }
+      Thread.sleep(Memory.DISPATCH_INTERVAL_MILLIS);
+    }
+    memory.removeChangeListener(ranges);
+    synchronized (ranges) {
+      assertEquals("[100+16]", ranges.ranges.toString());
+    }
+    assertFalse(onWriter[0]);
+  }
+}
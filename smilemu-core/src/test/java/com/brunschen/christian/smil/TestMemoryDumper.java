@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestMemoryDumper extends TestCase {
+
+  private SMIL smil;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    smil = new SMIL();
+    smil.processor().prepareOperations();
+  }
+
+  private String printWords(Memory memory) {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    int start = 0;
+    long previous = memory.get(0);
+    for (int i = 1; i < memory.length(); i++) {
+      long m = memory.get(i);
+      if (m != previous) {
+        smil.printWord(pw, start, i - 1, previous);
+        pw.print("\n");
+        start = i;
+        previous = m;
+      }
+    }
+    smil.printWord(pw, start, memory.length() - 1, previous);
+    pw.print("\n");
+    pw.close();
+    return sw.toString();
+  }
+
+  public void testMatchesPrintWord() throws Exception {
+    Random random = new Random(4711);
+    Memory memory = smil.memory();
+    for (int i = 0; i < memory.length(); i++) {
+      // leave some runs of identical words
+      if (i % 7 != 0) {
+        memory.set(i, random.nextLong());
+      }
+    }
+    memory.set(0x7ff, SMIL.SIGN_BIT_MASK);
+    memory.set(0x7fe, SMIL.WORD_MASK);
+
+    StringWriter sw = new StringWriter();
+    smil.dumpMemory(sw, 0, memory.length() - 1);
+    assertEquals(printWords(memory), sw.toString());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    smil.dumpMemory(Channels.newChannel(bytes), 0, memory.length() - 1);
+    assertEquals(printWords(memory), bytes.toString());
+  }
+
+  public void testRange() throws Exception {
+    smil.memory().set(0x10, 0x0123456789L);
+    StringWriter sw = new StringWriter();
+    smil.dumpMemory(sw, 0x0c, 0x12);
+    String[] lines = sw.toString().split("\n");
+    assertTrue(lines[0].startsWith("00C-00F:  00000 00000"));
+    assertTrue(lines[3].startsWith("010    :  01234 56789"));
+    assertTrue(lines[6].startsWith("011-012:  00000 00000"));
+  }
+
+  public void testTapeToChannel() throws Exception {
+    smil.setTapeReader(new TapeReader(null, 0));
+    smil.tapeReader().setTape(SMIL.tape(TapeRunner.LOADER));
+    StringWriter sw = new StringWriter();
+    smil.dumpTape(sw);
+    assertTrue(sw.toString().length() > 0);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    smil.dumpTape(Channels.newChannel(bytes));
+    assertEquals(sw.toString(), bytes.toString());
+  }
+}
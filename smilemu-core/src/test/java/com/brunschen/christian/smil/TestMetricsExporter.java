@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+public class TestMetricsExporter extends TestCase {
+
+  private static String get(URL url) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(MetricsExporter.CONTENT_TYPE, connection.getContentType());
+      InputStream is = connection.getInputStream();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = is.read(buf)) > 0) {
+        bytes.write(buf, 0, n);
+      }
+      is.close();
+      return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  public void testScrapeOverLoopback() throws Exception {
+    TapeRunner runner = new TapeRunner();
+    TapeRunner.Result result = runner.run(TapeRunner.program("Primes"));
+    SMIL smil = runner.smil();
+    String machine = "{machine=\"" + smil.id() + "\"} ";
+
+    MetricsExporter exporter = new MetricsExporter();
+    exporter.add(smil);
+    exporter.jobCompleted();
+    exporter.jobCompleted();
+    exporter.jobFailed();
+    exporter.start(0);
+    try {
+      assertTrue(exporter.port() > 0);
+      String text = get(new URL("http://127.0.0.1:" + exporter.port() + MetricsExporter.PATH));
+
+      assertTrue(text.contains("# TYPE smil_instructions_total counter\n"));
+      assertTrue(text.contains("smil_instructions_total" + machine + result.steps() + "\n"));
+      assertTrue(text.contains("smil_typewriter_characters_total" + machine + result.output().length() + "\n"));
+      assertTrue(text.contains("smil_running" + machine + "0\n"));
+      assertTrue(text.contains("smil_emulated_mhz" + machine));
+      assertTrue(text.contains("smil_jobs_completed_total 2\n"));
+      assertTrue(text.contains("smil_jobs_failed_total 1\n"));
+      for (String line : text.split("\n")) {
+        assertTrue(line, line.startsWith("# ") || line.matches("[a-z_]+(\\{machine=\"\\d+\"\\})? \\S+"));
+      }
+    } finally {
+      exporter.stop();
+    }
+    assertEquals(-1, exporter.port());
+
+    // resetting the machine's counters does not reset the exported ones
+    smil.resetCounters();
+    assertTrue(exporter.scrape().contains("smil_instructions_total" + machine + result.steps() + "\n"));
+
+    exporter.remove(smil);
+    assertFalse(exporter.scrape().contains(machine));
+  }
+
+  public void testCountersSurvivePooledJobs() throws Exception {
+    MetricsExporter exporter = new MetricsExporter();
+    SMILPool pool = new SMILPool(1, exporter);
+    long steps = 0L;
+    long characters = 0L;
+    SMIL smil = null;
+    for (int job = 0; job < 2; job++) {
+      smil = pool.acquire();
+      TapeRunner.Result result = new TapeRunner(smil).run(TapeRunner.program("Primes"));
+      steps += result.steps();
+      characters += result.output().length();
+      pool.release(smil);
+    }
+    assertEquals(0L, smil.processor().instructionCount());
+    String machine = "{machine=\"" + smil.id() + "\"} ";
+    String text = exporter.scrape();
+    assertTrue(text, text.contains("smil_instructions_total" + machine + steps + "\n"));
+    assertTrue(text, text.contains("smil_typewriter_characters_total" + machine + characters + "\n"));
+  }
+
+  public void testScrapeIgnoresDefaultLocale() throws Exception {
+    TapeRunner runner = new TapeRunner();
+    runner.run(TapeRunner.program("Primes"));
+    MetricsExporter exporter = new MetricsExporter();
+    exporter.add(runner.smil());
+    exporter.jobCompleted();
+    Locale locale = Locale.getDefault();
+    // Thai digits for every number formatted with the default locale
+    Locale.setDefault(Locale.forLanguageTag("th-TH-u-nu-thai"));
+    String text;
+    try {
+      text = exporter.scrape();
+    } finally {
+      Locale.setDefault(locale);
+    }
+    assertTrue(text, text.matches("[\\x00-\\x7f]*"));
+    assertTrue(text, text.contains("smil_jobs_completed_total 1\n"));
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import junit.framework.TestCase;
+
+public class TestRegisterSnapshots extends TestCase {
+
+  public void testPublishAndSnapshot() {
+    SMIL smil = new SMIL();
+    Processor processor = smil.processor();
+    processor.ar.setBits(0x123456789L);
+    processor.kr.setValue(0x42);
+    RegisterSnapshots snapshots = new RegisterSnapshots();
+    snapshots.publish(processor, 1234L, true);
+    RegisterSnapshot snapshot = snapshots.snapshot();
+    assertEquals(1L, snapshot.sequence());
+    assertEquals(processor.ar.bits(), snapshot.ar());
+    assertEquals(processor.kr.bits(), snapshot.kr());
+    assertEquals(1234L, snapshot.tick());
+    assertTrue(snapshot.running());
+  }
+
+  public void testReadersSeeConsistentSnapshots() throws Exception {
+    SMIL smil = new SMIL();
+    final Processor processor = smil.processor();
+    final RegisterSnapshots snapshots = new RegisterSnapshots();
+    final int n = 200000;
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (long i = 1; i <= n; i++) {
+          // keep all registers in step, so a torn read would show up as a mismatch
+          processor.ar.setBits(i);
+          processor.mr.setBits(i);
+          processor.md.setBits(i);
+          snapshots.publish(processor, i, true);
+        }
+      }
+    };
+    writer.start();
+    long[] words = new long[RegisterSnapshots.size()];
+    long lastSequence = 0L;
+    do {
+      snapshots.read(words);
+      assertEquals(words[1], words[2]);
+      assertEquals(words[1], words[3]);
+      assertEquals(words[1], words[7]);
+      assertTrue(words[0] >= lastSequence);
+      lastSequence = words[0];
+    } while (lastSequence < n);
+    writer.join();
+  }
+}
@@ -42,9 +42,8 @@ public class TestSMIL extends TestCase {
     super.setUp();
     smil = new SMIL();
     
-    smil.setTapeReader(new TapeReader(null, 0, null));
+    smil.setTapeReader(new TapeReader(null, 0));
     smil.setSoundGenerator(new FakeSoundGenerator());
-    smil.setControlPanel(new ControlPanel(null, null));
     smil.setTypewriter(new FakeTypewriter());
 
     smil.init();
@@ -232,7 +231,7 @@ public class TestSMIL extends TestCase {
 
   public void testInstruction0() throws Exception {
     List<String> lines = Arrays.asList(new String[] { "0123456789ab" });
-    smil.setTapeReader(new TapeReader(new FakeClock(), 0, null));
+    smil.setTapeReader(new TapeReader(new FakeClock(), 0));
     smil.tapeReader().setTape(new Tape(lines));
 
     smil.memory().set(0x000, 0x0000000008L);
@@ -606,6 +605,14 @@ public class TestSMIL extends TestCase {
     }
   }
 
+  public void testConnectSound() throws Exception {
+    assertEquals(SMIL.ticksPerSecond, smil.soundGenerator().ticksPerSecond);
+    // a machine without sound can still have its sound source connected
+    SMIL silent = new SMIL();
+    silent.connectSound(silent.processor().ar, 0);
+    silent.disconnectSound();
+  }
+
   private final class FakeSoundGenerator extends SoundGenerator {
     @Override
     public void stopDestination(boolean finishPlaying, boolean retainData) {
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class TestSMILMetrics extends TestCase {
+
+  public void testCountersThroughJmx() throws Exception {
+    TapeRunner runner = new TapeRunner();
+    SMIL smil = runner.smil();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = smil.registerMetrics();
+    try {
+      assertEquals(name, smil.registerMetrics());
+      assertTrue(server.isRegistered(name));
+
+      TapeRunner.Result result = runner.run(TapeRunner.program("Sine Wave"));
+
+      assertEquals(result.steps(), ((Long) server.getAttribute(name, "Instructions")).longValue());
+      long[] byGroup = (long[]) server.getAttribute(name, "InstructionsByGroup");
+      long total = 0L;
+      for (long count : byGroup) {
+        total += count;
+      }
+      assertEquals(result.steps(), total);
+      assertTrue(byGroup[0x0] > 0L);
+      assertTrue(byGroup[0xF] > 0L);
+      assertEquals(result.ticks(), ((Long) server.getAttribute(name, "EmulatedTicks")).longValue());
+      assertTrue(((Long) server.getAttribute(name, "DrumWaitTicks")).longValue() > 0L);
+      assertTrue(((Long) server.getAttribute(name, "TapeRowsRead")).longValue() > 0L);
+      assertEquals(result.output().length(), ((Long) server.getAttribute(name, "TypewriterCharacters")).longValue());
+      assertFalse(((Boolean) server.getAttribute(name, "Running")).booleanValue());
+
+      server.invoke(name, "resetCounters", new Object[0], new String[0]);
+      assertEquals(0L, ((Long) server.getAttribute(name, "Instructions")).longValue());
+      assertEquals(0L, smil.drumMemory().waitTicks());
+      assertEquals(0L, smil.tapeReader().rowsRead());
+      assertEquals(0L, smil.typewriterCharacters());
+    } finally {
+      smil.unregisterMetrics();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+  public void testResetWhileRunning() throws Exception {
+    final TapeRunner runner = new TapeRunner();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        runner.run(TapeRunner.program("Sine Wave"));
+      }
+    };
+    SMIL smil = runner.smil();
+    thread.start();
+    while (smil.processor().instructionCount() < 1000L && thread.isAlive()) {
+      Thread.yield();
+    }
+    // a reset from another thread sticks, however the processor's own updates interleave with it
+    long before = smil.processor().totalInstructionCount();
+    smil.resetCounters();
+    thread.join();
+    assertTrue(before > 0L);
+    long instructions = smil.processor().instructionCount();
+    assertTrue(instructions <= smil.processor().totalInstructionCount() - before);
+    assertEquals(runner.steps(), smil.processor().totalInstructionCount());
+    long total = 0L;
+    for (long count : smil.processor().instructionCounts()) {
+      total += count;
+    }
+    assertEquals(instructions, total);
+
+    smil.resetCounters();
+    assertEquals(0L, smil.processor().instructionCount());
+    assertEquals(0L, smil.drumMemory().waitTicks());
+    assertEquals(0L, smil.typewriterCharacters());
+  }
+
+  public void testPooledMachinesRegister() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    SMILPool pool = new SMILPool(1);
+    pool.setRegisterMetrics(true);
+    SMIL smil = pool.acquire();
+    ObjectName name = new ObjectName(SMILMetrics.DOMAIN + ":type=SMIL,id=" + smil.id());
+    try {
+      assertTrue(server.isRegistered(name));
+      pool.release(smil);
+      assertSame(smil, pool.acquire());
+      assertTrue(server.isRegistered(name));
+    } finally {
+      smil.unregisterMetrics();
+    }
+  }
+
+  public void testPoolRefusesUnregisteredMachines() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    SMIL squatter = new SMIL();
+    // the name the pool's first machine will want
+    ObjectName name = new ObjectName(SMILMetrics.DOMAIN + ":type=SMIL,id=" + (squatter.id() + 1));
+    server.registerMBean(new SMILMetrics(squatter), name);
+    SMILPool pool = new SMILPool(1);
+    pool.setRegisterMetrics(true);
+    try {
+      pool.acquire();
+      fail("acquired a machine without its MBean");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof InstanceAlreadyExistsException);
+    } finally {
+      server.unregisterMBean(name);
+    }
+    // the refused machine does not use up the pool
+    SMIL smil = pool.acquire();
+    try {
+      assertTrue(server.isRegistered(new ObjectName(SMILMetrics.DOMAIN + ":type=SMIL,id=" + smil.id())));
+    } finally {
+      smil.unregisterMetrics();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import junit.framework.TestCase;
+
+public class TestSMILPool extends TestCase {
+
+  private TapeRunner.Result runPrimes(SMIL smil) {
+    TapeRunner runner = new TapeRunner(smil);
+    long startNanos = System.nanoTime();
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    runner.load(SMIL.tape("Primes"));
+    runner.load(SMIL.tape("Print Integer"));
+    boolean halted = runner.start(0x405, false);
+    return new TapeRunner.Result(smil.typewriter().text(), smil.tickClock().now(), runner.steps(), halted,
+        System.nanoTime() - startNanos);
+  }
+
+  public void testReusedMachinesAreReset() throws Exception {
+    SMILPool pool = new SMILPool(1);
+    SMIL smil = pool.acquire();
+    assertNull(SMILPool.checkReset(smil));
+    TapeRunner.Result first = runPrimes(smil);
+    assertNotNull(SMILPool.checkReset(smil));
+    pool.release(smil);
+
+    // only the pages that were written are zeroed
+    long pages = pool.pagesCleared();
+    assertTrue(pages > 0L);
+    assertTrue(pages < smil.memory().length() / Memory.PAGE_WORDS);
+
+    SMIL again = pool.acquire();
+    assertSame(smil, again);
+    assertEquals(1L, pool.reused());
+    assertNull(SMILPool.checkReset(again));
+    TapeRunner.Result second = runPrimes(again);
+    assertEquals(first.output(), second.output());
+    assertEquals(first.ticks(), second.ticks());
+    assertEquals(first.steps(), second.steps());
+    pool.release(again);
+    assertEquals(0L, pool.discarded());
+  }
+
+  public void testNothingLeaksBetweenJobs() throws Exception {
+    SMILPool pool = new SMILPool(1);
+    SMIL smil = pool.acquire();
+    smil.memory().write(0x7ff, 0x123456789aL);
+    smil.processor().ar.setValue(1L);
+    smil.tapeReader().setTape(SMIL.tape("Primes"));
+    smil.typewriter().append("1234");
+    smil.tickClock().setSpeedup(2.0);
+    smil.addListener(new SMIL.Listener() {
+      public void onStart(SMIL smil) {
+      }
+
+      public void onStop(SMIL smil) {
+      }
+    });
+    pool.release(smil);
+
+    smil = pool.acquire();
+    assertNull(SMILPool.checkReset(smil));
+    assertEquals(0L, smil.memory().get(0x7ff));
+    assertEquals(1.0, smil.tickClock().speedup());
+    assertFalse(smil.tickClock().willWait());
+  }
+
+  public void testCheckReset() throws Exception {
+    SMIL smil = new SMILPool(1).acquire();
+    smil.memory().set(0x100, 1L);
+    assertEquals("memory is not clear", SMILPool.checkReset(smil));
+    smil.memory().set(0x100, 0L);
+    smil.processor().mr.setValue(1L);
+    assertEquals("MR is not clear", SMILPool.checkReset(smil));
+  }
+
+  public void testAcquireWaitsForRelease() throws Exception {
+    final SMILPool pool = new SMILPool(1);
+    final SMIL smil = pool.acquire();
+    final SMIL[] acquired = new SMIL[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          acquired[0] = pool.acquire();
+        } catch (InterruptedException e) {
+          // leave it null
+        }
+      }
+    };
+    thread.start();
+    thread.join(100L);
+    assertTrue(thread.isAlive());
+    pool.release(smil);
+    thread.join(5000L);
+    assertSame(smil, acquired[0]);
+  }
+}
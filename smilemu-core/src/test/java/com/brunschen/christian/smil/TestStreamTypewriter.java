@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+public class TestStreamTypewriter extends TestCase {
+
+  public void testStreamsOutputAndKeepsTail() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamTypewriter typewriter = new StreamTypewriter(out, 5);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      typewriter.printHex(i);
+      expected.append(Typewriter.hexChars[i & 0xf]);
+      if (i % 64 == 63) {
+        typewriter.printSpecial(1);
+        expected.append('\n');
+      }
+    }
+    typewriter.close();
+    assertEquals(expected.toString(), out.toString("US-ASCII"));
+    assertEquals(expected.length(), typewriter.length());
+    assertEquals(expected.substring(expected.length() - 5), typewriter.text());
+  }
+
+  public void testTimestamps() throws Exception {
+    SMIL smil = new SMIL();
+    smil.tickClock().setWillWait(false);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamTypewriter typewriter = new StreamTypewriter(out);
+    typewriter.setTimestampClock(smil.tickClock());
+    typewriter.append("AB\n");
+    smil.tickClock().sleep(1234);
+    typewriter.append("C");
+    typewriter.append("D\n");
+    typewriter.flush();
+    assertEquals("[0] AB\n[1234] CD\n", out.toString("US-ASCII"));
+    assertEquals("", typewriter.text());
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestTapePunch extends TestCase {
+
+  private long[] words = new long[] { 0x0123456789L, 0xfedcba9876L, 0x0000000000L, 0x50000520aaL };
+
+  public void testTextFormat() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TapePunch punch = new TapePunch();
+    punch.open(Channels.newChannel(bytes), TapePunch.Format.TEXT);
+    punch.punchComment("test tape");
+    punch.punchWords(words, 0, words.length);
+    punch.close();
+
+    String text = bytes.toString();
+    assertTrue(text.startsWith("# test tape\n01234 56789\nFEDCB A9876\n"));
+
+    Tape tape = new Tape(new StringReader(text));
+    List<Long> loaded = tape.words();
+    assertEquals(words.length, loaded.size());
+    for (int i = 0; i < words.length; i++) {
+      assertEquals(words[i], (long) loaded.get(i));
+    }
+  }
+
+  public void testBinaryFormat() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TapePunch punch = new TapePunch();
+    punch.open(Channels.newChannel(bytes), TapePunch.Format.BINARY);
+    punch.punchWords(words, 0, words.length);
+    punch.punch(0xa);
+    punch.close();
+
+    assertEquals(10 * words.length + 1, bytes.size());
+    assertEquals(10 * words.length + 1, punch.rowsPunched());
+
+    Tape tape = new Tape();
+    tape.loadBinary(new ByteArrayInputStream(bytes.toByteArray()));
+    List<Long> loaded = tape.words();
+    assertEquals(words.length + 1, loaded.size());
+    for (int i = 0; i < words.length; i++) {
+      assertEquals(words[i], (long) loaded.get(i));
+    }
+    assertEquals(0xa000000000L, (long) loaded.get(words.length));
+  }
+
+  public void testPunchMemory() throws Exception {
+    Memory memory = new Memory(0x800, SMIL.WORD_BITS);
+    for (int i = 0; i < 0x800; i++) {
+      memory.set(i, i * 0x10001L);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TapePunch punch = new TapePunch();
+    punch.open(Channels.newChannel(bytes), TapePunch.Format.TEXT);
+    punch.punchMemory(memory, 0, 0x7ff);
+    punch.close();
+
+    List<Long> loaded = new Tape(new StringReader(bytes.toString())).words();
+    assertEquals(0x800, loaded.size());
+    for (int i = 0; i < 0x800; i++) {
+      assertEquals(memory.get(i), (long) loaded.get(i));
+    }
+  }
+
+  public void testPunchTiming() throws Exception {
+    SMIL smil = new SMIL();
+    smil.tickClock().setWillWait(false);
+    TapePunch punch = new TapePunch(smil.asyncIoClock(), SMIL.ticksPerSecond);
+    punch.open(Channels.newChannel(new ByteArrayOutputStream()), TapePunch.Format.BINARY);
+    long ticksPerRow = SMIL.ticksPerSecond / TapePunch.ROWS_PER_SECOND;
+
+    long start = smil.tickClock().now();
+    punch.punch(1);
+    assertEquals(start, smil.tickClock().now());
+    punch.punch(2);
+    assertEquals(start + ticksPerRow, smil.tickClock().now());
+
+    // once the punch has had time to get ready, punching a row doesn't take any time
+    smil.tickClock().sleep(10 * ticksPerRow);
+    long now = smil.tickClock().now();
+    punch.punch(3);
+    assertEquals(now, smil.tickClock().now());
+    punch.close();
+  }
+
+  public void testNoOutput() throws Exception {
+    TapePunch punch = new TapePunch();
+    try {
+      punch.punch(1);
+      fail();
+    } catch (TapePunch.NoOutputException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import junit.framework.TestCase;
+
+public class TestTapeRunner extends TestCase {
+
+  public void testPrimes() {
+    TapeRunner runner = new TapeRunner();
+    TapeRunner.Result result = runner.run(TapeRunner.program("Primes"));
+    assertTrue(result.halted());
+    assertTrue(result.output().startsWith("\n3\n5\n7\n11\n13\n"));
+    assertTrue(result.output().contains("\n127\n"));
+    assertEquals(result.steps(), runner.steps());
+  }
+
+  public void testRunsAreRepeatable() {
+    TapeRunner runner = new TapeRunner();
+    TapeRunner.Result first = runner.run(TapeRunner.program("Square Roots"));
+    TapeRunner.Result second = runner.run(TapeRunner.program("Square Roots"));
+    assertEquals(first.output(), second.output());
+    assertEquals(first.ticks(), second.ticks());
+    assertEquals(first.steps(), second.steps());
+    assertTrue(first.output().contains(" 0.50  0.7071067811\n"));
+  }
+
+  public void testTickLimit() {
+    TapeRunner runner = new TapeRunner();
+    TapeRunner.Program sine = TapeRunner.program("Sine Wave");
+    TapeRunner.Result result = runner.run(sine);
+    assertFalse(result.halted());
+    assertTrue(result.ticks() >= sine.tickLimit());
+    assertTrue(result.output().length() > 0);
+
+    runner.setTickLimit(sine.tickLimit() / 2);
+    TapeRunner.Result shorter = runner.run(sine);
+    assertTrue(shorter.ticks() < result.ticks());
+    assertTrue(result.output().startsWith(shorter.output()));
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Regression suite for the bundled tapes. Every tape is loaded, and every program made up of them
+ * is run, headless and unpaced; the typewriter output and the emulated tick count when the machine
+ * stops must match the stored baselines exactly, so any change to instruction timing, drum latency
+ * or device timing fails here.
+ *
+ * Host speed is also measured, as instructions per second, and compared with the stored baseline.
+ * Since that depends on the host, being slower is only reported, when it is slower by more than a
+ * factor of smil.slowdownThreshold (2 by default).
+ *
+ * To regenerate the baselines after an intentional change, run with smil.updateBaselines set to
+ * the test resources' Baselines directory.
+ */
+public class TestTapes extends TestCase {
+  public static final String BASELINES = "Baselines/";
+  public static final String BASELINE_PROPERTIES = "baselines.properties";
+  public static final int TIMED_RUNS = 3;
+
+  private static final double slowdownThreshold = Double.parseDouble(System.getProperty("smil.slowdownThreshold",
+      "2.0"));
+  private static final String updateDirectory = System.getProperty("smil.updateBaselines");
+
+  private static Properties baselines = null;
+  private static Properties updated = new Properties();
+
+  private TapeRunner runner;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    runner = new TapeRunner();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    runner = null;
+    super.tearDown();
+  }
+
+  private static synchronized Properties baselines() throws IOException {
+    if (baselines == null) {
+      baselines = new Properties();
+      InputStream is = TestTapes.class.getResourceAsStream(BASELINES + BASELINE_PROPERTIES);
+      if (is != null) {
+        try {
+          baselines.load(is);
+        } finally {
+          is.close();
+        }
+      }
+    }
+    return baselines;
+  }
+
+  private static String baselineOutput(String name) throws IOException {
+    InputStream is = TestTapes.class.getResourceAsStream(BASELINES + name + ".txt");
+    if (is == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    Reader r = new InputStreamReader(is, "UTF-8");
+    try {
+      char[] buf = new char[4096];
+      int n;
+      while ((n = r.read(buf)) > 0) {
+        sb.append(buf, 0, n);
+      }
+    } finally {
+      r.close();
+    }
+    return sb.toString();
+  }
+
+  private static synchronized void update(String key, String value) throws IOException {
+    updated.setProperty(key, value);
+    Properties all = new Properties();
+    all.putAll(baselines());
+    all.putAll(updated);
+    // written by hand, rather than with Properties.store, to keep the file sorted and stable
+    Writer w = new OutputStreamWriter(new FileOutputStream(new File(updateDirectory, BASELINE_PROPERTIES)), "UTF-8");
+    try {
+      w.write("# Baselines for TestTapes\n");
+      for (String k : new TreeSet<String>(all.stringPropertyNames())) {
+        w.write(k + "=" + all.getProperty(k) + "\n");
+      }
+    } finally {
+      w.close();
+    }
+  }
+
+  private static void updateOutput(String name, String output) throws IOException {
+    Writer w = new OutputStreamWriter(new FileOutputStream(new File(updateDirectory, name + ".txt")), "UTF-8");
+    try {
+      w.write(output);
+    } finally {
+      w.close();
+    }
+  }
+
+  private void assertBaseline(String key, long actual) throws IOException {
+    if (updateDirectory != null) {
+      update(key, Long.toString(actual));
+      return;
+    }
+    String expected = baselines().getProperty(key);
+    assertNotNull("no baseline for " + key, expected);
+    assertEquals(key, Long.parseLong(expected), actual);
+  }
+
+  public void testLoadingEachTape() throws IOException {
+    for (String name : SMIL.tapes) {
+      runner.reset();
+      assertTrue(runner.bootstrap(SMIL.tape(TapeRunner.LOADER)));
+      if (!name.equals(TapeRunner.LOADER)) {
+        assertTrue(name, runner.load(SMIL.tape(name)));
+      }
+      assertBaseline("load." + SMIL.stripSpaces(name) + ".ticks", runner.smil().tickClock().now());
+    }
+  }
+
+  public void testPrograms() throws IOException {
+    for (TapeRunner.Program program : TapeRunner.programs) {
+      String name = SMIL.stripSpaces(program.name());
+      TapeRunner.Result result = runner.run(program);
+      assertEquals(program.name(), program.tickLimit() == Long.MAX_VALUE, result.halted());
+
+      if (updateDirectory != null) {
+        updateOutput(name, result.output());
+      } else {
+        assertEquals(program.name(), baselineOutput(name), result.output());
+      }
+      assertBaseline("run." + name + ".ticks", result.ticks());
+      assertBaseline("run." + name + ".steps", result.steps());
+
+      // time a few more runs, keeping the fastest, to compare host speed against the baseline
+      long nanos = result.nanos();
+      for (int i = 0; i < TIMED_RUNS; i++) {
+        nanos = Math.min(nanos, runner.run(program).nanos());
+      }
+      long ips = nanos > 0L ? result.steps() * 1000000000L / nanos : 0L;
+      System.err.format("%s: %d ticks, %d instructions, %.3f ms, %d instructions/s\n", program.name(),
+          result.ticks(), result.steps(), nanos / 1e6, ips);
+      if (updateDirectory != null) {
+        update("run." + name + ".ips", Long.toString(ips));
+      } else {
+        String baseline = baselines().getProperty("run." + name + ".ips");
+        if (baseline != null && ips * slowdownThreshold < Long.parseLong(baseline)) {
+          System.err.format("WARNING: %s ran at %d instructions/s, more than %.1f times slower than the baseline %s\n",
+              program.name(), ips, slowdownThreshold, baseline);
+        }
+      }
+    }
+  }
+}
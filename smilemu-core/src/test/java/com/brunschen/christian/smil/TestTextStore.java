@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import junit.framework.TestCase;
+
+public class TestTextStore extends TestCase {
+
+  public void testAppend() {
+    TextStore store = new TextStore();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      store.append(i + " ");
+      expected.append(i).append(' ');
+      if (i % 10 == 9) {
+        store.append("\n");
+        expected.append('\n');
+      }
+    }
+    assertEquals(expected.toString(), store.text());
+    assertEquals(expected.length(), store.length());
+    assertEquals(500, store.lines());
+  }
+
+  public void testMaxLinesWithSpill() throws Exception {
+    File file = File.createTempFile("smil", ".txt");
+    try {
+      TextStore store = new TextStore(3);
+      store.setSpillFile(file);
+      StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < 2000; i++) {
+        store.append("line " + i + "\n");
+        expected.append("line ").append(i).append('\n');
+      }
+      store.append("partial");
+      expected.append("partial");
+      assertEquals("line 1997\nline 1998\nline 1999\npartial", store.text());
+      assertEquals(3, store.lines());
+      assertEquals(expected.length(), store.totalLength());
+      store.close();
+
+      Reader r = new InputStreamReader(new FileInputStream(file), "UTF-8");
+      StringBuilder spilled = new StringBuilder();
+      char[] buf = new char[4096];
+      int n;
+      while ((n = r.read(buf)) > 0) {
+        spilled.append(buf, 0, n);
+      }
+      r.close();
+      assertEquals(expected.toString(), spilled + store.text());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testChunksStayBounded() {
+    for (int maxLines : new int[] { 1, 10, 1000 }) {
+      TextStore store = new TextStore(maxLines);
+      int maxChunks = 0;
+      for (int i = 0; i < 100000; i++) {
+        store.append("line " + i + "\n");
+        maxChunks = Math.max(maxChunks, store.chunks());
+      }
+      // at most 12 characters a line, and one chunk that is partly dropped
+      assertTrue(maxLines + ": " + maxChunks, maxChunks <= maxLines * 12 / TextStore.CHUNK_SIZE + 2);
+      StringBuilder expected = new StringBuilder();
+      for (int i = 100000 - maxLines; i < 100000; i++) {
+        expected.append("line ").append(i).append('\n');
+      }
+      assertEquals(expected.toString(), store.text());
+      assertEquals(expected.length(), store.length());
+      assertEquals(maxLines, store.lines());
+    }
+  }
+
+  public void testBatchingTypewriter() throws Exception {
+    BatchingTypewriter typewriter = new BatchingTypewriter();
+    final StringBuffer seen = new StringBuffer();
+    typewriter.addListener(new BatchingTypewriter.Listener() {
+      public void textAppended(String text) {
+        seen.append(text);
+      }
+
+      public void textCleared() {
+        seen.setLength(0);
+      }
+    });
+    typewriter.printHex(0xA);
+    typewriter.printHex(0x3);
+    assertEquals("A3", typewriter.text());
+    typewriter.printSpecial(1);
+    assertEquals("A3\n", typewriter.store().text());
+    typewriter.printHex(0xF);
+    typewriter.flush();
+    assertEquals("A3\nF", seen.toString());
+    assertEquals(4, typewriter.length());
+    typewriter.clear();
+    assertEquals("", typewriter.text());
+    assertEquals(0, seen.length());
+  }
+}
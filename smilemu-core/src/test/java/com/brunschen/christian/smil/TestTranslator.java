@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestTranslator extends TestCase {
+
+  private File directory;
+  private Translator translator;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = File.createTempFile("translations", "");
+    directory.delete();
+    directory.mkdirs();
+    translator = new Translator(directory);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(directory);
+    super.tearDown();
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+
+  private static List<Tape> tapes(TapeRunner.Program program) {
+    List<Tape> tapes = new ArrayList<Tape>();
+    for (String name : program.tapes()) {
+      tapes.add(SMIL.tape(name));
+    }
+    return tapes;
+  }
+
+  private static TapeRunner loaded(TapeRunner.Program program) {
+    TapeRunner runner = new TapeRunner();
+    runner.bootstrap(SMIL.tape(TapeRunner.LOADER));
+    for (Tape tape : tapes(program)) {
+      runner.load(tape);
+    }
+    runner.smil().processor().ar.setValue(program.ar());
+    runner.smil().processor().mr.setValue(program.mr());
+    runner.setTickLimit(program.tickLimit());
+    return runner;
+  }
+
+  private static void assertSameState(TapeRunner expected, TapeRunner actual) {
+    SMIL e = expected.smil();
+    SMIL a = actual.smil();
+    assertEquals(e.typewriter().text(), a.typewriter().text());
+    assertEquals(e.tickClock().now(), a.tickClock().now());
+    assertEquals(expected.steps(), actual.steps());
+    Arithmetic.Registers registers = new Arithmetic.Registers();
+    registers.load(e.processor());
+    Arithmetic.Registers actualRegisters = new Arithmetic.Registers();
+    actualRegisters.load(a.processor());
+    assertEquals(registers, actualRegisters);
+    assertTrue(Arrays.equals(e.processor().instructionCounts(), a.processor().instructionCounts()));
+    for (int address = 0; address < e.memory().length(); address++) {
+      assertEquals(e.memory().get(address), a.memory().get(address));
+    }
+  }
+
+  public void testBundledPrograms() throws Exception {
+    if (!Translator.canCompile()) {
+      return;
+    }
+    for (TapeRunner.Program program : TapeRunner.programs) {
+      TapeRunner interpreted = loaded(program);
+      boolean halted = interpreted.start(program.start(), false);
+
+      TapeRunner translated = loaded(program);
+      Translation translation = translator.translate(tapes(program));
+      assertTrue(translation.matches(translated.smil().memory()));
+      translated.setTranslation(translation);
+      assertEquals(program.name(), halted, translated.start(program.start(), false));
+      assertSameState(interpreted, translated);
+      // printing is interpreted, and Memory Dump does little else
+      assertTrue(program.name(), translated.translatedSteps() > translated.steps() / 3);
+    }
+  }
+
+  public void testCache() throws Exception {
+    if (!Translator.canCompile()) {
+      return;
+    }
+    List<Tape> tapes = Arrays.asList(SMIL.tape("Primes"), SMIL.tape("Print Integer"));
+    assertNull(translator.lookup(tapes));
+    assertEquals(0L, translator.compiled());
+    Translation first = translator.translate(tapes);
+    assertEquals(1L, translator.compiled());
+    // just the entry, no temporary directory left behind
+    assertTrue(Arrays.equals(new String[] { first.key() }, directory.list()));
+    assertEquals(Translator.key(tapes), first.key());
+    assertNotSame(first, translator.translate(tapes));
+    assertEquals(1L, translator.compiled());
+
+    // a new translator, as in the next run, loads it from the directory
+    Translator next = new Translator(directory);
+    Translation second = next.translate(tapes);
+    assertEquals(0L, next.compiled());
+    assertEquals(1L, next.loaded());
+    assertEquals(first.key(), second.key());
+    assertEquals(Translator.className(first.key()), second.getClass().getSimpleName());
+    assertTrue(Arrays.equals(first.words(), second.words()));
+    assertEquals(first.key(), new Translator(directory).lookup(tapes).key());
+  }
+
+  public void testChangedMemoryFallsBack() throws Exception {
+    if (!Translator.canCompile()) {
+      return;
+    }
+    TapeRunner.Program program = TapeRunner.program("Primes");
+    Translation translation = translator.translate(tapes(program));
+    // step through the candidates by [402] instead of [403], so an instruction that the
+    // translation has in its image is no longer the one in memory
+    TapeRunner interpreted = loaded(program);
+    TapeRunner translated = loaded(program);
+    for (TapeRunner runner : new TapeRunner[] { interpreted, translated }) {
+      Memory memory = runner.smil().memory();
+      assertEquals(0x4015240350L, memory.get(0x40e));
+      memory.set(0x40e, 0x4015240250L);
+      runner.setTickLimit(20000000L);
+    }
+    assertFalse(translation.matches(translated.smil().memory()));
+    translated.setTranslation(translation);
+    assertEquals(interpreted.start(program.start(), false), translated.start(program.start(), false));
+    assertSameState(interpreted, translated);
+    assertTrue(translated.translatedSteps() > 0L);
+  }
+
+  public void testFuzzCases() throws Exception {
+    if (!Translator.canCompile()) {
+      return;
+    }
+    Fuzzer fuzzer = new Fuzzer(48L, new Fuzzer.ProcessorEngine(), new Fuzzer.TranslatedEngine(translator));
+    for (long id = 0L; id < 20L; id++) {
+      Fuzzer.Divergence divergence = fuzzer.check(fuzzer.generate(id));
+      assertNull(String.valueOf(divergence), divergence);
+    }
+    assertEquals(20L, translator.compiled());
+  }
+}
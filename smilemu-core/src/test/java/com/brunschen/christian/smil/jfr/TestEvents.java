@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.jfr;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.brunschen.christian.smil.TapeRunner;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+public class TestEvents extends TestCase {
+
+  private static final String PREFIX = "com.brunschen.christian.smil.";
+
+  public void testEventsWhileRunningPrimes() throws Exception {
+    TapeRunner runner = new TapeRunner();
+    Recording recording = new Recording();
+    for (String name : new String[] { "InstructionQuantum", "DrumWait", "TapeRead", "TypewriterOutput", "Run" }) {
+      recording.enable(PREFIX + name);
+    }
+    File file = File.createTempFile("smil", ".jfr");
+    TapeRunner.Result result;
+    try {
+      recording.start();
+      result = runner.run(TapeRunner.program("Primes"));
+      recording.stop();
+      recording.dump(file.toPath());
+    } finally {
+      recording.close();
+    }
+
+    Map<String, Long> counts = new HashMap<String, Long>();
+    long instructions = 0L;
+    long runInstructions = 0L;
+    StringBuilder output = new StringBuilder();
+    try {
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+      for (RecordedEvent event : events) {
+        String name = event.getEventType().getName();
+        if (!name.startsWith(PREFIX)) {
+          continue;
+        }
+        name = name.substring(PREFIX.length());
+        Long count = counts.get(name);
+        counts.put(name, count == null ? 1L : count + 1L);
+        if (name.equals("InstructionQuantum")) {
+          assertEquals(runner.smil().id(), event.getInt("machine"));
+          assertTrue(event.getInt("instructions") <= QuantumRecorder.INSTRUCTIONS);
+          assertTrue(event.getLong("startTick") <= event.getLong("endTick"));
+          instructions += event.getInt("instructions");
+        } else if (name.equals("Run")) {
+          runInstructions += event.getLong("instructions");
+        } else if (name.equals("TypewriterOutput")) {
+          output.append('.');
+        }
+      }
+    } finally {
+      file.delete();
+    }
+
+    assertEquals(result.steps(), instructions);
+    assertEquals(result.steps(), runInstructions);
+    // the loader, two tapes and the program itself
+    assertEquals(Long.valueOf(4L), counts.get("Run"));
+    assertTrue(counts.get("DrumWait") > 0L);
+    assertTrue(counts.get("TapeRead") > 0L);
+    assertEquals(result.output().length(), output.length());
+  }
+}
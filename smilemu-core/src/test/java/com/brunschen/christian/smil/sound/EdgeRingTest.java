@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.sound;
+
+import junit.framework.TestCase;
+
+public class EdgeRingTest extends TestCase {
+  public void testOfferAndRemove() throws Exception {
+    EdgeRing ring = new EdgeRing(3);
+    assertEquals(4, ring.capacity());
+    assertTrue(ring.isEmpty());
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(i * 10, i % 2 == 0 ? 1.0 : -1.0));
+    }
+    assertFalse(ring.offer(40, 1.0));
+    assertEquals(1, ring.dropped());
+    assertEquals(4, ring.size());
+
+    assertFalse(ring.isEmpty());
+    assertEquals(0, ring.peekTick());
+    assertEquals(1.0, ring.peekValue());
+    ring.remove();
+    assertEquals(10, ring.peekTick());
+    assertEquals(-1.0, ring.peekValue());
+    ring.remove();
+
+    assertTrue(ring.offer(50, 1.0));
+    assertEquals(20, ring.peekTick());
+    ring.clear();
+    assertTrue(ring.isEmpty());
+    assertEquals(0, ring.size());
+  }
+
+  public void testConcurrentProducerAndConsumer() throws Exception {
+    final EdgeRing ring = new EdgeRing(64);
+    final int n = 1000000;
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (long tick = 0; tick < n; tick++) {
+          while (!ring.offer(tick, (double) tick)) {
+            Thread.yield();
+          }
+        }
+      }
+    };
+    producer.start();
+    long expected = 0;
+    while (expected < n) {
+      if (ring.isEmpty()) {
+        Thread.yield();
+      } else {
+        assertEquals(expected, ring.peekTick());
+        assertEquals((double) expected, ring.peekValue());
+        ring.remove();
+        expected++;
+      }
+    }
+    producer.join();
+    assertTrue(ring.isEmpty());
+  }
+}
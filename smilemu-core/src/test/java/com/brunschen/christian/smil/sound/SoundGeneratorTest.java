@@ -0,0 +1,43 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.sound;
+
+import junit.framework.TestCase;
+
+public class SoundGeneratorTest extends TestCase {
+
+  // a generator whose destination never takes anything out of the buffer
+  private static class StuckGenerator extends SoundGenerator {
+    @Override
+    public boolean canGenerateSound() {
+      return true;
+    }
+
+    @Override
+    public void pushBufferToDestination() {
+    }
+
+    @Override
+    public void startDestination() {
+    }
+
+    @Override
+    public void stopDestination(boolean finishPlaying, boolean retainData) {
+    }
+  }
+
+  public void testOverrunGrowsBufferOncePerRender() throws Exception {
+    StuckGenerator generator = new StuckGenerator();
+    generator.setTicksPerSecond(100000);
+    generator.start();
+    // a second of audio is due at once, far more than the buffer holds
+    generator.referenceNanos -= SoundGenerator.NANOS_PER_SECOND;
+    generator.edge(0, 1.0);
+    generator.renderEdges();
+    assertEquals(76, generator.bufferLengthMillis);
+    assertTrue(generator.running());
+    assertFalse(generator.overran);
+    generator.stop(false, false);
+  }
+}
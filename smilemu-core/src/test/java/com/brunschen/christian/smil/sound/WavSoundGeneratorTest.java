@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil.sound;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class WavSoundGeneratorTest extends TestCase {
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("smil", ".wav");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  private ByteBuffer read() throws Exception {
+    RandomAccessFile f = new RandomAccessFile(file, "r");
+    byte[] bytes = new byte[(int) f.length()];
+    f.readFully(bytes);
+    f.close();
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public void testRendersEdgesAtTheirTicks() throws Exception {
+    WavSoundGenerator generator = new WavSoundGenerator(file, 10000);
+    generator.setVolume(1.0);
+    generator.setTicksPerSecond(100000);
+    generator.open();
+    generator.start();
+    generator.edge(0, 1.0);
+    generator.edge(100, -1.0); // 100 ticks == 10 frames
+    generator.edge(150, 1.0);
+    generator.renderUntilTick(200);
+    generator.stop();
+
+    // a second run continues where the first one left off, with ticks starting from zero again
+    generator.start();
+    generator.edge(0, -1.0);
+    generator.renderUntilTick(30);
+    generator.stop();
+    generator.close();
+    assertNull(generator.failure());
+
+    ByteBuffer wav = read();
+    assertEquals(WavSoundGenerator.HEADER_SIZE + 2 * 23, wav.limit());
+    assertEquals(wav.limit() - 8, wav.getInt(4));
+    assertEquals(1, wav.getShort(22)); // mono
+    assertEquals(10000, wav.getInt(24));
+    assertEquals(16, wav.getShort(34));
+    assertEquals(2 * 23, wav.getInt(40));
+
+    short[] expected = new short[23];
+    for (int i = 0; i < 23; i++) {
+      expected[i] = (short) (i < 10 || (i >= 15 && i < 20) ? 32767 : -32767);
+    }
+    for (int i = 0; i < 23; i++) {
+      assertEquals("frame " + i, expected[i], wav.getShort(WavSoundGenerator.HEADER_SIZE + 2 * i));
+    }
+  }
+}
@@ -29,7 +29,6 @@ import com.brunschen.christian.graphic.BooleanValue;
 import com.brunschen.christian.graphic.Color;
 import com.brunschen.christian.graphic.FalseValue;
 import com.brunschen.christian.graphic.Font;
-import com.brunschen.christian.graphic.Graphic;
 import com.brunschen.christian.graphic.InverseValue;
 import com.brunschen.christian.graphic.Label;
 import com.brunschen.christian.graphic.Light;
@@ -98,17 +97,7 @@ public class ControlPanel {
 
   protected PointyKnob volumeControl;
 
-  private class UpdateGraphic implements ValueUpdatedListener<Integer> {
-    private Graphic graphic;
-
-    public UpdateGraphic(Graphic graphic) {
-      this.graphic = graphic;
-    }
-
-    public void valueUpdated(Integer oldValue, Integer newValue) {
-      graphic.repaint();
-    }
-  }
+  protected LampRefresher lampRefresher = new LampRefresher();
 
   public ControlPanel(Font clockFont, Font labelFont) {
     super();
@@ -116,10 +105,26 @@ public class ControlPanel {
     this.labelFont = labelFont;
   }
   
+  /**
+   * Sets the machine that this panel shows and controls. The lamps are tied to the machine's
+   * registers, so replacing or detaching the machine after graphic() has been built stops them
+   * being refreshed.
+   */
   public void setSmil(SMIL smil) {
+    if (this.smil != null && this.smil != smil) {
+      lampRefresher.stop();
+    }
     this.smil = smil;
   }
 
+  /**
+   * Stops refreshing the lamps. Call this when the panel's window is closed, or the panel is
+   * otherwise no longer shown.
+   */
+  public void dispose() {
+    lampRefresher.stop();
+  }
+
   private Light addLight(MultiGraphic mg, Double offset, String lightText, BooleanValue lightValue, Color lightColor) {
     Light light = new Light(lightSize, lightText, lightValue, lightColor);
     mg.add(new PaddingGraphic(light, ldx, ldy), offset);
@@ -145,9 +150,9 @@ public class ControlPanel {
   }
 
   private Light addContentLight(MultiGraphic mg, Double offset, Register r, int bit, String lightText) {
-    BooleanValue lightValue = new RegisterBitIsSet(r, bit);
-    Light light = addLight(mg, offset, lightText, lightValue, Color.RED);
-    r.addValueUpdatedListenerForBit(new UpdateGraphic(light), bit);
+    LampRefresher.Lamp lamp = lampRefresher.lamp(r, bit);
+    Light light = addLight(mg, offset, lightText, lamp, Color.RED);
+    lamp.addGraphic(light);
     return light;
   }
 
@@ -279,9 +284,7 @@ public class ControlPanel {
       rg = MultiGraphic.newRowGraphic(lightRowSize, Gravity.MIN);
       addResetButtons(rg, processor.md);
       addContentLights(rg, processor.md);
-      Light mdExtraLight = addLight(rg, leftExtraOffset, processor.md.name() + " bit 0", new RegisterBitIsSet(processor.md, 0),
-          Color.RED);
-      processor.md.addValueUpdatedListenerForBit(new UpdateGraphic(mdExtraLight), 0);
+      addContentLight(rg, leftExtraOffset, processor.md, 0, processor.md.name() + " bit 0");
       graphic.add(rg);
 
       graphic.advance(dy);
@@ -456,10 +459,11 @@ public class ControlPanel {
       rg.advance(gdx);
       rg.advance(columnAdvance);
       
-      Light krVLight = addLight(rg, null, "V", new InverseValue(new RegisterBitIsSet(processor.kr, ProgramCounter.RIGHT_BIT)), Color.RED);
+      LampRefresher.Lamp krRightLamp = lampRefresher.lamp(processor.kr, ProgramCounter.RIGHT_BIT);
+      Light krVLight = addLight(rg, null, "V", new InverseValue(krRightLamp), Color.RED);
+      krRightLamp.addGraphic(krVLight);
       rg.advance(dx);
       
-      processor.kr.addValueUpdatedListenerForBit(new UpdateGraphic(krVLight), ProgramCounter.RIGHT_BIT);
       addContentLight(rg, processor.kr, ProgramCounter.RIGHT_BIT, "H");
       rg.advance(dx);
       
@@ -706,7 +710,11 @@ public class ControlPanel {
       double volumeControlDiameter = 4 * columnAdvance + gdx;
       rg.add(volumeControl = new PointyKnob(new Size(volumeControlDiameter, volumeControlDiameter), -0.8 * Math.PI,
           0.8 * Math.PI, smil.volume()));
-      volumeControl.addValueUpdatedListener(smil.volumeUpdatedListener());
+      volumeControl.addValueUpdatedListener(new ValueUpdatedListener<Double>() {
+        public void valueUpdated(Double oldValue, Double newValue) {
+          smil.setVolume(newValue);
+        }
+      });
       rg.advance(dx + columnAdvance);
 
       // first toggle switch
@@ -756,10 +764,24 @@ public class ControlPanel {
       // pad the whole thing just a little
       graphic.pad(5, 5, 5, 5);
 
+      lampRefresher.start();
+
     }
     return graphic;
   }
 
+  public LampRefresher lampRefresher() {
+    return lampRefresher;
+  }
+
+  /**
+   * Sets whether lamps show their time-averaged state, like the real panel's lamps do, rather than
+   * their state at the moment they are sampled.
+   */
+  public void setLampPersistence(boolean persistence) {
+    lampRefresher.setPersistence(persistence);
+  }
+
   public void onSizeChanged(Size oldSize, Size newSize) {
   }
 
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * Copies the bundled documentation out to a directory, reporting progress as it goes.
+ */
+public class DocumentationExtractor {
+
+  static URL[] extractDocUrls = new URL[] {
+    SMIL.class.getResource("Documentation/QuickStart.html"),
+    SMIL.class.getResource("Documentation/Manual.html"),
+    SMIL.class.getResource("Documentation/style.css"),
+  };
+  static URL[] extractImageUrls = new URL[] {
+    SMIL.class.getResource("Documentation/images/ControlPanel.png"),
+    SMIL.class.getResource("Documentation/images/DebugMenu.png"),
+    SMIL.class.getResource("Documentation/images/LoadStandardTapeMenu.png"),
+    SMIL.class.getResource("Documentation/images/Memory.png"),
+    SMIL.class.getResource("Documentation/images/Options.png"),
+    SMIL.class.getResource("Documentation/images/PulseLabel.png"),
+    SMIL.class.getResource("Documentation/images/Registers.png"),
+    SMIL.class.getResource("Documentation/images/SaveMemoryToTape.png"),
+    SMIL.class.getResource("Documentation/images/TapeMenu.png"),
+    SMIL.class.getResource("Documentation/images/TapeReader.png"),
+    SMIL.class.getResource("Documentation/images/Typewriter.png"),
+    SMIL.class.getResource("Documentation/images/WindowsMenu.png")
+  };
+
+  private static String filenameFromURL(URL url) {
+    String path = url.getPath();
+    if (path == null) {
+      return null;
+    }
+    int lastSlash = path.lastIndexOf('/');
+    if (lastSlash < 0) {
+      return null;
+    }
+    return path.substring(lastSlash + 1);
+  }
+
+  private static int copy(InputStream is, OutputStream os) throws IOException {
+    byte[] buf = new byte[10240];
+    int total = 0;
+    int nread;
+    while ((nread = is.read(buf)) > 0) {
+      os.write(buf, 0, nread);
+      nread += total;
+    }
+    is.close();
+    os.close();
+    return total;
+  }
+
+  private static int copy(InputStream is, File f) throws IOException {
+    f.createNewFile();
+    return copy(is, new FileOutputStream(f));
+  }
+
+  protected static void copy(ProgressCallback cb, URL[] urls, File dir) {
+    for (URL u : urls) {
+      String filename = filenameFromURL(u);
+      cb.starting(filename);
+      try {
+        InputStream is = u.openStream();
+        copy(is, new File(dir, filename));
+        cb.finished(filename);
+      } catch (IOException e) {
+        cb.exception(filename, e);
+      }
+    }
+
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package com.brunschen.christian.smil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.brunschen.christian.graphic.BooleanValue;
+import com.brunschen.christian.graphic.Graphic;
+
+/**
+ * Keeps the control panel's lamps up to date by sampling the registers on a timer, rather than
+ * repainting a lamp every time the processor flips its bit. Each frame, only the lamps whose state
+ * changed since the previous frame are repainted, and all of that happens on the timer's thread;
+ * the processor thread never touches the graphics.
+ *
+ * Graphic.repaint() is thus called on the timer's thread, not the event dispatch thread. That is
+ * allowed because it only asks for the graphic to be repainted, as Component.repaint() does, which
+ * AWT accepts from any thread; the painting itself still happens on the event dispatch thread.
+ * Nothing else about a graphic may be touched from the timer's thread.
+ *
+ * The timer runs until stop() is called, which ControlPanel does when it is disposed or its
+ * machine is detached.
+ *
+ * The registers are sampled several times per frame. Normally a lamp shows the state of its bit at
+ * the last sample; with persistence turned on, it is lit if its bit was set in at least half the
+ * samples, which is closer to how a real lamp looks when its bit flickers faster than the eye can
+ * follow.
+ */
+public class LampRefresher {
+  public static final int FRAMES_PER_SECOND = 60;
+  public static final int SAMPLES_PER_FRAME = 4;
+
+  /**
+   * A single lamp, showing one bit of a register. Its value is the state it is currently displayed
+   * in, which only changes when a frame is rendered.
+   */
+  public static class Lamp implements BooleanValue {
+    private Register register;
+    private long mask;
+    private List<Graphic> graphics = new ArrayList<Graphic>(1);
+    private volatile boolean lit;
+    private boolean sampled;
+    private int samplesLit;
+
+    private Lamp(Register register, int bit) {
+      this.register = register;
+      this.mask = register.maskForBit(bit);
+      this.lit = register.isBitSet(bit);
+    }
+
+    /**
+     * Adds a graphic to repaint when this lamp changes.
+     */
+    public void addGraphic(Graphic graphic) {
+      graphics.add(graphic);
+    }
+
+    public boolean value() {
+      return lit;
+    }
+  }
+
+  private List<Lamp> lamps = new ArrayList<Lamp>();
+  private boolean persistence = false;
+  private int sample = 0;
+  private Timer timer = null;
+
+  public synchronized Lamp lamp(Register register, int bit) {
+    Lamp lamp = new Lamp(register, bit);
+    lamps.add(lamp);
+    return lamp;
+  }
+
+  public synchronized void setPersistence(boolean persistence) {
+    this.persistence = persistence;
+  }
+
+  public synchronized boolean persistence() {
+    return persistence;
+  }
+
+  public synchronized void start() {
+    if (timer == null) {
+      timer = new Timer("Lamp Refresher", true);
+      long period = Math.max(1L, 1000L / (FRAMES_PER_SECOND * SAMPLES_PER_FRAME));
+      timer.scheduleAtFixedRate(new TimerTask() {
+        @Override
+        public void run() {
+          sample();
+        }
+      }, period, period);
+    }
+  }
+
+  public synchronized void stop() {
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+  }
+
+  /**
+   * Samples all lamps' bits, and renders a frame every SAMPLES_PER_FRAME samples.
+   */
+  public synchronized void sample() {
+    Register register = null;
+    long bits = 0L;
+    for (Lamp lamp : lamps) {
+      // lamps are mostly added a register at a time, so this reads each register about once
+      if (lamp.register != register) {
+        register = lamp.register;
+        bits = register.bits();
+      }
+      lamp.sampled = (bits & lamp.mask) != 0L;
+      if (lamp.sampled) {
+        lamp.samplesLit++;
+      }
+    }
+    if (++sample == SAMPLES_PER_FRAME) {
+      render();
+      sample = 0;
+    }
+  }
+
+  private void render() {
+    for (Lamp lamp : lamps) {
+      boolean lit = persistence ? 2 * lamp.samplesLit >= SAMPLES_PER_FRAME : lamp.sampled;
+      lamp.samplesLit = 0;
+      if (lit != lamp.lit) {
+        lamp.lit = lit;
+        for (Graphic graphic : lamp.graphics) {
+          graphic.repaint();
+        }
+      }
+    }
+  }
+}
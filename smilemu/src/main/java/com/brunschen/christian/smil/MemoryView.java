@@ -0,0 +1,217 @@
+package com.brunschen.christian.smil;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * A window onto the contents of memory. The table only ever formats the rows that are visible,
+ * going through the processor's disassembler for the instruction columns, and is updated
+ * incrementally: a timer on the event dispatch thread drains the memory's dirty-word bitmap and
+ * refreshes just the rows that were written. Recently written words can be highlighted, with the
+ * highlight fading out over FADE_MILLIS.
+ */
+public class MemoryView extends JPanel {
+
+  public static final long serialVersionUID = 0L;
+
+  public static final int REFRESH_MILLIS = 50;
+  public static final long FADE_MILLIS = 1500L;
+  public static final Color HIGHLIGHT_COLOR = new Color(255, 220, 120);
+
+  private static final String[] COLUMN_NAMES = new String[] { "Address", "Contents", "Left", "Right", "Value" };
+
+  private SMIL smil;
+  private Memory memory;
+  private Memory.DirtyWords dirtyWords = null;
+  private long[] writtenAt;
+  private boolean highlightWrites = true;
+  private int fadingFrom = Integer.MAX_VALUE;
+  private int fadingTo = -1;
+
+  private MemoryTableModel model = new MemoryTableModel();
+  private JTable table;
+  private Timer timer;
+
+  private class MemoryTableModel extends AbstractTableModel {
+    public static final long serialVersionUID = 0L;
+
+    public int getRowCount() {
+      return memory.length();
+    }
+
+    public int getColumnCount() {
+      return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      return column == 4 ? Double.class : String.class;
+    }
+
+    public Object getValueAt(int row, int column) {
+      long word = memory.get(row);
+      switch (column) {
+        case 0:
+          return String.format("%03X", row);
+        case 1:
+          return String.format("%05X %05X", (word & 0xfffff00000L) >>> 20, word & 0xfffffL);
+        case 2:
+          return smil.processor().disassembler().describeHalfword(word, false);
+        case 3:
+          return smil.processor().disassembler().describeHalfword(word, true);
+        case 4:
+          return SMIL.doubleValue(word);
+      }
+      return null;
+    }
+  }
+
+  private final MemoryChangeListener changeListener = new MemoryChangeListener() {
+    public void memoryChanged(Memory memory, int address, int length) {
+      long now = System.currentTimeMillis();
+      for (int i = address; i < address + length; i++) {
+        writtenAt[i] = now;
+      }
+      if (highlightWrites) {
+        fadingFrom = Math.min(fadingFrom, address);
+        fadingTo = Math.max(fadingTo, address + length - 1);
+      }
+      model.fireTableRowsUpdated(address, address + length - 1);
+    }
+
+    public void memoryChanged(Memory memory, int address) {
+      memoryChanged(memory, address, 1);
+    }
+  };
+
+  /**
+   * Tints the background of recently written rows.
+   */
+  private class HighlightRenderer implements TableCellRenderer {
+    private TableCellRenderer renderer;
+
+    public HighlightRenderer(TableCellRenderer renderer) {
+      this.renderer = renderer;
+    }
+
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+        boolean hasFocus, int row, int column) {
+      Component c = renderer.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+      if (!isSelected) {
+        double h = highlight(row);
+        Color background = table.getBackground();
+        if (h > 0.0) {
+          background = new Color(blend(background.getRed(), HIGHLIGHT_COLOR.getRed(), h), blend(background.getGreen(),
+              HIGHLIGHT_COLOR.getGreen(), h), blend(background.getBlue(), HIGHLIGHT_COLOR.getBlue(), h));
+        }
+        c.setBackground(background);
+      }
+      return c;
+    }
+  }
+
+  private static int blend(int from, int to, double amount) {
+    return (int) Math.round(from + (to - from) * amount);
+  }
+
+  public MemoryView(SMIL smil) {
+    super(new BorderLayout());
+    this.smil = smil;
+    this.memory = smil.memory();
+    this.writtenAt = new long[memory.length()];
+
+    table = new JTable(model);
+    table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, table.getFont().getSize()));
+    table.setDefaultRenderer(String.class, new HighlightRenderer(new DefaultTableCellRenderer()));
+    table.setDefaultRenderer(Double.class, new HighlightRenderer(new DoubleRenderer()));
+    add(new JScrollPane(table), BorderLayout.CENTER);
+
+    timer = new Timer(REFRESH_MILLIS, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+  }
+
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    // only track changes while actually on screen
+    if (dirtyWords == null) {
+      dirtyWords = memory.trackChanges();
+      model.fireTableDataChanged();
+    }
+    timer.start();
+  }
+
+  @Override
+  public void removeNotify() {
+    timer.stop();
+    if (dirtyWords != null) {
+      memory.stopTrackingChanges(dirtyWords);
+      dirtyWords = null;
+    }
+    super.removeNotify();
+  }
+
+  /**
+   * Returns how strongly to highlight a row, from 1.0 just after it was written, fading to 0.0.
+   */
+  public double highlight(int row) {
+    if (!highlightWrites) {
+      return 0.0;
+    }
+    long age = System.currentTimeMillis() - writtenAt[row];
+    return age >= FADE_MILLIS ? 0.0 : 1.0 - (double) age / FADE_MILLIS;
+  }
+
+  public boolean highlightWrites() {
+    return highlightWrites;
+  }
+
+  public void setHighlightWrites(boolean highlightWrites) {
+    this.highlightWrites = highlightWrites;
+    model.fireTableDataChanged();
+  }
+
+  private void refresh() {
+    // repaint rows whose highlight is still fading, then pick up new writes
+    if (fadingTo >= fadingFrom) {
+      int from = fadingFrom, to = fadingTo;
+      fadingFrom = Integer.MAX_VALUE;
+      fadingTo = -1;
+      long now = System.currentTimeMillis();
+      for (int i = from; i <= to; i++) {
+        if (now - writtenAt[i] < FADE_MILLIS + REFRESH_MILLIS) {
+          fadingFrom = Math.min(fadingFrom, i);
+          fadingTo = Math.max(fadingTo, i);
+        }
+      }
+      model.fireTableRowsUpdated(from, to);
+    }
+    if (dirtyWords != null) {
+      dirtyWords.drain(changeListener);
+    }
+  }
+
+  public JTable table() {
+    return table;
+  }
+}
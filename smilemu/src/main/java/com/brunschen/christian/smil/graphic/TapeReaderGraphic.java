@@ -61,6 +61,17 @@ public class TapeReaderGraphic extends AbstractGraphic {
     this.tapeReader = tapeReader;
     this.font = font;
     adjustBounds(tapeReader.tape());
+    tapeReader.addListener(new TapeReader.Listener() {
+      public void tapeChanged(TapeReader tapeReader) {
+        adjustBounds(tapeReader.tape());
+        headMoved(tapeReader);
+      }
+
+      public void headMoved(TapeReader tapeReader) {
+        scrollRectToVisible(headRect());
+        repaint();
+      }
+    });
   }
 
   public void drawTraction(Surface g, int n) {